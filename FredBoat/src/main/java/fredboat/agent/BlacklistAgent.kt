@@ -0,0 +1,18 @@
+package fredboat.agent
+
+import fredboat.util.ratelimit.Ratelimiter
+import org.springframework.stereotype.Service
+import java.util.concurrent.TimeUnit
+
+/**
+ * Writes behind changes to the auto blacklist, along with its snapshot of the blacklisted ids.
+ */
+@Service
+class BlacklistAgent(
+        private val ratelimiter: Ratelimiter
+) : FredBoatAgent("blacklist", 30, TimeUnit.SECONDS) {
+
+    override fun doRun() {
+        ratelimiter.autoBlacklist?.flush()
+    }
+}
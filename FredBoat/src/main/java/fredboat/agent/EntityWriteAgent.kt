@@ -0,0 +1,49 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.agent
+
+import fredboat.db.rest.CachedRestService
+import org.springframework.stereotype.Service
+import java.util.concurrent.TimeUnit
+
+/**
+ * Merges entities that have been transformed in memory into the backend. Writes that fail are retried on later runs,
+ * backing off up to a few minutes, and dropped after failing for an hour.
+ */
+@Service
+class EntityWriteAgent(
+        private val services: List<CachedRestService<*, *>>
+) : FredBoatAgent("entity write", 5, TimeUnit.SECONDS) {
+
+    init {
+        //flushing is synchronized per service, so this waits for a flush of the agent that may be running right now
+        Runtime.getRuntime().addShutdownHook(Thread(Runnable { doRun() }, "entity-write-flush-shutdown-hook"))
+    }
+
+    override fun doRun() {
+        services.forEach { it.flushWrites() }
+    }
+}
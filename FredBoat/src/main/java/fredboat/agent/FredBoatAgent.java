@@ -25,16 +25,29 @@
 
 package fredboat.agent;
 
+import fredboat.feature.metrics.Metrics;
+import io.prometheus.client.Histogram;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Runs regularly in the background.
+ * <p>
+ * Agents share a small pool of threads, except for latency critical ones, which get a thread of their own so that
+ * slow agents can not delay them. Agents are started at a random offset of up to a tenth of their interval, so that
+ * agents with the same interval do not all run at once. Runs that take longer than the interval of their agent are
+ * logged as overruns.
+ */
 public abstract class FredBoatAgent implements Runnable {
 
     private static final String IDLE_NAME = "idle agent worker thread";
@@ -48,6 +61,9 @@ public abstract class FredBoatAgent implements Runnable {
         return thread;
     });
 
+    //the threads of the latency critical agents
+    private static final List<ScheduledExecutorService> DEDICATED = new CopyOnWriteArrayList<>();
+
     public static ScheduledExecutorService getScheduler() {
         return AGENTS;
     }
@@ -55,10 +71,12 @@ public abstract class FredBoatAgent implements Runnable {
     //only one of each agent, non-static is fine
     private final Logger log = LoggerFactory.getLogger(getClass());
 
+    private final String agentName;
     private final String name;
     private final long millisToSleep;
 
     protected FredBoatAgent(String name, long millisToSleep) {
+        this.agentName = name;
         this.name = String.format(RUNNING_NAME, name);
         this.millisToSleep = millisToSleep;
     }
@@ -70,27 +88,52 @@ public abstract class FredBoatAgent implements Runnable {
     @Override
     public final void run() {
         LAST_RUN_TIME.put(this.getClass(), System.currentTimeMillis());
+        long started = System.nanoTime();
+        Histogram.Timer timer = Metrics.agentRunDuration.labels(agentName).startTimer();
         try {
             Thread.currentThread().setName(name);
             doRun();
+            Metrics.agentLastSuccess.labels(agentName).setToCurrentTime();
         } catch (Throwable t) {
             log.warn("Whoa! Unhandled throwable!", t);
         } finally {
-            Thread.currentThread().setName(IDLE_NAME);
+            timer.observeDuration();
+            long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            if (took > millisToSleep) {
+                Metrics.agentOverruns.labels(agentName).inc();
+                log.warn("Run took {}ms, which is longer than the {}ms interval of the agent", took, millisToSleep);
+            }
+            Thread.currentThread().setName(isLatencyCritical() ? name : IDLE_NAME);
         }
     }
 
     protected abstract void doRun();
 
+    /**
+     * @return true to run this agent on a thread of its own, for agents that other services rely on running on time
+     */
+    protected boolean isLatencyCritical() {
+        return false;
+    }
+
     public static void start(FredBoatAgent agent) {
-        LAST_RUN_TIME.put(agent.getClass(), 0L);
-        AGENTS.scheduleAtFixedRate(agent, agent.millisToSleep, agent.millisToSleep, TimeUnit.MILLISECONDS);
+        long jitter = ThreadLocalRandom.current().nextLong(agent.millisToSleep / 10 + 1);
+        schedule(agent, agent.millisToSleep + jitter);
     }
 
     //start the agent without a delay
     public static void startNow(FredBoatAgent agent) {
+        schedule(agent, 0L);
+    }
+
+    private static void schedule(FredBoatAgent agent, long initialDelay) {
         LAST_RUN_TIME.put(agent.getClass(), 0L);
-        AGENTS.scheduleAtFixedRate(agent, 0L, agent.millisToSleep, TimeUnit.MILLISECONDS);
+        ScheduledExecutorService scheduler = AGENTS;
+        if (agent.isLatencyCritical()) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, agent.name));
+            DEDICATED.add(scheduler);
+        }
+        scheduler.scheduleAtFixedRate(agent, initialDelay, agent.millisToSleep, TimeUnit.MILLISECONDS);
     }
 
     public static Map<Class<? extends FredBoatAgent>, Long> getLastRunTimes() {
@@ -99,5 +142,6 @@ public abstract class FredBoatAgent implements Runnable {
 
     public static void shutdown() {
         AGENTS.shutdown();
+        DEDICATED.forEach(ScheduledExecutorService::shutdown);
     }
 }
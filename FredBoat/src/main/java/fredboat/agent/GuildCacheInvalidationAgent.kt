@@ -16,10 +16,9 @@ class GuildCacheInvalidationAgent(
         val guildCache: GuildCache,
         private val playerRegistry: PlayerRegistry,
         private val lavalink: SentinelLavalink
-) : FredBoatAgent("cache-invalidator", 5, TimeUnit.MINUTES) {
+) : FredBoatAgent("cache-invalidator", GuildCache.EXPIRY_TICK_MILLIS, TimeUnit.MILLISECONDS) {
 
     companion object {
-        private const val TIMEOUT_MILLIS: Long = 10 * 60 * 1000 // 10 minutes
         private val log: Logger = LoggerFactory.getLogger(GuildCacheInvalidationAgent::class.java)
         lateinit var INSTANCE: GuildCacheInvalidationAgent
     }
@@ -29,33 +28,30 @@ class GuildCacheInvalidationAgent(
         INSTANCE = this
     }
 
+    // Only the guilds that are due are looked at, so invalidations are spread out as the guilds become unused
     override fun doRun() {
-        val keysToRemove = mutableListOf<InternalGuild>()
-        guildCache.cache.forEach { _, guild ->
-            if (!guild.shouldInvalidate()) return@forEach
-            keysToRemove.add(guild)
-        }
-        keysToRemove.forEach {
+        guildCache.expiry.advance().forEach { id ->
+            val guild = guildCache.cache[id] ?: return@forEach
             try {
-                invalidateGuild(it)
+                val unusedFor = System.currentTimeMillis() - guild.lastUsed
+                when {
+                    unusedFor < GuildCache.EXPIRY_MILLIS ->
+                        guildCache.expiry.schedule(id, GuildCache.EXPIRY_MILLIS - unusedFor)
+                    guild.isInUse() -> guildCache.expiry.schedule(id, GuildCache.EXPIRY_MILLIS)
+                    else -> invalidateGuild(guild)
+                }
             } catch (e: Exception) {
-                log.error("Exception while invalidating guild $it")
+                log.error("Exception while invalidating guild $guild")
             }
         }
     }
 
-    private fun InternalGuild.shouldInvalidate(): Boolean {
-        // Has this guild been used recently?
-        if (lastUsed + TIMEOUT_MILLIS > System.currentTimeMillis()) return false
-
+    private fun InternalGuild.isInUse(): Boolean {
         // Are we connected to voice?
-        if (link.state == Link.State.CONNECTED) return false
+        if (link.state == Link.State.CONNECTED) return true
 
         // Are we playing music?
-        if (this.guildPlayer?.isPlaying == true) return false
-
-        // If not then invalidate
-        return true
+        return this.guildPlayer?.isPlaying == true
     }
 
     fun invalidateGuild(guild: InternalGuild) {
@@ -67,6 +63,7 @@ class GuildCacheInvalidationAgent(
         }
         guild.sentinel.sendAndForget(guild.routingKey, GuildUnsubscribeRequest(guild.id))
         guildCache.cache.remove(guild.id)
+        guildCache.expiry.cancel(guild.id)
     }
 
 }
\ No newline at end of file
@@ -15,6 +15,9 @@ class HelloSender(
 
     lateinit var id: String
 
+    //Sentinel considers us gone if the hellos stop coming
+    override fun isLatencyCritical() = true
+
     override fun doRun() {
         // Send a hello when we start so we get SentinelHellos in return
         rabbitTemplate.convertAndSend(SentinelExchanges.FANOUT, "", FredBoatHello(
@@ -25,90 +25,144 @@
 
 package fredboat.agent
 
+import fredboat.audio.lavalink.SentinelLavalink
 import fredboat.audio.player.PlayerRegistry
 import fredboat.command.music.control.VoteSkipCommand
+import fredboat.event.VoiceChannelTracker
 import fredboat.feature.metrics.Metrics
 import fredboat.sentinel.GuildCache
+import fredboat.sentinel.InternalGuild
 import fredboat.sentinel.VoiceChannel
 import lavalink.client.io.Link
 import org.slf4j.LoggerFactory
 import org.springframework.stereotype.Controller
 import java.util.concurrent.TimeUnit
-import java.util.concurrent.atomic.AtomicInteger
 
+/**
+ * Leaves the voice channels that the [VoiceChannelTracker] found to be empty for a while. Every so often all voice
+ * connections are checked as well, to correct the counts of the tracker and to leave channels that have humans in them
+ * but have not been played in for a long time.
+ */
 @Controller
 class VoiceChannelCleanupAgent(
         private val playerRegistry: PlayerRegistry,
-        private val guildCache: GuildCache
-) : FredBoatAgent("voice-cleanup", 10, TimeUnit.MINUTES) {
+        private val guildCache: GuildCache,
+        private val lavalink: SentinelLavalink,
+        private val tracker: VoiceChannelTracker
+) : FredBoatAgent("voice-cleanup", VoiceChannelTracker.TICK_MILLIS, TimeUnit.MILLISECONDS) {
 
     companion object {
         private val log = LoggerFactory.getLogger(VoiceChannelCleanupAgent::class.java)
         private const val UNUSED_CLEANUP_THRESHOLD = 60000 * 60 // Effective when users are in the VC, but the player is not playing
+        private val SWEEP_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10)
     }
 
     private val vcLastUsed = mutableMapOf<Long, Long>()
+    private var lastSweep = System.currentTimeMillis()
 
     public override fun doRun() {
         try {
-            cleanup()
+            leaveEmptyChannels()
+        } catch (e: Exception) {
+            log.error("Caught an exception while trying to leave empty voice channels!", e)
+        }
+
+        if (System.currentTimeMillis() - lastSweep < SWEEP_INTERVAL_MILLIS) return
+        lastSweep = System.currentTimeMillis()
+        try {
+            sweep()
         } catch (e: Exception) {
             log.error("Caught an exception while trying to clean up voice channels!", e)
         }
+    }
 
+    private fun leaveEmptyChannels() {
+        tracker.emptyChannels.advance().forEach { guildId ->
+            val guild = guildCache.cache[guildId]
+            val link = guild?.existingLink
+            val vcId = link?.channel?.toLong()
+            val vc = vcId?.let { guild?.getVoiceChannel(it) }
+            if (guild == null || link == null || vc == null
+                    || !guild.selfPresent || link.state == Link.State.NOT_CONNECTED) {
+                tracker.forget(guildId)
+                return@forEach
+            }
+
+            // The count of the tracker was off
+            if (getHumanMembersInVC(vc).isNotEmpty()) {
+                tracker.recount(vc)
+                return@forEach
+            }
+
+            disconnect(guild)
+            Metrics.voiceChannelsCleanedUp.inc()
+        }
     }
 
-    private fun cleanup() {
-        log.info("Checking guilds for stale voice connections.")
+    // Only looks at the guilds we have voice connections in
+    private fun sweep() {
+        log.info("Checking voice connections for stale ones.")
 
-        val totalGuilds = AtomicInteger(0)
-        val totalVcs = AtomicInteger(0)
-        val closedVcs = AtomicInteger(0)
+        var totalVcs = 0
+        var closedVcs = 0
+        val connected = mutableSetOf<Long>()
+        val connectedVcs = mutableSetOf<Long>()
 
-        guildCache.cache.forEach { _, guild ->
+        lavalink.links.forEach { link ->
+            val guildId = link.guildId.toLong()
             try {
-                totalGuilds.incrementAndGet()
-                val link = guild.existingLink ?: return@forEach
+                val guild = guildCache.cache[guildId] ?: return@forEach
                 val vcId = link.channel?.toLong()
                 val vc = vcId?.let { guild.getVoiceChannel(it) }
-                if (guild.selfPresent
-                        && link.state != Link.State.NOT_CONNECTED) {
-
-                    totalVcs.incrementAndGet()
-
-                    if (vc != null && getHumanMembersInVC(vc).isEmpty()) {
-                        closedVcs.incrementAndGet()
-                        VoteSkipCommand.guildSkipVotes.remove(guild.id)
-                        link.disconnect()
-                        vcLastUsed.remove(vcId)
-                    } else if (vc != null && isBeingUsed(vc)) {
-                        vcLastUsed[vcId] = System.currentTimeMillis()
-                    } else {
-                        // Not being used! But there are users in te VC. Check if we've been here for a while.
-
-                        vcId?.let {
-                            if (!vcLastUsed.containsKey(vcId)) {
-                                vcLastUsed[vcId] = System.currentTimeMillis()
-                            }
-                        }
+                if (!guild.selfPresent || link.state == Link.State.NOT_CONNECTED) return@forEach
+
+                totalVcs++
+                connected.add(guildId)
+                vcId?.let { connectedVcs.add(it) }
+
+                // Correct the count of the tracker, which leaves the channel once it has been empty for a while
+                val humans = vc?.let { getHumanMembersInVC(it).size }
+                if (vc != null && tracker.getHumans(guildId) != humans) tracker.recount(vc)
 
-                        val lastUsed: Long? = vcLastUsed[vcId] // Null if vcId is
+                if (humans == 0) return@forEach
 
-                        if (lastUsed == null || System.currentTimeMillis() - lastUsed > UNUSED_CLEANUP_THRESHOLD) {
-                            closedVcs.incrementAndGet()
-                            guild.existingLink?.disconnect()
-                            vcId.let { vcLastUsed.remove(it) }
+                if (vc != null && isBeingUsed(vc)) {
+                    vcLastUsed[vcId] = System.currentTimeMillis()
+                } else {
+                    // Not being used! But there are users in te VC. Check if we've been here for a while.
+
+                    vcId?.let {
+                        if (!vcLastUsed.containsKey(vcId)) {
+                            vcLastUsed[vcId] = System.currentTimeMillis()
                         }
                     }
+
+                    val lastUsed: Long? = vcLastUsed[vcId] // Null if vcId is
+
+                    if (lastUsed == null || System.currentTimeMillis() - lastUsed > UNUSED_CLEANUP_THRESHOLD) {
+                        closedVcs++
+                        disconnect(guild)
+                    }
                 }
             } catch (e: Exception) {
-                log.error("Failed to check guild {} for stale voice connections", guild.id, e)
+                log.error("Failed to check guild {} for stale voice connections", guildId, e)
             }
         }
 
-        log.info("Checked {} guilds for stale voice connections.", totalGuilds.get())
-        log.info("Closed {} of {} voice connections.", closedVcs.get(), totalVcs.get())
-        Metrics.voiceChannelsCleanedUp.inc(closedVcs.get().toDouble())
+        // Forget about the channels we are no longer in
+        tracker.guilds.filterNot { connected.contains(it) }.forEach { tracker.forget(it) }
+        vcLastUsed.keys.retainAll(connectedVcs)
+
+        log.info("Closed {} of {} voice connections.", closedVcs, totalVcs)
+        Metrics.voiceChannelsCleanedUp.inc(closedVcs.toDouble())
+    }
+
+    private fun disconnect(guild: InternalGuild) {
+        val vcId = guild.existingLink?.channel?.toLong()
+        VoteSkipCommand.guildSkipVotes.remove(guild.id)
+        guild.existingLink?.disconnect()
+        tracker.forget(guild.id)
+        vcId?.let { vcLastUsed.remove(it) }
     }
 
     private fun getHumanMembersInVC(vc: VoiceChannel) =
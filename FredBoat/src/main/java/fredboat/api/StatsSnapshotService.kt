@@ -0,0 +1,135 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2017 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ */
+
+package fredboat.api
+
+import com.google.common.hash.Hashing
+import fredboat.agent.StatsAgent
+import fredboat.audio.player.PlayerRegistry
+import fredboat.config.property.AppConfig
+import fredboat.util.SentinelCountingService
+import org.json.JSONArray
+import org.json.JSONObject
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.stereotype.Service
+import reactor.core.publisher.Mono
+import java.nio.charset.StandardCharsets
+import java.time.Instant
+import java.time.temporal.ChronoUnit
+import java.util.Arrays
+
+/**
+ * Keeps the response of the stats endpoint serialized, and renews it every minute instead of for each request.
+ * Snapshots keep their ETag and Last-Modified for as long as their content does not change, so that pollers can ask
+ * whether it changed instead of downloading it again.
+ */
+@Service
+class StatsSnapshotService internal constructor(
+        //renders the body of the endpoint, once for each renewal
+        private val renderer: () -> Mono<ByteArray>
+) {
+
+    @Autowired
+    constructor(
+            sentinelCountingService: SentinelCountingService,
+            playerRegistry: PlayerRegistry,
+            appConfig: AppConfig,
+            statsAgent: StatsAgent
+    ) : this({
+        Mono.zip(sentinelCountingService.getCounts(), sentinelCountingService.getUniqueUserCount())
+                .map { render(it.t1, it.t2, playerRegistry, appConfig).toByteArray(StandardCharsets.UTF_8) }
+    }) {
+        statsAgent.addAction(StatsAgent.ActionAdapter("stats api snapshot", intervalMinutes = 1) {
+            renew().subscribe({}, { log.warn("Failed to renew the stats snapshot", it) })
+        })
+    }
+
+    companion object {
+        private val log = LoggerFactory.getLogger(StatsSnapshotService::class.java)
+
+        private fun render(counts: SentinelCountingService.Counts, uniqueUsersCount: Int,
+                           playerRegistry: PlayerRegistry, appConfig: AppConfig): String {
+            val root = JSONObject()
+            val a = JSONArray()
+
+            counts.shards.forEach { shard ->
+                val fbStats = JSONObject()
+                fbStats.put("id", shard.shard.id)
+                        .put("guilds", shard.guilds)
+                        .put("users", shard.users)
+                        .put("status", shard.shard.status)
+
+                a.put(fbStats)
+            }
+
+            val g = JSONObject()
+            g.put("playingPlayers", playerRegistry.playingCount())
+                    .put("totalPlayers", playerRegistry.totalCount())
+                    .put("distribution", appConfig.distribution)
+                    .put("guilds", counts.guilds)
+                    .put("users", uniqueUsersCount)
+
+            root.put("shards", a)
+            root.put("global", g)
+
+            return root.toString()
+        }
+    }
+
+    class Snapshot(val body: ByteArray, val etag: String, val lastModified: Instant)
+
+    @Volatile
+    private var snapshot: Snapshot? = null
+    //the renewal that is underway, which requests share while there is no snapshot yet
+    private var renewal: Mono<Snapshot>? = null
+
+    fun get(): Mono<Snapshot> = snapshot?.let { Mono.just(it) } ?: renew()
+
+    /**
+     * Render the snapshot anew, which the stats agent does every minute. Joins the renewal that is underway, if any.
+     */
+    @Synchronized
+    internal fun renew(): Mono<Snapshot> {
+        renewal?.let { return it }
+
+        val request = renderer()
+                .map { toSnapshot(it) }
+                .doOnSuccess { snapshot = it }
+                .doFinally { synchronized(this) { renewal = null } }
+                .cache()
+        renewal = request
+        return request
+    }
+
+    private fun toSnapshot(body: ByteArray): Snapshot {
+        val previous = snapshot
+        if (previous != null && Arrays.equals(previous.body, body)) return previous
+
+        val etag = "\"${Hashing.murmur3_128().hashBytes(body)}\""
+        // Last-Modified has a resolution of seconds
+        return Snapshot(body, etag, Instant.now().truncatedTo(ChronoUnit.SECONDS))
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.audio.lavalink
+
+import kotlin.math.min
+import kotlin.math.pow
+
+/**
+ * The stats that a Lavalink node last reported, as far as they matter for its load. A new instance is expected for
+ * each report of a node.
+ */
+class NodeLoad(
+        val playingPlayers: Int,
+        /** Between 0 and 1 */
+        val systemLoad: Double,
+        /** Average per minute, or -1 if the node did not send any frames yet */
+        val framesDeficit: Int,
+        /** Average per minute, or -1 if the node did not send any frames yet */
+        val framesNulled: Int
+)
+
+/**
+ * A node as seen by the [NodeBalancer]. Nodes that are not available or did not report their load yet are not used.
+ */
+class NodeState(val name: String, val isAvailable: Boolean, val load: NodeLoad?)
+
+/**
+ * Playing guilds to move from one node to another.
+ */
+class Migration(val from: String, val to: String, val count: Int)
+
+/**
+ * Penalties of a node, the total of which is compared to that of other nodes. Guilds that were placed on or moved to
+ * the node since it last reported its load count as players of it.
+ */
+class Penalties(val player: Int, val cpu: Int, val deficitFrames: Int, val nulledFrames: Int, val pending: Int) {
+    val total: Int
+        get() = player + cpu + deficitFrames + nulledFrames + pending
+
+    override fun toString() = "Penalties(total=$total, player=$player, cpu=$cpu, deficitFrames=$deficitFrames, " +
+            "nulledFrames=$nulledFrames, pending=$pending)"
+}
+
+/**
+ * Decides which Lavalink node new guilds are placed on, and when playing guilds are moved off a node that has a lot
+ * more load than the others.
+ *
+ * Nodes are scored like the Lavalink client does: one penalty per playing player, and exponentially growing penalties
+ * for CPU load and for frames that the node failed to send in time or had no audio for. Nodes report their load once a
+ * minute, so without counting the guilds placed in between, all guilds that join within a minute would end up on the
+ * same node.
+ *
+ * Guilds are moved a few at a time. A node is not moved from or to again until it reported its load since, so that the
+ * effect of the last moves is known before more are made.
+ */
+class NodeBalancer(
+        private val hotMargin: Int = HOT_MARGIN,
+        private val maxMigrations: Int = MAX_MIGRATIONS
+) {
+
+    companion object {
+        /** How much more penalty than the least loaded node a node needs to have for guilds to be moved off it */
+        const val HOT_MARGIN = 100
+        /** How many guilds are moved off a node at most, until it reports its load again */
+        const val MAX_MIGRATIONS = 5
+        //a player is sent 50 frames per second
+        private const val FRAMES_PER_MINUTE = 3000.0
+        private const val MAX_PENALTY = Int.MAX_VALUE / 8
+    }
+
+    private class Tracked(var load: NodeLoad?) {
+        var pending = 0
+        var settling = false
+    }
+
+    private val tracked = HashMap<String, Tracked>()
+
+    /**
+     * @return the penalties of the node, or null if it did not report its load yet
+     */
+    @Synchronized
+    fun penalties(node: NodeState): Penalties? {
+        val load = node.load ?: return null
+        val deficitFrames = if (load.framesDeficit < 0) 0.0
+        else 1.03.pow(500 * load.framesDeficit / FRAMES_PER_MINUTE) * 600 - 600
+        val nulledFrames = if (load.framesNulled < 0) 0.0
+        else (1.03.pow(500 * load.framesNulled / FRAMES_PER_MINUTE) * 300 - 300) * 2
+        return Penalties(
+                player = load.playingPlayers,
+                cpu = capped(1.05.pow(100 * load.systemLoad) * 10 - 10),
+                deficitFrames = capped(deficitFrames),
+                nulledFrames = capped(nulledFrames),
+                pending = track(node).pending
+        )
+    }
+
+    /**
+     * Choose the node for a guild that is about to connect, and count the guild as a player of it until the node
+     * reports its load again.
+     *
+     * @return the least loaded node, or null if no node can be used
+     */
+    @Synchronized
+    fun place(nodes: Collection<NodeState>): NodeState? {
+        val best = usable(nodes).minBy { total(it) } ?: return null
+        track(best).pending++
+        return best
+    }
+
+    /**
+     * Decide whether playing guilds should be moved from the most to the least loaded node. Both nodes are left alone
+     * afterwards, until they reported their load again.
+     *
+     * @param playing how many guilds are playing on a node, which is how many can be moved off it at most
+     * @return the guilds to move, or null if the nodes are balanced well enough
+     */
+    @Synchronized
+    fun rebalance(nodes: Collection<NodeState>, playing: (NodeState) -> Int): Migration? {
+        tracked.keys.retainAll(nodes.map { it.name })
+        val candidates = usable(nodes).filter { !track(it).settling }
+        if (candidates.size < 2) return null
+        val hot = candidates.maxBy { total(it) }!!
+        val cold = candidates.minBy { total(it) }!!
+
+        val limit = min(maxMigrations, playing(hot))
+        var count = 0
+        while (count < limit && total(hot) - total(cold) > hotMargin) {
+            track(hot).pending--
+            track(cold).pending++
+            count++
+        }
+        if (count == 0) return null
+        track(hot).settling = true
+        track(cold).settling = true
+        return Migration(hot.name, cold.name, count)
+    }
+
+    private fun usable(nodes: Collection<NodeState>) = nodes.filter { it.isAvailable && it.load != null }
+
+    private fun total(node: NodeState) = penalties(node)?.total ?: Int.MAX_VALUE
+
+    //starts over once the node reports its load again, as the report includes what happened since the last one
+    private fun track(node: NodeState): Tracked {
+        val tracked = tracked.getOrPut(node.name) { Tracked(node.load) }
+        if (tracked.load !== node.load) {
+            tracked.load = node.load
+            tracked.pending = 0
+            tracked.settling = false
+        }
+        return tracked
+    }
+
+    private fun capped(penalty: Double) = min(penalty, MAX_PENALTY.toDouble()).toInt()
+}
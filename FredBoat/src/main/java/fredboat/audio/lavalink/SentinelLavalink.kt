@@ -4,12 +4,17 @@ import com.fredboat.sentinel.entities.VoiceServerUpdate
 import fredboat.config.idString
 import fredboat.config.property.AppConfig
 import fredboat.config.property.LavalinkConfig
+import fredboat.feature.metrics.Metrics
 import fredboat.sentinel.Guild
 import fredboat.sentinel.Sentinel
 import lavalink.client.io.Lavalink
+import lavalink.client.io.LavalinkSocket
+import lavalink.client.io.Link
 import lavalink.client.io.metrics.LavalinkCollector
 import org.json.JSONObject
+import org.slf4j.LoggerFactory
 import org.springframework.stereotype.Service
+import java.util.concurrent.ConcurrentHashMap
 
 @Service
 class SentinelLavalink(
@@ -23,8 +28,13 @@ class SentinelLavalink(
 
     companion object {
         lateinit var INSTANCE: SentinelLavalink
+        private val log = LoggerFactory.getLogger(SentinelLavalink::class.java)
     }
 
+    val balancer = NodeBalancer()
+    //the stats that the loads were made from, so that a new load is only made once a node reports again
+    private val loads = ConcurrentHashMap<LavalinkSocket, Pair<Any, NodeLoad>>()
+
     init {
         @Suppress("LeakingThis")
         INSTANCE = this
@@ -38,6 +48,54 @@ class SentinelLavalink(
     fun getLink(guild: Guild) = getLink(guild.id.toString())
     fun getExistingLink(guild: Guild) = getExistingLink(guild.idString)
 
+    /**
+     * Assign a link that has no node yet to the least loaded node. If no node reported its load yet, the link is left
+     * to the default choice of the client.
+     */
+    fun place(link: SentinelLink) {
+        if (link.getNode(false) != null) return
+        val chosen = balancer.place(nodeStates()) ?: return
+        val node = nodes.find { it.name == chosen.name } ?: return
+        link.changeNode(node)
+        Metrics.lavalinkPlacements.labels(node.name).inc()
+    }
+
+    /**
+     * Move a few playing guilds off the most loaded node, if it has a lot more load than the least loaded one.
+     */
+    fun rebalance() {
+        val states = nodeStates()
+        states.forEach { state ->
+            balancer.penalties(state)?.let { Metrics.lavalinkNodePenalty.labels(state.name).set(it.total.toDouble()) }
+        }
+        val migration = balancer.rebalance(states) { playingLinks(it.name).size } ?: return
+        val to = nodes.find { it.name == migration.to } ?: return
+        val moved = playingLinks(migration.from).take(migration.count)
+        moved.forEach { it.changeNode(to) }
+        Metrics.lavalinkMigrations.labels(migration.from, migration.to).inc(moved.size.toDouble())
+        log.info("Moved {} playing guilds from node {} to node {}", moved.size, migration.from, migration.to)
+    }
+
+    fun nodeState(node: LavalinkSocket) = NodeState(node.name, node.isAvailable, loadOf(node))
+
+    private fun nodeStates(): List<NodeState> {
+        loads.keys.retainAll(nodes)
+        return nodes.map { nodeState(it) }
+    }
+
+    private fun loadOf(node: LavalinkSocket): NodeLoad? {
+        val stats = node.stats ?: return null
+        loads[node]?.let { (reported, load) -> if (reported === stats) return load }
+        val load = NodeLoad(stats.playingPlayers, stats.systemLoad, stats.avgFramesDeficitPerMinute,
+                stats.avgFramesNulledPerMinute)
+        loads[node] = stats to load
+        return load
+    }
+
+    private fun playingLinks(node: String) = links.filter {
+        it.state == Link.State.CONNECTED && it.getNode(false)?.name == node && it.player.playingTrack != null
+    }
+
     fun onVoiceServerUpdate(update: VoiceServerUpdate) {
         val json = JSONObject(update.raw)
         val gId = json.getString("guild_id")
@@ -55,6 +55,7 @@ class SentinelLink(val lavalink: SentinelLavalink, guildId: String) : Link(laval
                     "members, and we don't have $VOICE_MOVE_OTHERS to bypass the limit.")
         }
 
+        lavalink.place(this)
         state = Link.State.CONNECTING
         queueAudioConnect(channel.id)
     }
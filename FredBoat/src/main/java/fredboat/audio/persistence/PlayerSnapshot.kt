@@ -0,0 +1,103 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.audio.persistence
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo
+import fredboat.audio.queue.AudioTrackContext
+import fredboat.audio.queue.EncodedTrack
+import fredboat.audio.queue.SplitAudioTrackContext
+import fredboat.definitions.RepeatMode
+import fredboat.sentinel.Member
+
+/**
+ * The persisted state of a guild player, from which it can be restored after a restart.
+ *
+ * @param position the position of the first track, if it was playing
+ */
+class PlayerSnapshot(
+        val guildId: Long,
+        val voiceChannelId: Long,
+        val textChannelId: Long,
+        val isPaused: Boolean,
+        val volume: Float,
+        val repeatMode: RepeatMode,
+        val isShuffle: Boolean,
+        val position: Long?,
+        val tracks: List<TrackRecord>
+)
+
+/**
+ * A persisted queue entry. Besides the encoded track it holds the info of the track, so that it can be restored without
+ * decoding the track.
+ *
+ * @param message the track as encoded by the audio player manager
+ * @param identifier null if the record was persisted before identifiers were kept, in which case the info of the
+ * record is incomplete and should be [completed][complete] from the decoded track
+ */
+class TrackRecord(
+        val message: ByteArray,
+        val userId: Long,
+        val title: String,
+        val author: String,
+        val duration: Long,
+        val isStream: Boolean,
+        val identifier: String?,
+        val uri: String?,
+        val split: Split? = null
+) {
+    class Split(val title: String, val startPosition: Long, val endPosition: Long)
+
+    companion object {
+        /**
+         * @param playerManager encodes the track if it was decoded
+         */
+        fun of(atc: AudioTrackContext, playerManager: AudioPlayerManager): TrackRecord {
+            val encoded = atc.toEncoded(playerManager)
+            val split = if (atc is SplitAudioTrackContext) {
+                Split(atc.effectiveTitle, atc.startPosition, atc.startPosition + atc.effectiveDuration)
+            } else null
+            return TrackRecord(encoded.message, atc.userId, encoded.title, encoded.author, encoded.duration,
+                    encoded.isStream, encoded.identifier, encoded.uri, split)
+        }
+    }
+
+    /**
+     * @return this record with the info of its decoded track
+     */
+    fun complete(info: AudioTrackInfo) =
+            TrackRecord(message, userId, info.title, info.author, info.length, info.isStream, info.identifier, info.uri,
+                    split)
+
+    /**
+     * @return a queue entry for this record, which is decoded by the player manager once it is needed
+     */
+    fun toEntry(member: Member, playerManager: AudioPlayerManager): AudioTrackContext {
+        val track = EncodedTrack(message, title, author, duration, isStream, identifier, uri, playerManager)
+        val split = split ?: return AudioTrackContext(track, member)
+        return SplitAudioTrackContext(track, member, split.startPosition, split.endPosition, split.title)
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.audio.persistence
+
+import fredboat.definitions.RepeatMode
+import java.io.*
+import java.nio.charset.StandardCharsets
+import java.util.zip.CRC32
+import java.util.zip.CheckedInputStream
+import java.util.zip.CheckedOutputStream
+
+/**
+ * Binary format of [PlayerSnapshot]s.
+ *
+ * A snapshot starts with a magic number and the format version, followed by the player state and a table of all
+ * titles and authors of its tracks, so that repeated ones are stored only once. Each track is a record that is
+ * prefixed with its length, so that readers can skip over them. A CRC32 checksum of everything before it ends the
+ * snapshot, which makes a snapshot that was cut short or corrupted fail to read instead of restoring garbage.
+ *
+ * Snapshots of older versions are still read. Version 1 did not store the duration and stream flag of a track, and
+ * versions before 3 did not store its identifier and uri. Records of those lack their identifier, so that the missing
+ * info can be taken from the decoded track when they are restored.
+ */
+object PlayerSnapshotCodec {
+
+    private const val MAGIC = 0x46424D50 // FBMP
+    private const val VERSION = 3
+
+    private const val FLAG_PAUSED = 1
+    private const val FLAG_SHUFFLE = 2
+    private const val FLAG_POSITION = 4
+    private const val FLAG_SPLIT = 1
+    private const val FLAG_STREAM = 2
+    private const val FLAG_INFO = 4
+
+    /**
+     * @return true if the bytes start like a snapshot in this format does
+     */
+    fun isSnapshot(header: ByteArray): Boolean {
+        if (header.size < 4) return false
+        return DataInputStream(ByteArrayInputStream(header)).readInt() == MAGIC
+    }
+
+    @Throws(IOException::class)
+    fun write(snapshot: PlayerSnapshot, output: OutputStream) {
+        val checked = CheckedOutputStream(output, CRC32())
+        val out = DataOutputStream(checked)
+        out.writeInt(MAGIC)
+        out.writeByte(VERSION)
+
+        out.writeLong(snapshot.guildId)
+        out.writeLong(snapshot.voiceChannelId)
+        out.writeLong(snapshot.textChannelId)
+        var flags = 0
+        if (snapshot.isPaused) flags = flags or FLAG_PAUSED
+        if (snapshot.isShuffle) flags = flags or FLAG_SHUFFLE
+        if (snapshot.position != null) flags = flags or FLAG_POSITION
+        out.writeByte(flags)
+        out.writeFloat(snapshot.volume)
+        out.writeByte(snapshot.repeatMode.ordinal)
+        out.writeLong(snapshot.position ?: 0)
+
+        val strings = LinkedHashMap<String, Int>()
+        fun index(string: String) = strings.getOrPut(string) { strings.size }
+        snapshot.tracks.forEach { track ->
+            index(track.title)
+            index(track.author)
+            track.split?.let { index(it.title) }
+            track.identifier?.let { index(it) }
+            track.uri?.let { index(it) }
+        }
+        out.writeInt(strings.size)
+        strings.keys.forEach { string ->
+            val bytes = string.toByteArray(StandardCharsets.UTF_8)
+            out.writeInt(bytes.size)
+            out.write(bytes)
+        }
+
+        out.writeInt(snapshot.tracks.size)
+        val buffer = ByteArrayOutputStream()
+        val record = DataOutputStream(buffer)
+        snapshot.tracks.forEach { track ->
+            buffer.reset()
+            record.writeLong(track.userId)
+            record.writeInt(index(track.title))
+            record.writeInt(index(track.author))
+            record.writeLong(track.duration)
+            val split = track.split
+            var trackFlags = 0
+            if (split != null) trackFlags = trackFlags or FLAG_SPLIT
+            if (track.isStream) trackFlags = trackFlags or FLAG_STREAM
+            val identifier = track.identifier
+            if (identifier != null) trackFlags = trackFlags or FLAG_INFO
+            record.writeByte(trackFlags)
+            if (split != null) {
+                record.writeInt(index(split.title))
+                record.writeLong(split.startPosition)
+                record.writeLong(split.endPosition)
+            }
+            if (identifier != null) {
+                record.writeInt(index(identifier))
+                record.writeInt(track.uri?.let { index(it) } ?: -1)
+            }
+            record.writeInt(track.message.size)
+            record.write(track.message)
+
+            out.writeInt(buffer.size())
+            buffer.writeTo(out)
+        }
+
+        out.flush()
+        DataOutputStream(output).writeLong(checked.checksum.value)
+        output.flush()
+    }
+
+    /**
+     * @throws IOException if the input is not a snapshot in this format, or if it is incomplete or corrupted
+     */
+    @Throws(IOException::class)
+    fun read(input: InputStream): PlayerSnapshot {
+        val checked = CheckedInputStream(input, CRC32())
+        val data = DataInputStream(checked)
+        if (data.readInt() != MAGIC) throw IOException("Not a player snapshot")
+        val version = data.readUnsignedByte()
+        if (version < 1 || version > VERSION) throw IOException("Unsupported player snapshot version $version")
+
+        val guildId = data.readLong()
+        val voiceChannelId = data.readLong()
+        val textChannelId = data.readLong()
+        val flags = data.readUnsignedByte()
+        val volume = data.readFloat()
+        val repeatMode = RepeatMode.values().getOrNull(data.readUnsignedByte())
+                ?: throw IOException("Unknown repeat mode")
+        val position = data.readLong()
+
+        //counts are not trusted to presize anything, a corrupted one runs into the end of the input instead
+        val strings = ArrayList<String>()
+        repeat(readCount(data)) {
+            strings.add(String(readBytes(data, readCount(data)), StandardCharsets.UTF_8))
+        }
+        fun string(index: Int) = strings.getOrNull(index) ?: throw IOException("Unknown string $index")
+
+        val tracks = ArrayList<TrackRecord>()
+        repeat(readCount(data)) {
+            val length = readCount(data)
+            val record = DataInputStream(ByteArrayInputStream(readBytes(data, length)))
+            val userId = record.readLong()
+            val title = string(record.readInt())
+            val author = string(record.readInt())
+            val duration = if (version >= 2) record.readLong() else 0L
+            val trackFlags = record.readUnsignedByte()
+            val split = if (trackFlags and FLAG_SPLIT != 0) {
+                TrackRecord.Split(string(record.readInt()), record.readLong(), record.readLong())
+            } else null
+            var identifier: String? = null
+            var uri: String? = null
+            if (trackFlags and FLAG_INFO != 0) {
+                identifier = string(record.readInt())
+                uri = record.readInt().let { if (it < 0) null else string(it) }
+            }
+            val message = readBytes(record, readCount(record))
+            tracks.add(TrackRecord(message, userId, title, author, duration, trackFlags and FLAG_STREAM != 0,
+                    identifier, uri, split))
+        }
+
+        val checksum = checked.checksum.value
+        if (DataInputStream(input).readLong() != checksum) throw IOException("Player snapshot checksum mismatch")
+
+        return PlayerSnapshot(
+                guildId,
+                voiceChannelId,
+                textChannelId,
+                flags and FLAG_PAUSED != 0,
+                volume,
+                repeatMode,
+                flags and FLAG_SHUFFLE != 0,
+                if (flags and FLAG_POSITION != 0) position else null,
+                tracks
+        )
+    }
+
+    private fun readCount(input: DataInputStream): Int {
+        val count = input.readInt()
+        if (count < 0) throw IOException("Negative length $count")
+        return count
+    }
+
+    private fun readBytes(input: DataInputStream, length: Int): ByteArray {
+        if (length <= 8192) return ByteArray(length).also { input.readFully(it) }
+        val out = ByteArrayOutputStream()
+        val chunk = ByteArray(8192)
+        var remaining = length
+        while (remaining > 0) {
+            val read = input.read(chunk, 0, minOf(chunk.size, remaining))
+            if (read < 0) throw EOFException()
+            out.write(chunk, 0, read)
+            remaining -= read
+        }
+        return out.toByteArray()
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.audio.persistence
+
+import org.slf4j.LoggerFactory
+import java.io.*
+import java.nio.file.*
+
+/**
+ * Keeps one [PlayerSnapshot] file per guild in a directory.
+ *
+ * Snapshots are written to a temporary file, synced to disk and then renamed over the previous snapshot of the guild.
+ * A crash at any point leaves either the previous or the new snapshot in place, never a partial one.
+ */
+class PlayerSnapshotStore(val dir: File) {
+
+    companion object {
+        private val log = LoggerFactory.getLogger(PlayerSnapshotStore::class.java)
+        private const val TMP_SUFFIX = ".tmp"
+    }
+
+    @Synchronized
+    @Throws(IOException::class)
+    fun write(snapshot: PlayerSnapshot) {
+        if (!dir.exists() && !dir.mkdirs()) throw IOException("Failed to create directory $dir")
+        val tmp = File(dir, snapshot.guildId.toString() + TMP_SUFFIX)
+        FileOutputStream(tmp).use { out ->
+            PlayerSnapshotCodec.write(snapshot, BufferedOutputStream(out))
+            out.fd.sync()
+        }
+        try {
+            Files.move(tmp.toPath(), fileOf(snapshot.guildId).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+        } catch (e: AtomicMoveNotSupportedException) {
+            Files.move(tmp.toPath(), fileOf(snapshot.guildId).toPath(), StandardCopyOption.REPLACE_EXISTING)
+        }
+    }
+
+    /**
+     * @throws IOException if the file does not hold a snapshot, or if it is incomplete or corrupted
+     */
+    @Throws(IOException::class)
+    fun read(file: File): PlayerSnapshot = BufferedInputStream(FileInputStream(file)).use { PlayerSnapshotCodec.read(it) }
+
+    @Synchronized
+    fun delete(guildId: Long): Boolean = fileOf(guildId).delete()
+
+    /**
+     * @return the files of all guilds that have a snapshot. Temporary files of writes that did not finish are deleted.
+     */
+    @Synchronized
+    fun list(): List<File> {
+        val files = dir.listFiles() ?: return emptyList()
+        return files.filter { file ->
+            if (file.name.endsWith(TMP_SUFFIX)) {
+                log.info("Deleting unfinished player snapshot {}", file)
+                file.delete()
+                return@filter false
+            }
+            file.name.toLongOrNull() != null
+        }
+    }
+
+    fun fileOf(guildId: Long) = File(dir, guildId.toString())
+}
@@ -0,0 +1,237 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.audio.persistence
+
+import com.google.common.base.Ticker
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import com.google.common.util.concurrent.Striped
+import org.slf4j.LoggerFactory
+import java.io.*
+import java.nio.charset.StandardCharsets
+import java.nio.file.AtomicMoveNotSupportedException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.withLock
+
+/**
+ * Keeps the played tracks of each guild in a file that is only ever appended to.
+ *
+ * Each record is framed by its length on both ends, so that the file can be read backwards from its end, latest track
+ * first. A record that was cut short by a crash is truncated when the file of its guild is first used. Once a file
+ * holds twice the amount of records that are kept, it is compacted to the latest ones.
+ *
+ * The file of a guild is only used by one thread at a time, files of different guilds are used concurrently. The count
+ * of records of a guild is forgotten once its history was not used for a while, and recounted when it is used again.
+ */
+class TrackHistoryStore(val dir: File, val maxEntries: Int, ticker: Ticker = Ticker.systemTicker()) {
+
+    companion object {
+        private val log = LoggerFactory.getLogger(TrackHistoryStore::class.java)
+        private const val FLAG_STREAM = 1
+        private const val FLAG_SPLIT = 2
+        //records appended before identifiers and uris were kept have neither
+        private const val FLAG_IDENTIFIER = 4
+        private const val FLAG_URI = 8
+        private const val LOCK_STRIPES = 64
+        const val IDLE_MINUTES = 30L
+    }
+
+    private val locks = Striped.lock(LOCK_STRIPES)
+    //complete records in the file of each guild that was used recently
+    private val counts: Cache<Long, Int> = CacheBuilder.newBuilder()
+            .expireAfterAccess(IDLE_MINUTES, TimeUnit.MINUTES)
+            .ticker(ticker)
+            .build()
+
+    /** Guilds whose count of records is known */
+    val countedGuilds: Long
+        get() = counts.size()
+
+    init {
+        require(maxEntries > 0) { "The history store needs to keep entries" }
+    }
+
+    @Throws(IOException::class)
+    fun append(guildId: Long, record: TrackRecord) = locked(guildId) {
+        val count = countLocked(guildId)
+        if (!dir.mkdirs() && !dir.isDirectory) throw IOException("Failed to create directory $dir")
+
+        val bytes = encode(record)
+        DataOutputStream(BufferedOutputStream(FileOutputStream(fileOf(guildId), true))).use { out ->
+            out.writeInt(bytes.size)
+            out.write(bytes)
+            out.writeInt(bytes.size)
+        }
+        counts.put(guildId, count + 1)
+        if (count + 1 >= 2 * maxEntries) compact(guildId)
+    }
+
+    @Throws(IOException::class)
+    fun count(guildId: Long): Int = locked(guildId) { countLocked(guildId) }
+
+    /**
+     * @return the records from the start index inclusive to the end index exclusive, latest first
+     */
+    @Throws(IOException::class)
+    fun read(guildId: Long, start: Int, end: Int): List<TrackRecord> = locked(guildId) {
+        val last = Math.min(end, countLocked(guildId))
+        val records = ArrayList<TrackRecord>(Math.max(0, last - start))
+        if (start >= last) return@locked records
+
+        RandomAccessFile(fileOf(guildId), "r").use { file ->
+            var position = file.length()
+            for (i in 0 until last) {
+                file.seek(position - 4)
+                val length = file.readInt()
+                position -= length + 8
+                if (i >= start) {
+                    val bytes = ByteArray(length)
+                    file.seek(position + 4)
+                    file.readFully(bytes)
+                    records.add(decode(bytes))
+                }
+            }
+        }
+        records
+    }
+
+    fun delete(guildId: Long): Boolean = locked(guildId) {
+        counts.invalidate(guildId)
+        fileOf(guildId).delete()
+    }
+
+    fun fileOf(guildId: Long) = File(dir, guildId.toString())
+
+    private inline fun <T> locked(guildId: Long, block: () -> T): T = locks.get(guildId).withLock(block)
+
+    private fun countLocked(guildId: Long): Int = counts.getIfPresent(guildId)
+            ?: recover(fileOf(guildId)).also { counts.put(guildId, it) }
+
+    //counts the complete records of the file, and cuts off an incomplete one at its end
+    private fun recover(file: File): Int {
+        if (!file.exists()) return 0
+        RandomAccessFile(file, "rw").use { raf ->
+            val length = raf.length()
+            var position = 0L
+            var count = 0
+            while (position + 8 <= length) {
+                raf.seek(position)
+                val recordLength = raf.readInt()
+                if (recordLength < 0 || position + 8 + recordLength > length) break
+                raf.seek(position + 4 + recordLength)
+                if (raf.readInt() != recordLength) break
+                position += recordLength + 8
+                count++
+            }
+            if (position < length) {
+                log.warn("Truncating incomplete track history record at {} of {}", position, file)
+                raf.setLength(position)
+            }
+            return count
+        }
+    }
+
+    //keeps the latest records, by copying the end of the file over it
+    private fun compact(guildId: Long) {
+        val file = fileOf(guildId)
+        val tmp = File(dir, "$guildId.tmp")
+        RandomAccessFile(file, "r").use { raf ->
+            var position = raf.length()
+            repeat(maxEntries) {
+                raf.seek(position - 4)
+                position -= raf.readInt() + 8
+            }
+            FileOutputStream(tmp).use { out ->
+                raf.channel.transferTo(position, raf.length() - position, out.channel)
+                out.fd.sync()
+            }
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+        } catch (e: AtomicMoveNotSupportedException) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING)
+        }
+        counts.put(guildId, maxEntries)
+    }
+
+    private fun encode(record: TrackRecord): ByteArray {
+        val bytes = ByteArrayOutputStream()
+        val out = DataOutputStream(bytes)
+        out.writeLong(record.userId)
+        writeString(out, record.title)
+        writeString(out, record.author)
+        out.writeLong(record.duration)
+        val split = record.split
+        var flags = 0
+        if (record.isStream) flags = flags or FLAG_STREAM
+        if (split != null) flags = flags or FLAG_SPLIT
+        if (record.identifier != null) flags = flags or FLAG_IDENTIFIER
+        if (record.uri != null) flags = flags or FLAG_URI
+        out.writeByte(flags)
+        if (split != null) {
+            writeString(out, split.title)
+            out.writeLong(split.startPosition)
+            out.writeLong(split.endPosition)
+        }
+        record.identifier?.let { writeString(out, it) }
+        record.uri?.let { writeString(out, it) }
+        out.writeInt(record.message.size)
+        out.write(record.message)
+        return bytes.toByteArray()
+    }
+
+    private fun decode(bytes: ByteArray): TrackRecord {
+        val input = DataInputStream(ByteArrayInputStream(bytes))
+        val userId = input.readLong()
+        val title = readString(input)
+        val author = readString(input)
+        val duration = input.readLong()
+        val flags = input.readUnsignedByte()
+        val split = if (flags and FLAG_SPLIT != 0) {
+            TrackRecord.Split(readString(input), input.readLong(), input.readLong())
+        } else null
+        val identifier = if (flags and FLAG_IDENTIFIER != 0) readString(input) else null
+        val uri = if (flags and FLAG_URI != 0) readString(input) else null
+        val message = ByteArray(input.readInt())
+        input.readFully(message)
+        return TrackRecord(message, userId, title, author, duration, flags and FLAG_STREAM != 0, identifier, uri,
+                split)
+    }
+
+    private fun writeString(out: DataOutputStream, string: String) {
+        val bytes = string.toByteArray(StandardCharsets.UTF_8)
+        out.writeInt(bytes.size)
+        out.write(bytes)
+    }
+
+    private fun readString(input: DataInputStream): String {
+        val bytes = ByteArray(input.readInt())
+        input.readFully(bytes)
+        return String(bytes, StandardCharsets.UTF_8)
+    }
+}
@@ -25,7 +25,7 @@
 
 package fredboat.audio.player
 
-import com.google.common.collect.Lists
+import com.google.common.collect.Iterators
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayer
 import com.sedmelluq.discord.lavaplayer.tools.FriendlyException
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack
@@ -36,20 +36,28 @@ import fredboat.audio.queue.AudioTrackContext
 import fredboat.audio.queue.ITrackProvider
 import fredboat.audio.queue.SplitAudioTrackContext
 import fredboat.audio.queue.TrackEndMarkerHandler
+import fredboat.audio.queue.TrackLookahead
 import fredboat.commandmeta.MessagingException
+import fredboat.feature.metrics.Metrics
 import fredboat.sentinel.Guild
+import fredboat.util.SerialExecutor
 import fredboat.util.TextUtils
 import lavalink.client.player.LavalinkPlayer
 import lavalink.client.player.event.AudioEventAdapterWrapped
 import org.slf4j.LoggerFactory
 import java.util.*
-import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
 import java.util.function.Consumer
 
 abstract class AbstractPlayer internal constructor(
         lavalink: SentinelLavalink,
         internal val audioTrackProvider: ITrackProvider,
-        guild: Guild
+        guild: Guild,
+        counters: PlayerCounters?,
+        transitionExecutor: Executor,
+        lookaheadExecutor: Executor
 ) : AudioEventAdapterWrapped() {
 
     val player: LavalinkPlayer = lavalink.getLink(guild.id.toString()).player
@@ -59,11 +67,15 @@ abstract class AbstractPlayer internal constructor(
     internal var onErrorHook: Consumer<Throwable>? = null
     @Volatile
     private var lastLoadedTrack: AudioTrackContext? = null
-    private val historyQueue = ConcurrentLinkedQueue<AudioTrackContext>()
+    protected abstract val history: PlayerHistory
+    private val counts = counters?.register()
+    //track ends are handled here, one after another, instead of on the thread that the audio events arrive on
+    private val transitions = SerialExecutor(transitionExecutor, TRANSITION_QUEUE_LIMIT)
+    internal val lookahead = TrackLookahead(audioTrackProvider, lookaheadExecutor)
 
     companion object {
         private val log = LoggerFactory.getLogger(AbstractPlayer::class.java)
-        private const val MAX_HISTORY_SIZE = 20
+        private const val TRANSITION_QUEUE_LIMIT = 16
     }
 
     val isQueueEmpty: Boolean
@@ -74,10 +86,10 @@ abstract class AbstractPlayer internal constructor(
         }
 
     val trackCountInHistory: Int
-        get() = historyQueue.size
+        get() = history.size
 
     val isHistoryQueueEmpty: Boolean
-        get() = historyQueue.isEmpty()
+        get() = history.isEmpty
 
     val playingTrack: AudioTrackContext?
         get() {
@@ -103,6 +115,15 @@ abstract class AbstractPlayer internal constructor(
             return list
         }
 
+    /**
+     * @return an iterator over the [remainingTracks], which does not copy the queue
+     */
+    fun iterateRemainingTracks(): Iterator<AudioTrackContext> {
+        val atc = playingTrack
+        val queued = audioTrackProvider.iterator()
+        return if (atc == null) queued else Iterators.concat(Iterators.singletonIterator(atc), queued)
+    }
+
     var volume: Float
         get() = player.volume.toFloat() / 100
         set(vol) {
@@ -122,6 +143,26 @@ abstract class AbstractPlayer internal constructor(
         player.addListener(this)
     }
 
+    /**
+     * Report the current state of this player to the counters of the registry, and start decoding the upcoming tracks
+     * if the queue changed. Called whenever the state may have changed.
+     */
+    fun updateCounts() {
+        counts?.report { countState() }
+        lookahead.refresh()
+    }
+
+    /** Take this player out of the counters of the registry, for when it is removed from the registry */
+    internal fun stopCounting() {
+        counts?.remove()
+    }
+
+    internal open fun countState() = PlayerCounts(
+            playing = if (isPlaying) 1 else 0,
+            paused = if (isPaused) 1 else 0,
+            queuedTracks = audioTrackProvider.size()
+    )
+
     fun play() {
         log.trace("play()")
 
@@ -131,7 +172,7 @@ abstract class AbstractPlayer internal constructor(
         if (player.playingTrack == null) {
             loadAndPlay()
         }
-
+        updateCounts()
     }
 
     fun setPause(pause: Boolean) {
@@ -139,6 +180,7 @@ abstract class AbstractPlayer internal constructor(
 
         if (pause) {
             player.isPaused = true
+            updateCounts()
         } else {
             player.isPaused = false
             play()
@@ -152,6 +194,7 @@ abstract class AbstractPlayer internal constructor(
         log.trace("pause()")
 
         player.isPaused = true
+        updateCounts()
     }
 
     /**
@@ -182,45 +225,81 @@ abstract class AbstractPlayer internal constructor(
 
         context = null
         player.stopTrack()
+        updateCounts()
     }
 
     fun getTracksInHistory(start: Int, end: Int): List<AudioTrackContext> {
-        val start2 = Math.max(start, 0)
-        val end2 = Math.max(end, start)
-        val historyList = ArrayList(historyQueue)
+        return history.getRange(start, end)
+    }
 
-        return if (historyList.size >= end2) {
-            Lists.reverse(ArrayList(historyQueue)).subList(start2, end2)
-        } else {
-            ArrayList()
+    override fun onTrackEnd(player: AudioPlayer?, track: AudioTrack?, endReason: AudioTrackEndReason?) {
+        val ended = System.nanoTime()
+        val transition = Runnable {
+            Metrics.trackTransitionDelay.observe(secondsSince(ended))
+            if (handleTrackEnd(track!!, endReason!!)) {
+                Metrics.trackTransitionDuration.observe(secondsSince(ended))
+            }
+            updateCounts()
+        }
+        try {
+            transitions.execute(transition)
+        } catch (e: RejectedExecutionException) {
+            //the waiting transitions start the next track if nothing is playing by then, so this end only misses out on
+            // adding to the history. Running it here instead would race them
+            Metrics.trackEndsDropped.inc()
+            log.debug("Too many track transitions are waiting in {}, dropping the end of {}", this, track?.identifier)
         }
     }
 
-    override fun onTrackEnd(player: AudioPlayer?, track: AudioTrack?, endReason: AudioTrackEndReason?) {
-        log.debug("onTrackEnd({} {} {}) called", track!!.info.title, endReason!!.name, endReason.mayStartNext)
+    /**
+     * @return true if the next track was started
+     */
+    private fun handleTrackEnd(track: AudioTrack, endReason: AudioTrackEndReason): Boolean {
+        log.debug("onTrackEnd({} {} {}) called", track.info.title, endReason.name, endReason.mayStartNext)
 
         if (endReason == AudioTrackEndReason.FINISHED || endReason == AudioTrackEndReason.STOPPED) {
             updateHistoryQueue()
-            loadAndPlay()
+            //a command may have started a track since
+            return player.playingTrack == null && loadAndPlay()
         } else if (endReason == AudioTrackEndReason.CLEANUP) {
             log.info("Track " + track.identifier + " was cleaned up")
         } else if (endReason == AudioTrackEndReason.LOAD_FAILED) {
             if (onErrorHook != null)
                 onErrorHook!!.accept(MessagingException("Track `" + TextUtils.escapeAndDefuse(track.info.title) + "` failed to load. Skipping..."))
             audioTrackProvider.skipped()
-            loadAndPlay()
+            return player.playingTrack == null && loadAndPlay()
         } else {
             log.warn("Track " + track.identifier + " ended with unexpected reason: " + endReason)
         }
+        return false
     }
 
-    //request the next track from the track provider and start playing it
-    private fun loadAndPlay() {
+    private fun secondsSince(nanos: Long) = (System.nanoTime() - nanos) / TimeUnit.SECONDS.toNanos(1).toDouble()
+
+    override fun onTrackStart(player: AudioPlayer?, track: AudioTrack?) = updateCounts()
+
+    override fun onPlayerPause(player: AudioPlayer?) = updateCounts()
+
+    override fun onPlayerResume(player: AudioPlayer?) = updateCounts()
+
+    /**
+     * Request the next track from the track provider and start playing it
+     *
+     * @return true if there was a track to play
+     */
+    private fun loadAndPlay(): Boolean {
         log.trace("loadAndPlay()")
 
-        val atc = audioTrackProvider.provideAudioTrack()
+        var atc = audioTrackProvider.provideAudioTrack()
+        //queued tracks are decoded ahead of time or when they are played, which fails if their source got disabled in
+        // the meantime
+        while (atc != null && !lookahead.take(atc) && !atc.decode()) {
+            audioTrackProvider.skipped()
+            atc = audioTrackProvider.provideAudioTrack()
+        }
         lastLoadedTrack = atc
         atc?.let { playTrack(it) }
+        return atc != null
     }
 
     private fun updateHistoryQueue() {
@@ -229,10 +308,7 @@ abstract class AbstractPlayer internal constructor(
             log.debug("No lastLoadedTrack in $this after track end")
             return
         }
-        if (historyQueue.size == MAX_HISTORY_SIZE) {
-            historyQueue.poll()
-        }
-        historyQueue.add(lastTrack)
+        history.add(lastTrack)
     }
 
     /**
@@ -262,6 +338,7 @@ abstract class AbstractPlayer internal constructor(
 
     internal open fun destroy() {
         stop()
+        lookahead.clear()
         player.removeListener(this)
         player.link.destroy()
     }
@@ -29,11 +29,13 @@ import com.sedmelluq.discord.lavaplayer.player.AudioPlayer
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack
 import fredboat.audio.lavalink.SentinelLavalink
+import fredboat.audio.persistence.TrackHistoryStore
 import fredboat.audio.queue.*
 import fredboat.command.music.control.VoteSkipCommand
 import fredboat.commandmeta.MessagingException
 import fredboat.commandmeta.abs.CommandContext
-import fredboat.db.api.GuildConfigService
+import fredboat.db.GuildSettings
+import fredboat.db.rest.GuildSettingsLoader
 import fredboat.definitions.PermissionLevel
 import fredboat.definitions.RepeatMode
 import fredboat.feature.I18n
@@ -51,6 +53,8 @@ import org.apache.commons.lang3.tuple.ImmutablePair
 import org.apache.commons.lang3.tuple.Pair
 import org.slf4j.LoggerFactory
 import java.util.*
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicBoolean
 import java.util.function.Consumer
 import kotlin.streams.toList
 
@@ -61,13 +65,18 @@ class GuildPlayer(
         var guild: Guild,
         private val musicTextChannelProvider: MusicTextChannelProvider,
         audioPlayerManager: AudioPlayerManager,
-        private val guildConfigService: GuildConfigService,
+        private val guildSettingsLoader: GuildSettingsLoader,
         ratelimiter: Ratelimiter,
-        youtubeAPI: YoutubeAPI
-) : AbstractPlayer(lavalink, SimpleTrackProvider(), guild) {
+        youtubeAPI: YoutubeAPI,
+        historyStore: TrackHistoryStore?,
+        counters: PlayerCounters?,
+        transitionExecutor: Executor,
+        lookaheadExecutor: Executor
+) : AbstractPlayer(lavalink, SimpleTrackProvider(), guild, counters, transitionExecutor, lookaheadExecutor) {
 
     private val audioLoader: AudioLoader
     val guildId = guild.id
+    override val history = PlayerHistory(historyStore, audioPlayerManager) { this.guild }
 
     companion object {
         private val log = LoggerFactory.getLogger(GuildPlayer::class.java)
@@ -87,7 +96,7 @@ class GuildPlayer(
             var millis = audioTrackProvider.durationMillis
 
             val currentTrack = if (player.playingTrack != null) context else null
-            if (currentTrack != null && !currentTrack.track.info.isStream) {
+            if (currentTrack != null && !currentTrack.isStream) {
                 millis += Math.max(0, currentTrack.effectiveDuration - position)
             }
             return millis
@@ -98,7 +107,7 @@ class GuildPlayer(
         get() {
             var streams = audioTrackProvider.streamsCount().toLong()
             val atc = if (player.playingTrack != null) context else null
-            if (atc != null && atc.track.info.isStream) streams++
+            if (atc != null && atc.isStream) streams++
             return streams
         }
 
@@ -130,6 +139,7 @@ class GuildPlayer(
             RepeatMode.OFF
         set(repeatMode) = if (audioTrackProvider is AbstractTrackProvider) {
             audioTrackProvider.repeatMode = repeatMode
+            lookahead.refresh()
         } else {
             throw UnsupportedOperationException("Can't repeat " + audioTrackProvider.javaClass)
         }
@@ -139,27 +149,57 @@ class GuildPlayer(
         set(shuffle) = if (audioTrackProvider is AbstractTrackProvider) {
             audioTrackProvider.isShuffle = shuffle
             context?.isPriority = false
+            lookahead.refresh()
         } else {
             throw UnsupportedOperationException("Can't shuffle " + audioTrackProvider.javaClass)
         }
 
-    private val isTrackAnnounceEnabled: Boolean
+    @Volatile
+    private var latestSettings: GuildSettings? = null
+    private val renewingSettings = AtomicBoolean(false)
+
+    /**
+     * The settings of the guild of this player. Commands hand theirs over when they use the player. Reading them never
+     * waits for the backend, so that it can be done from audio events: once they are outdated, they are renewed in the
+     * background, and the last known ones are used until then.
+     *
+     * @return null if the settings are not known yet
+     */
+    val settings: GuildSettings?
         get() {
-            var enabled = false
-            try {
-                if (guild.selfPresent) {
-                    enabled = guildConfigService.fetchGuildConfig(guild.id).isTrackAnnounce
-                }
-            } catch (ignored: Exception) {
-            }
+            val settings = latestSettings
+            if (settings == null || guildSettingsLoader.isStale(settings)) renewSettings()
+            return settings
+        }
+
+    private fun renewSettings() {
+        if (renewingSettings.getAndSet(true)) return
+        guildSettingsLoader.snapshot(guildId)
+                .doFinally { renewingSettings.set(false) }
+                .subscribe({ useSettings(it) }, {
+                    log.debug("Could not fetch settings of guild {}, using the last known ones", guildId, it)
+                })
+    }
 
-            return enabled
+    /**
+     * Take over the settings a command was run with, unless newer ones are known already
+     */
+    fun useSettings(settings: GuildSettings) {
+        val latest = latestSettings
+        if (latest == null || settings.version > latest.version) {
+            latestSettings = settings
         }
+    }
+
+    private val isTrackAnnounceEnabled: Boolean
+        get() = guild.selfPresent && settings?.isTrackAnnounce ?: false
 
     init {
         log.debug("Constructing GuildPlayer({})", guild)
         onPlayHook = Consumer { this.announceTrack(it) }
         onErrorHook = Consumer { this.handleError(it) }
+        // Players that are not created for a command have no settings handed over
+        renewSettings()
 
         audioLoader = AudioLoader(ratelimiter, audioTrackProvider, audioPlayerManager,
                 this, youtubeAPI)
@@ -250,6 +290,7 @@ class GuildPlayer(
     fun queue(identifier: String, context: CommandContext, isPriority: Boolean = false) {
         val ic = IdentifierContext(identifier, context.textChannel, context.member)
         ic.isPriority = isPriority
+        useSettings(context.settings)
 
         joinChannel(context.member)
 
@@ -277,6 +318,7 @@ class GuildPlayer(
     //add a bunch of tracks to the track provider
     fun loadAll(tracks: Collection<AudioTrackContext>) {
         audioTrackProvider.addAll(tracks)
+        updateCounts()
     }
 
     @Suppress("LocalVariableName")
@@ -326,14 +368,16 @@ class GuildPlayer(
         if (audioTrackProvider is AbstractTrackProvider) {
             audioTrackProvider.reshuffle()
             context?.isPriority = false
+            lookahead.refresh()
         } else {
             throw UnsupportedOperationException("Can't reshuffle " + audioTrackProvider.javaClass)
         }
     }
 
     //Success, fail message
-    private suspend fun canMemberSkipTracks(member: Member, trackIds: Collection<Long>): Pair<Boolean, String> {
-        if (PermsUtil.checkPerms(PermissionLevel.DJ, member)) {
+    private suspend fun canMemberSkipTracks(context: CommandContext, trackIds: Collection<Long>): Pair<Boolean, String> {
+        val member = context.member
+        if (PermsUtil.checkPerms(PermissionLevel.DJ, context)) {
             return ImmutablePair(true, null)
         } else {
             //We are not a mod
@@ -359,7 +403,7 @@ class GuildPlayer(
     }
 
     suspend fun skipTracksForMemberPerms(context: CommandContext, trackIds: Collection<Long>, successMessage: String) {
-        val pair = canMemberSkipTracks(context.member, trackIds)
+        val pair = canMemberSkipTracks(context, trackIds)
 
         if (pair.left) {
             context.reply(successMessage)
@@ -385,7 +429,7 @@ class GuildPlayer(
 
         audioTrackProvider.removeAllById(toRemove)
 
-        if (skipCurrentTrack) skip()
+        if (skipCurrentTrack) skip() else updateCounts()
     }
 
     override fun onTrackStart(player: AudioPlayer?, track: AudioTrack?) {
@@ -393,6 +437,11 @@ class GuildPlayer(
         super.onTrackStart(player, track)
     }
 
+    // Humans only count as listeners while there is something to listen to
+    override fun countState() = super.countState().let {
+        if (it.playing == 0) it else it.copy(listeners = humanUsersInCurrentVC.size)
+    }
+
     override fun destroy() {
         audioTrackProvider.clear()
         super.destroy()
@@ -0,0 +1,101 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.audio.player
+
+import java.util.concurrent.atomic.AtomicLong
+
+/** What a player adds to the [PlayerCounters] */
+data class PlayerCounts(
+        val playing: Int = 0,
+        val paused: Int = 0,
+        val queuedTracks: Int = 0,
+        val listeners: Int = 0
+) {
+    companion object {
+        val NONE = PlayerCounts()
+    }
+}
+
+/**
+ * Counts over all players of the [PlayerRegistry]. Players report their state through their [Registration] whenever it
+ * may have changed, so that reading the counts takes constant time instead of a look at each player.
+ */
+class PlayerCounters {
+
+    private val playing = AtomicLong()
+    private val paused = AtomicLong()
+    private val queuedTracks = AtomicLong()
+    private val listeners = AtomicLong()
+
+    val playingCount: Long
+        get() = playing.get()
+
+    val pausedCount: Long
+        get() = paused.get()
+
+    val queuedTracksCount: Long
+        get() = queuedTracks.get()
+
+    /** Humans in the voice channels of playing players */
+    val listenersCount: Long
+        get() = listeners.get()
+
+    fun register() = Registration()
+
+    private fun update(old: PlayerCounts, new: PlayerCounts) {
+        if (old == new) return
+        playing.addAndGet((new.playing - old.playing).toLong())
+        paused.addAndGet((new.paused - old.paused).toLong())
+        queuedTracks.addAndGet((new.queuedTracks - old.queuedTracks).toLong())
+        listeners.addAndGet((new.listeners - old.listeners).toLong())
+    }
+
+    /** The counts of one player */
+    inner class Registration internal constructor() {
+        private var reported = PlayerCounts.NONE
+        private var removed = false
+
+        /**
+         * @param counts the current counts of the player, which are taken while no other report of it is underway so
+         * that an older state can not be reported last
+         */
+        @Synchronized
+        fun report(counts: () -> PlayerCounts) {
+            if (removed) return
+            val current = counts()
+            update(reported, current)
+            reported = current
+        }
+
+        /** Take the player out of the counts for good */
+        @Synchronized
+        fun remove() {
+            removed = true
+            update(reported, PlayerCounts.NONE)
+            reported = PlayerCounts.NONE
+        }
+    }
+}
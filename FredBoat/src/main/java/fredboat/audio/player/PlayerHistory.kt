@@ -0,0 +1,108 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.audio.player
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager
+import fredboat.audio.persistence.TrackHistoryStore
+import fredboat.audio.persistence.TrackRecord
+import fredboat.audio.queue.AudioTrackContext
+import fredboat.sentinel.Guild
+import fredboat.util.RingBuffer
+import org.slf4j.LoggerFactory
+import java.io.IOException
+
+/**
+ * The tracks a player played, latest first.
+ *
+ * The latest tracks are kept in memory, so that the first pages of the history are served without any I/O. If there is
+ * a store, all tracks are also appended to it, which keeps the older tracks and the history across restarts.
+ */
+class PlayerHistory(
+        private val store: TrackHistoryStore?,
+        private val playerManager: AudioPlayerManager,
+        private val guild: () -> Guild
+) {
+
+    companion object {
+        private val log = LoggerFactory.getLogger(PlayerHistory::class.java)
+        const val RECENT_SIZE = 20
+    }
+
+    private val recent = RingBuffer<AudioTrackContext>(RECENT_SIZE)
+
+    //the store has all tracks the ring buffer has, unless appending to it failed
+    val size: Int
+        get() = Math.max(recent.size, storedCount())
+
+    val isEmpty: Boolean
+        get() = size == 0
+
+    fun add(atc: AudioTrackContext) {
+        recent.add(atc)
+        if (store == null) return
+        try {
+            store.append(guild().id, TrackRecord.of(atc, playerManager))
+        } catch (e: IOException) {
+            log.warn("Failed to append to the track history of guild {}", guild().id, e)
+        } catch (e: IllegalArgumentException) {
+            log.warn("Failed to encode a track for the history of guild {}", guild().id, e)
+        }
+    }
+
+    /**
+     * @return the tracks from the start index inclusive to the end index exclusive, latest first
+     */
+    fun getRange(start: Int, end: Int): List<AudioTrackContext> {
+        val first = Math.max(start, 0)
+        val tracks = ArrayList<AudioTrackContext>(Math.max(end - first, 0))
+        var index = first
+        while (index < end) {
+            tracks.add(recent[index] ?: break)
+            index++
+        }
+        if (index >= end || store == null) return tracks
+
+        val guild = guild()
+        try {
+            store.read(guild.id, index, end).mapTo(tracks) {
+                it.toEntry(guild.getMember(it.userId) ?: guild.selfMember, playerManager)
+            }
+        } catch (e: IOException) {
+            log.warn("Failed to read the track history of guild {}", guild.id, e)
+        }
+        return tracks
+    }
+
+    private fun storedCount(): Int {
+        if (store == null) return 0
+        return try {
+            store.count(guild().id)
+        } catch (e: IOException) {
+            log.warn("Failed to count the track history of guild {}", guild().id, e)
+            0
+        }
+    }
+}
@@ -27,7 +27,9 @@ package fredboat.audio.player
 
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager
 import fredboat.audio.lavalink.SentinelLavalink
-import fredboat.db.api.GuildConfigService
+import fredboat.audio.persistence.TrackHistoryStore
+import fredboat.config.property.AppConfig
+import fredboat.db.rest.GuildSettingsLoader
 import fredboat.sentinel.Guild
 import fredboat.util.ratelimit.Ratelimiter
 import fredboat.util.rest.YoutubeAPI
@@ -36,15 +38,21 @@ import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 import org.springframework.beans.factory.annotation.Qualifier
 import org.springframework.stereotype.Component
+import java.io.File
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
 import java.util.function.BiConsumer
 import kotlin.streams.toList
 
 @Component
 class PlayerRegistry(private val musicTextChannelProvider: MusicTextChannelProvider,
-                     private val guildConfigService: GuildConfigService, private val lavalink: SentinelLavalink,
+                     private val guildSettingsLoader: GuildSettingsLoader, private val lavalink: SentinelLavalink,
                      @param:Qualifier("loadAudioPlayerManager") val audioPlayerManager: AudioPlayerManager,
-                     private val ratelimiter: Ratelimiter, private val youtubeAPI: YoutubeAPI) {
+                     private val ratelimiter: Ratelimiter, private val youtubeAPI: YoutubeAPI,
+                     appConfig: AppConfig,
+                     @param:Qualifier("transitionExecutor") private val transitionExecutor: ExecutorService,
+                     @param:Qualifier("trackLookaheadExecutor") private val lookaheadExecutor: Executor) {
 
     companion object {
         const val DEFAULT_VOLUME = 1f
@@ -52,6 +60,10 @@ class PlayerRegistry(private val musicTextChannelProvider: MusicTextChannelProvi
     }
 
     private val registry = ConcurrentHashMap<Long, GuildPlayer>()
+    private val counters = PlayerCounters()
+    private val historyStore = if (appConfig.persistentHistorySize > 0) {
+        TrackHistoryStore(File("history"), appConfig.persistentHistorySize)
+    } else null
 
     private val iteratorLock = Any() //iterators, which are also used by stream(), need to be synced, despite it being a concurrent map
 
@@ -70,8 +82,8 @@ class PlayerRegistry(private val musicTextChannelProvider: MusicTextChannelProvi
     fun getOrCreate(guild: Guild): GuildPlayer {
         return registry.computeIfAbsent(
                 guild.id) {
-            val p = GuildPlayer(lavalink, guild, musicTextChannelProvider, audioPlayerManager, guildConfigService,
-                    ratelimiter, youtubeAPI)
+            val p = GuildPlayer(lavalink, guild, musicTextChannelProvider, audioPlayerManager, guildSettingsLoader,
+                    ratelimiter, youtubeAPI, historyStore, counters, transitionExecutor, lookaheadExecutor)
             p.volume = DEFAULT_VOLUME
             p
         }
@@ -103,18 +115,39 @@ class PlayerRegistry(private val musicTextChannelProvider: MusicTextChannelProvi
                 player.destroy()
             }
             registry.remove(guildId)
+            player.stopCounting()
         }
     }
 
+    /**
+     * Delete the persisted track history of a guild, for when the bot left it
+     */
+    fun deleteHistory(guildId: Long) {
+        historyStore?.delete(guildId)
+    }
+
     fun totalCount(): Long {
         return registry.size.toLong()
     }
 
-    fun playingCount(): Long {
-        synchronized(iteratorLock) {
-            return registry.values.stream()
-                    .filter { it.isPlaying }
-                    .count()
+    fun playingCount(): Long = counters.playingCount
+
+    fun pausedCount(): Long = counters.pausedCount
+
+    fun queuedTracksCount(): Long = counters.queuedTracksCount
+
+    /** @return humans in the voice channels of playing players */
+    fun listenersCount(): Long = counters.listenersCount
+
+    /**
+     * @return the counts as of a look at each player, which the counters should agree with. Expensive, see
+     * [playingCount] and the like instead.
+     */
+    fun countByScan(): PlayerCounts = synchronized(iteratorLock) {
+        registry.values.fold(PlayerCounts.NONE) { sum, player ->
+            val counts = player.countState()
+            PlayerCounts(sum.playing + counts.playing, sum.paused + counts.paused,
+                    sum.queuedTracks + counts.queuedTracks, sum.listeners + counts.listeners)
         }
     }
 }
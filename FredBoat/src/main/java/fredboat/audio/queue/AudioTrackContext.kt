@@ -25,15 +25,38 @@
 
 package fredboat.audio.queue
 
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo
 import fredboat.audio.player.GuildPlayer
 import fredboat.feature.I18n
 import fredboat.main.Launcher
 import fredboat.sentinel.Member
 import fredboat.sentinel.TextChannel
+import org.slf4j.LoggerFactory
+import java.io.IOException
 import java.util.concurrent.ThreadLocalRandom
 
-open class AudioTrackContext(val track: AudioTrack, val member: Member, priority: Boolean = false) : Comparable<AudioTrackContext> {
+/**
+ * A queue entry. Entries can be created from an [EncodedTrack], which is only decoded once the entry is played or its
+ * [track] is needed otherwise. Displaying an entry does not decode it.
+ */
+open class AudioTrackContext private constructor(
+        @Volatile private var decoded: AudioTrack?,
+        //set until the track is decoded
+        @Volatile private var encoded: EncodedTrack?,
+        val member: Member,
+        priority: Boolean
+) : Comparable<AudioTrackContext> {
+
+    constructor(track: AudioTrack, member: Member, priority: Boolean = false) : this(track, null, member, priority)
+
+    constructor(track: EncodedTrack, member: Member, priority: Boolean = false) : this(null, track, member, priority)
+
+    companion object {
+        private val log = LoggerFactory.getLogger(AudioTrackContext::class.java)
+    }
+
     val added: Long = System.currentTimeMillis()
     var rand: Int = 0
     var isPriority: Boolean = priority
@@ -45,11 +68,53 @@ open class AudioTrackContext(val track: AudioTrack, val member: Member, priority
     val guildId: Long
         get() = member.guild.id
 
+    /**
+     * The lavaplayer track, which is decoded on first access if this entry was created from an encoded track.
+     *
+     * @throws IllegalStateException if the track can not be decoded
+     */
+    val track: AudioTrack
+        get() {
+            decoded?.let { return it }
+            synchronized(this) {
+                decoded?.let { return it }
+                val track = try {
+                    encoded!!.decode()
+                } catch (e: Exception) {
+                    throw IllegalStateException("Failed to decode track", e)
+                }
+                onDecoded(track)
+                decoded = track
+                encoded = null
+                return track
+            }
+        }
+
+    //the encoded track is only released after the decoded one is set, so one of them is always there
+
+    /**
+     * Info of the track, which does not decode the track unless its entry was persisted before identifiers were kept.
+     *
+     * @throws IllegalStateException if the track has to be decoded and can not be
+     */
+    val info: AudioTrackInfo
+        get() {
+            val encoded = encoded ?: return track.info
+            return try {
+                encoded.info
+            } catch (e: IOException) {
+                throw IllegalStateException("Failed to decode track", e)
+            }
+        }
+
     open val effectiveDuration: Long
-        get() = track.duration
+        get() = encoded?.duration ?: track.duration
 
     open val effectiveTitle: String
-        get() = track.info.title
+        get() = encoded?.title ?: track.info.title
+
+    val isStream: Boolean
+        get() = encoded?.isStream ?: track.info.isStream
 
     open val startPosition: Long
         get() = 0
@@ -67,12 +132,65 @@ open class AudioTrackContext(val track: AudioTrack, val member: Member, priority
     }//It's ok to set a non-existing channelId, since inside the AudioTrackContext, the channel needs to be looked up
     // every time. See the getTextChannel() below for doing that.
 
+    /**
+     * Called once the track of an entry that was created from an encoded track is decoded.
+     */
+    protected open fun onDecoded(track: AudioTrack) {}
+
+    /**
+     * Decode the track if it is not decoded yet.
+     *
+     * @return false if the track can not be decoded
+     */
+    fun decode(): Boolean {
+        return try {
+            track
+            true
+        } catch (e: IllegalStateException) {
+            log.warn("Could not decode queued track {}", effectiveTitle, e.cause)
+            false
+        }
+    }
+
+    val isDecoded: Boolean
+        get() = decoded != null
+
+    /**
+     * Decode the track without keeping it, so that it can be decoded ahead of time and [adopt]ed once it is needed.
+     *
+     * @return a new track, or null if this entry is decoded already
+     * @throws IOException if the track can not be decoded
+     */
+    @Throws(IOException::class)
+    fun decodeAhead(): AudioTrack? = encoded?.decode()
+
+    /**
+     * Use a track that was decoded ahead of time, unless this entry got decoded in the meantime.
+     */
+    fun adopt(track: AudioTrack) {
+        if (decoded != null) return
+        synchronized(this) {
+            if (decoded != null) return
+            onDecoded(track)
+            decoded = track
+            encoded = null
+        }
+    }
+
+    /**
+     * @return the encoded form of the track, which is encoded with the given player manager if the track was decoded
+     * @throws IllegalArgumentException if the track was decoded and can not be encoded
+     */
+    fun toEncoded(playerManager: AudioPlayerManager): EncodedTrack =
+            encoded ?: EncodedTrack.encode(track, playerManager)
+
     fun randomize(): Int {
         rand = ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE)
         return rand
     }
 
     open fun makeClone(): AudioTrackContext {
+        encoded?.let { return AudioTrackContext(it, member, isPriority) }
         return AudioTrackContext(track.makeClone(), member, isPriority)
     }
 
@@ -89,7 +207,6 @@ open class AudioTrackContext(val track: AudioTrack, val member: Member, priority
         if (this === other) return true
         if (other !is AudioTrackContext) return false
 
-        if (track != other.track) return false
         if (member != other.member) return false
         if (trackId != other.trackId) return false
 
@@ -97,8 +214,7 @@ open class AudioTrackContext(val track: AudioTrack, val member: Member, priority
     }
 
     override fun hashCode(): Int {
-        var result = track.hashCode()
-        result = 31 * result + member.hashCode()
+        var result = member.hashCode()
         result = 31 * result + trackId.hashCode()
         return result
     }
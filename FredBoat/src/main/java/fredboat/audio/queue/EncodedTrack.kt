@@ -0,0 +1,87 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.audio.queue
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput
+import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+
+/**
+ * A track as encoded by an [AudioPlayerManager], along with its info. It takes a fraction of the heap of a decoded
+ * [AudioTrack], which holds the state of its source manager as well.
+ *
+ * @param identifier null for tracks that were persisted before identifiers were kept
+ */
+class EncodedTrack(
+        val message: ByteArray,
+        val title: String,
+        val author: String,
+        val duration: Long,
+        val isStream: Boolean,
+        val identifier: String?,
+        val uri: String?,
+        private val playerManager: AudioPlayerManager
+) {
+
+    companion object {
+        /**
+         * @throws IllegalArgumentException if the source manager of the track does not support encoding it
+         */
+        fun encode(track: AudioTrack, playerManager: AudioPlayerManager): EncodedTrack {
+            val baos = ByteArrayOutputStream()
+            try {
+                playerManager.encodeTrack(MessageOutput(baos), track)
+            } catch (e: Exception) {
+                throw IllegalArgumentException("Track ${track.identifier} can not be encoded", e)
+            }
+            val info = track.info
+            return EncodedTrack(baos.toByteArray(), info.title, info.author, info.length, info.isStream,
+                    info.identifier, info.uri, playerManager)
+        }
+    }
+
+    /**
+     * Info of the track. Only tracks without an identifier are decoded for it.
+     *
+     * @throws IOException if the track has no identifier and can not be decoded
+     */
+    val info: AudioTrackInfo
+        @Throws(IOException::class)
+        get() = identifier?.let { AudioTrackInfo(title, author, duration, it, isStream, uri) } ?: decode().info
+
+    /**
+     * @return a new track decoded from the message
+     * @throws IOException if the message can not be decoded, for example if its source manager is not registered
+     */
+    @Throws(IOException::class)
+    fun decode(): AudioTrack = playerManager.decodeTrack(MessageInput(ByteArrayInputStream(message)))?.decodedTrack
+            ?: throw IOException("No source manager decoded track $title")
+}
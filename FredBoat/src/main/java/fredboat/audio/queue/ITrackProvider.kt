@@ -32,6 +32,12 @@ interface ITrackProvider {
      */
     val asList: List<AudioTrackContext>
 
+    /**
+     * @return an iterator over all tracks in the queue in regular (unshuffled) order, which does not copy the queue.
+     * It may or may not reflect changes to the queue that happen while iterating.
+     */
+    fun iterator(): Iterator<AudioTrackContext>
+
     /**
      * @return true if there are no tracks in the queue
      */
@@ -42,11 +48,22 @@ interface ITrackProvider {
      */
     val durationMillis: Long
 
+    /**
+     * @return a number that changes whenever the tracks of this provider change
+     */
+    val modificationCount: Long
+
     /**
      * @return the track that a call to provideAudioTrack() would return
      */
     fun peek(): AudioTrackContext?
 
+    /**
+     * @return the queued tracks that the next calls to provideAudioTrack() would return, in that order, but at most
+     * [count] of them. Repeated tracks are not part of this.
+     */
+    fun upcoming(count: Int): List<AudioTrackContext>
+
     /**
      * @return the next track, or null if empty
      */
@@ -34,7 +34,16 @@ class SimpleTrackProvider : AbstractTrackProvider() {
     private val queue = ConcurrentLinkedDeque<AudioTrackContext>()
     private var lastTrack: AudioTrackContext? = null
     private var cachedShuffledQueue: List<AudioTrackContext> = ArrayList()
+    //anything that makes the shuffled queue outdated is a change of the tracks
     private var shouldUpdateShuffledQueue = true
+        set(value) {
+            field = value
+            if (value) modificationCount++
+        }
+
+    @Volatile
+    override var modificationCount = 0L
+        private set
 
     /**this override is needed because, related to the repeat all mode, turning shuffle off, skipping a track, turning shuffle
      *   on will cause an incorrect playlist to show with the list command and may lead to a bug of an
@@ -43,6 +52,7 @@ class SimpleTrackProvider : AbstractTrackProvider() {
         get() = super.isShuffle
         set(shuffle) {
             super.isShuffle = shuffle
+            modificationCount++
             if (shuffle) {
                 shouldUpdateShuffledQueue = true
                 queue.forEach { it.isPriority = false} // reset all priority tracks
@@ -115,6 +125,7 @@ class SimpleTrackProvider : AbstractTrackProvider() {
             return lastTrack
         } else {
             lastTrack = queue.poll()
+            modificationCount++
             return lastTrack
         }
     }
@@ -171,6 +182,8 @@ class SimpleTrackProvider : AbstractTrackProvider() {
     override val asList: List<AudioTrackContext>
         get() = queue.toList()
 
+    override fun iterator(): Iterator<AudioTrackContext> = queue.iterator()
+
     @Synchronized
     override fun reshuffle() {
         queue.forEach {
@@ -220,7 +233,7 @@ class SimpleTrackProvider : AbstractTrackProvider() {
         get() {
             var duration: Long = 0
             for (atc in queue) {
-                if (!atc.track.info.isStream) {
+                if (!atc.isStream) {
                     duration += atc.effectiveDuration
                 }
             }
@@ -230,7 +243,7 @@ class SimpleTrackProvider : AbstractTrackProvider() {
     override fun streamsCount(): Int {
         var streams = 0
         for (atc in queue) {
-            if (atc.track.info.isStream) {
+            if (atc.isStream) {
                 streams++
             }
         }
@@ -245,6 +258,14 @@ class SimpleTrackProvider : AbstractTrackProvider() {
         }
     }
 
+    override fun upcoming(count: Int): List<AudioTrackContext> {
+        return if (isShuffle) {
+            asListOrdered.take(count)
+        } else {
+            queue.asSequence().take(count).toList()
+        }
+    }
+
     override fun isUserTrackOwner(userId: Long, trackIds: Collection<Long>): Boolean {
         for (atc in asListOrdered) {
             if (trackIds.contains(atc.trackId) && atc.userId != userId) {
@@ -30,21 +30,38 @@ import fredboat.audio.player.GuildPlayer
 import fredboat.sentinel.Member
 import lavalink.client.player.TrackData
 
-class SplitAudioTrackContext(
-        at: AudioTrack,
-        member: Member,
-        override val startPosition: Long,
-        private val endPosition: Long,
-        override val effectiveTitle: String
-) : AudioTrackContext(at, member) {
+class SplitAudioTrackContext : AudioTrackContext {
+
+    override val startPosition: Long
+    private val endPosition: Long
+    override val effectiveTitle: String
 
     override val effectiveDuration: Long
         get() = endPosition - startPosition
 
-    init {
+    constructor(at: AudioTrack, member: Member, startPosition: Long, endPosition: Long, effectiveTitle: String)
+            : super(at, member) {
+        this.startPosition = startPosition
+        this.endPosition = endPosition
+        this.effectiveTitle = effectiveTitle
         at.userData = TrackData(startPosition, endPosition)
     }
 
+    /**
+     * The track is positioned at the start of the split once it is decoded.
+     */
+    constructor(track: EncodedTrack, member: Member, startPosition: Long, endPosition: Long, effectiveTitle: String)
+            : super(track, member) {
+        this.startPosition = startPosition
+        this.endPosition = endPosition
+        this.effectiveTitle = effectiveTitle
+    }
+
+    override fun onDecoded(track: AudioTrack) {
+        track.userData = TrackData(startPosition, endPosition)
+        track.position = startPosition
+    }
+
     override fun getEffectivePosition(guildPlayer: GuildPlayer): Long {
         return super.getEffectivePosition(guildPlayer) - startPosition
     }
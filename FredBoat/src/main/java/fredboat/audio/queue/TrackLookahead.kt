@@ -0,0 +1,169 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.audio.queue
+
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack
+import fredboat.definitions.RepeatMode
+import fredboat.feature.metrics.Metrics
+import org.slf4j.LoggerFactory
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Decodes the next few entries of a queue ahead of time, so that the next track can be started right away when one
+ * ends. Decoding an entry that was restored or imported can take a while, as its source manager may have to look the
+ * track up again.
+ *
+ * Only the entries that the provider will hand out next are decoded, which depends on shuffle and repeat mode. Their
+ * tracks are kept aside until the entry is played, so entries that stop being upcoming because the queue changed stay
+ * encoded. Tracks that were decoded too long ago are not used, as what their source looked up may be outdated.
+ */
+class TrackLookahead(
+        private val trackProvider: ITrackProvider,
+        private val executor: Executor,
+        private val depth: Int = DEFAULT_DEPTH,
+        private val expiryMillis: Long = DEFAULT_EXPIRY_MILLIS,
+        private val clock: () -> Long = System::currentTimeMillis
+) {
+
+    companion object {
+        private val log = LoggerFactory.getLogger(TrackLookahead::class.java)
+        const val DEFAULT_DEPTH = 2
+        val DEFAULT_EXPIRY_MILLIS = TimeUnit.MINUTES.toMillis(10)
+    }
+
+    private val decodings = LinkedHashMap<AudioTrackContext, Decoding>()
+    private var seenModification = -1L
+    private var seenRepeatMode: RepeatMode? = null
+
+    /** Upcoming entries that are decoded ahead of time or are being decoded */
+    val size: Int
+        @Synchronized get() = decodings.size
+
+    /**
+     * Start decoding the upcoming entries, and forget the tracks of entries that are not upcoming anymore. Does
+     * nothing if the queue did not change since the last call.
+     */
+    @Synchronized
+    fun refresh() {
+        val repeatMode = (trackProvider as? AbstractTrackProvider)?.repeatMode
+        val modification = trackProvider.modificationCount
+        val now = clock()
+        if (modification == seenModification && repeatMode == seenRepeatMode
+                && decodings.values.none { it.isExpired(now) }) return
+        seenModification = modification
+        seenRepeatMode = repeatMode
+
+        //a repeated track was decoded when it was played, the queue only goes on if it gets skipped
+        val upcoming = trackProvider.upcoming(if (repeatMode == RepeatMode.SINGLE) 1 else depth)
+        val iterator = decodings.values.iterator()
+        while (iterator.hasNext()) {
+            val decoding = iterator.next()
+            if (decoding.isExpired(now) || decoding.context !in upcoming) {
+                decoding.cancel()
+                iterator.remove()
+            }
+        }
+
+        for (context in upcoming) {
+            if (context.isDecoded || decodings.containsKey(context)) continue
+            val decoding = Decoding(context)
+            try {
+                executor.execute(decoding)
+                decodings[context] = decoding
+            } catch (e: RejectedExecutionException) {
+                log.debug("Could not decode {} ahead of time", context.effectiveTitle, e)
+                seenModification = -1L //try again next time
+                return
+            }
+        }
+    }
+
+    /**
+     * Hand the track that was decoded ahead of time to an entry that is about to be played. Waits for the track if it
+     * is being decoded right now.
+     *
+     * @return true if the entry is decoded now, false if it has to be decoded by the caller
+     */
+    fun take(context: AudioTrackContext): Boolean {
+        if (context.isDecoded) return true
+        val decoding = synchronized(this) { decodings.remove(context) }
+        val track = decoding?.take()
+        if (track == null) {
+            Metrics.trackLookahead.labels("miss").inc()
+            return false
+        }
+        context.adopt(track)
+        Metrics.trackLookahead.labels("hit").inc()
+        return true
+    }
+
+    /**
+     * Forget all tracks that were decoded ahead of time
+     */
+    @Synchronized
+    fun clear() {
+        decodings.values.forEach { it.cancel() }
+        decodings.clear()
+        seenModification = -1L
+    }
+
+    private inner class Decoding(val context: AudioTrackContext) : Runnable {
+        //claimed by whatever comes first: the decoding starting, or the entry being played or forgotten
+        private val claimed = AtomicBoolean()
+        private val result = CompletableFuture<AudioTrack?>()
+        @Volatile
+        private var decodedAt = 0L
+
+        override fun run() {
+            if (!claimed.compareAndSet(false, true)) return
+            val track = try {
+                context.decodeAhead()
+            } catch (e: Exception) {
+                //left to the player, which skips entries that can not be decoded
+                null
+            }
+            decodedAt = clock()
+            result.complete(track)
+        }
+
+        fun isExpired(now: Long) = result.isDone && now - decodedAt >= expiryMillis
+
+        fun cancel() {
+            claimed.set(true)
+        }
+
+        /** @return the decoded track, or null if it did not start decoding yet, failed to decode or expired */
+        fun take(): AudioTrack? {
+            if (claimed.compareAndSet(false, true)) return null
+            val track = result.join() ?: return null
+            return if (clock() - decodedAt < expiryMillis) track else null
+        }
+    }
+}
@@ -51,7 +51,7 @@ import java.util.concurrent.ConcurrentLinkedQueue
 import java.util.regex.Pattern
 
 class AudioLoader(private val ratelimiter: Ratelimiter, internal val trackProvider: ITrackProvider,
-                  private val playerManager: AudioPlayerManager, internal val gplayer: GuildPlayer,
+                  internal val playerManager: AudioPlayerManager, internal val gplayer: GuildPlayer,
                   internal val youtubeAPI: YoutubeAPI) {
     private val identifierQueue = ConcurrentLinkedQueue<IdentifierContext>()
     @Volatile
@@ -218,6 +218,8 @@ private class ResultHandler(val loader: AudioLoader, val context: IdentifierCont
 
                 if (!loader.gplayer.isPaused) {
                     loader.gplayer.play()
+                } else {
+                    loader.gplayer.updateCounts()
                 }
             }
         } catch (th: Throwable) {
@@ -236,14 +238,23 @@ private class ResultHandler(val loader: AudioLoader, val context: IdentifierCont
                 return
             }
 
+            //playlists may be big, so their tracks are queued in encoded form and decoded once they get played
             val toAdd = ArrayList<AudioTrackContext>()
             for (at in ap.tracks) {
-                toAdd.add(AudioTrackContext(at, context.member, context.isPriority))
+                val encoded = try {
+                    EncodedTrack.encode(at, loader.playerManager)
+                } catch (e: IllegalArgumentException) {
+                    null
+                }
+                toAdd.add(if (encoded != null) AudioTrackContext(encoded, context.member, context.isPriority)
+                        else AudioTrackContext(at, context.member, context.isPriority))
             }
             if (context.isPriority) loader.trackProvider.addAllFirst(toAdd) else loader.trackProvider.addAll(toAdd)
             context.reply(context.i18nFormat("loadListSuccess", ap.tracks.size, ap.name))
             if (!loader.gplayer.isPaused) {
                 loader.gplayer.play()
+            } else {
+                loader.gplayer.updateCounts()
             }
         } catch (th: Throwable) {
             loader.handleThrowable(context, th)
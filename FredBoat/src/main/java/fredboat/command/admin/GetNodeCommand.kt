@@ -54,10 +54,12 @@ class GetNodeCommand(name: String, vararg aliases: String) : Command(name, *alia
         } else {
             guild = context.guild
         }
-        val node = SentinelLavalink.INSTANCE.getLink(guild).node
+        val lavalink = SentinelLavalink.INSTANCE
+        val node = lavalink.getLink(guild).node
+        val penalties = node?.let { lavalink.balancer.penalties(lavalink.nodeState(it)) }
 
-        val reply = String.format("Guild %s id `%s` lavalink socket: `%s`",
-                context.guild.name, context.guild.id, node.toString())
+        val reply = String.format("Guild %s id `%s` lavalink socket: `%s`\nPenalties: `%s`",
+                context.guild.name, context.guild.id, node.toString(), penalties?.toString() ?: "none")
 
         //sensitive info, send it by DM
         context.replyPrivateMono(reply)
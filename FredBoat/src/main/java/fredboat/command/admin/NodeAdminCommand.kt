@@ -34,7 +34,6 @@ import fredboat.definitions.PermissionLevel
 import fredboat.messaging.internal.Context
 import fredboat.perms.PermsUtil
 import fredboat.util.TextUtils
-import lavalink.client.io.LavalinkLoadBalancer
 import java.net.URI
 import java.net.URISyntaxException
 import kotlin.streams.toList
@@ -170,13 +169,13 @@ class NodeAdminCommand(name: String, vararg aliases: String) : Command(name, *al
             str += "Average frames nulled:   " + stats.avgFramesNulledPerMinute + "\n"
             str += "Average frames deficit:  " + stats.avgFramesDeficitPerMinute + "\n"
             str += "---------------\n"
-            val penalties = LavalinkLoadBalancer.getPenalties(socket)
+            val penalties = lavalink.balancer.penalties(lavalink.nodeState(socket))!!
             str += "Penalties Total:    " + penalties.total + "\n"
-            str += "Player Penalty:          " + penalties.playerPenalty + "\n"
-            str += "CPU Penalty:             " + penalties.cpuPenalty + "\n"
-            str += "Deficit Frame Penalty:   " + penalties.deficitFramePenalty + "\n"
-            str += "Null Frame Penalty:      " + penalties.nullFramePenalty + "\n"
-            str += "Raw: " + penalties.toString() + "\n"
+            str += "Player Penalty:          " + penalties.player + "\n"
+            str += "CPU Penalty:             " + penalties.cpu + "\n"
+            str += "Deficit Frame Penalty:   " + penalties.deficitFrames + "\n"
+            str += "Null Frame Penalty:      " + penalties.nulledFrames + "\n"
+            str += "Pending Penalty:         " + penalties.pending + "\n"
             str += "---------------\n\n"
 
             messages.add(str)
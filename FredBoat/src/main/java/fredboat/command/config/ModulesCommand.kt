@@ -113,7 +113,7 @@ class ModulesCommand(name: String, vararg aliases: String) : Command(name, *alia
         }
         var moduleStatus = ""
 
-        if (PermsUtil.checkPerms(PermissionLevel.BOT_ADMIN, context.member)) {
+        if (PermsUtil.checkPerms(PermissionLevel.BOT_ADMIN, context)) {
             moduleStatus = (moduleStatusFormatter(Module.ADMIN) + " " + Emojis.LOCK + "\n"
                     + moduleStatusFormatter(Module.INFO) + " " + Emojis.LOCK + "\n"
                     + moduleStatusFormatter(Module.CONFIG) + " " + Emojis.LOCK + "\n")
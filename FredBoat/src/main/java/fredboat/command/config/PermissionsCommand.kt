@@ -172,8 +172,8 @@ class PermissionsCommand(
             }
         }
 
-        val invokerPerms = PermsUtil.getPerms(invoker)
-        val invokerHas = PermsUtil.checkPerms(permissionLevel, invoker)
+        val invokerPerms = PermsUtil.getPerms(invoker, context.settings.permissions)
+        val invokerHas = PermsUtil.checkPerms(permissionLevel, context)
 
         if (roleMentions.isEmpty()) roleMentions = "<none>"
         if (memberMentions.isEmpty()) memberMentions = "<none>"
@@ -52,14 +52,15 @@ class PrefixCommand(cacheMetrics: CacheMetricsCollector, name: String, vararg al
 
     companion object {
         val botId = Launcher.botController.sentinel.selfUser.id
+        private val changeEvents = Launcher.botController.backendConfig.quarterdeck.isChangeEvents
         val CUSTOM_PREFIXES = CacheBuilder.newBuilder()
-                //it is fine to check the db for updates occasionally, as we currently dont have any use case where we change
-                //the value saved there through other means. in case we add such a thing (like a dashboard), consider lowering
-                //the refresh value to have the changes reflect faster in the bot, or consider implementing a FredBoat wide
-                //Listen/Notify system for changes to in memory cached values backed by the db
+                //it is fine to check the db for updates occasionally, as we currently dont have many use cases where we
+                //change the value saved there through other means. if Quarterdeck publishes entity change events, the
+                //EntityChangeListener drops changed prefixes right away, and refreshing is only a fallback for missed events
                 .recordStats()
-                .refreshAfterWrite(1, TimeUnit.MINUTES) //NOTE: never use refreshing without async reloading, because Guavas cache uses the thread calling it to do cleanup tasks (including refreshing)
-                .expireAfterAccess(1, TimeUnit.MINUTES) //evict inactive guilds
+                .refreshAfterWrite(if (changeEvents) 15L else 1L,
+                        TimeUnit.MINUTES) //NOTE: never use refreshing without async reloading, because Guavas cache uses the thread calling it to do cleanup tasks (including refreshing)
+                .expireAfterAccess(if (changeEvents) 15L else 1L, TimeUnit.MINUTES) //evict inactive guilds
                 .concurrencyLevel(Launcher.botController.appConfig.shardCount)  //each shard has a thread (main JDA thread) accessing this cache many times
                 .build(CacheLoader.asyncReloading(CacheLoader.from<Long, Optional<String>> {
                     guildId -> Launcher.botController.prefixService.getPrefix(Prefix.GuildBotId(
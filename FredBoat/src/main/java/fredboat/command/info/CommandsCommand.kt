@@ -60,7 +60,7 @@ class CommandsCommand(name: String, vararg aliases: String) : Command(name, *ali
         if (!context.hasArguments()) {
 
             val enabledModules = context.enabledModules.toMutableList()
-            if (!PermsUtil.checkPerms(PermissionLevel.BOT_ADMIN, context.member)) {
+            if (!PermsUtil.checkPerms(PermissionLevel.BOT_ADMIN, context)) {
                 enabledModules.remove(Module.ADMIN)// Don't show admin commands/modules for non admins
             }
 
@@ -78,7 +78,7 @@ class CommandsCommand(name: String, vararg aliases: String) : Command(name, *ali
         val showHelpFor: MutableList<Module>
         if (context.rawArgs.toLowerCase().contains(ALL.toLowerCase())) {
             showHelpFor = ArrayList(Arrays.asList(*Module.values()))
-            if (!PermsUtil.checkPerms(PermissionLevel.BOT_ADMIN, context.member)) {
+            if (!PermsUtil.checkPerms(PermissionLevel.BOT_ADMIN, context)) {
                 showHelpFor.remove(Module.ADMIN)//dont show admin commands/modules for non admins
             }
         } else {
@@ -108,7 +108,7 @@ class CommandsCommand(name: String, vararg aliases: String) : Command(name, *ali
     }
 
     private suspend fun Embed.addModuleCommands(context: CommandContext, module: CommandRegistry) {
-        val invokerPermissionLevel = PermsUtil.getPerms(context.member)
+        val invokerPermissionLevel = PermsUtil.getPerms(context.member, context.settings.permissions)
         val commands = module.deduplicatedCommands
                 .stream()
                 //do not show BOT_ADMIN or BOT_OWNER commands to users lower than that
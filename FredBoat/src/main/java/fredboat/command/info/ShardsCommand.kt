@@ -117,6 +117,12 @@ class ShardsCommand(name: String, vararg aliases: String) : Command(name, *alias
                 }
             }
 
+            val players = Launcher.botController.playerRegistry
+            val playerSummary = String.format("+ Players: %s playing, %s paused, %s total -- Queued tracks: %s -- "
+                    + "Listeners: %s", players.playingCount(), players.pausedCount(), players.totalCount(),
+                    players.queuedTracksCount(), players.listenersCount())
+            messages.add(0, playerSummary.asCodeBlock("diff"))
+
             //healthy shards summary, contains sensible data only if we aren't doing a full report
             if (!full) {
                 val content = String.format("+ %s of %s shards are %s -- Guilds: %s -- Users: %s", shardCounter.get() - borkenShards.get(),
@@ -154,7 +154,7 @@ class SkipCommand(name: String, vararg aliases: String) : Command(name, *aliases
     }
 
     private suspend fun skipMember(player: GuildPlayer, context: CommandContext, members: List<Member>) {
-        if (!PermsUtil.checkPerms(PermissionLevel.DJ, context.member)) {
+        if (!PermsUtil.checkPerms(PermissionLevel.DJ, context)) {
 
             if (members.size == 1) {
                 val user = members[0]
@@ -197,7 +197,7 @@ class SkipCommand(name: String, vararg aliases: String) : Command(name, *aliases
                 val user = affectedUsers[0]
                 val userName = "**${user.name.escapeAndDefuse()}#${user.discrim}**"
                 if (listAtc.size == 1) {
-                    context.reply(context.i18nFormat("skipUserSingle", "**${listAtc[0].track.info?.title}**", userName))
+                    context.reply(context.i18nFormat("skipUserSingle", "**${listAtc[0].effectiveTitle}**", userName))
                 } else {
                     context.reply(context.i18nFormat("skipUserMultiple", "`${userAtcIds.size}`", userName))
                 }
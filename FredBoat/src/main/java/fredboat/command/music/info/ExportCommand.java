@@ -25,21 +25,29 @@
 
 package fredboat.command.music.info;
 
+import com.google.common.collect.Iterators;
 import fredboat.audio.player.GuildPlayer;
+import fredboat.audio.queue.AudioTrackContext;
 import fredboat.commandmeta.MessagingException;
 import fredboat.commandmeta.abs.CommandContext;
 import fredboat.commandmeta.abs.IMusicCommand;
 import fredboat.commandmeta.abs.JCommand;
 import fredboat.messaging.internal.Context;
 import fredboat.util.TextUtils;
+import fredboat.util.rest.StreamingTextBody;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
-import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+import java.util.Objects;
 
 import static fredboat.main.LauncherKt.getBotController;
 
 public class ExportCommand extends JCommand implements IMusicCommand {
 
+    private static final Logger log = LoggerFactory.getLogger(ExportCommand.class);
+
     public ExportCommand(String name, String... aliases) {
         super(name, aliases);
     }
@@ -52,11 +60,11 @@ public class ExportCommand extends JCommand implements IMusicCommand {
             throw new MessagingException(context.i18n("exportEmpty"));
         }
 
-        String out = player.getRemainingTracks().stream()
-                .map(atc -> atc.getTrack().getInfo().uri)
-                .collect(Collectors.joining("\n"));
+        //rendered track by track while uploading, so that large queues are neither copied nor held as one string
+        StreamingTextBody body = new StreamingTextBody(() -> Iterators.filter(
+                Iterators.transform(player.iterateRemainingTracks(), ExportCommand::uriOf), Objects::nonNull));
 
-        TextUtils.postToPasteService(out)
+        TextUtils.postToPasteService(body)
                 .thenApply(pasteUrl -> {
                     if (pasteUrl.isPresent()) {
                         String url = pasteUrl.get() + ".fredboat";
@@ -73,6 +81,18 @@ public class ExportCommand extends JCommand implements IMusicCommand {
                 });
     }
 
+    //only entries that were persisted before identifiers were kept are decoded to get their uri, which fails if their
+    // source got disabled in the meantime
+    @Nullable
+    private static String uriOf(AudioTrackContext atc) {
+        try {
+            return atc.getInfo().uri;
+        } catch (Exception e) {
+            log.warn("Could not decode queued track {} for export", atc.getEffectiveTitle(), e);
+            return null;
+        }
+    }
+
     @Nonnull
     @Override
     public String help(@Nonnull Context context) {
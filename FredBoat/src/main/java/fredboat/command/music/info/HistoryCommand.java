@@ -36,7 +36,6 @@ import fredboat.util.MessageBuilder;
 import fredboat.util.TextUtils;
 
 import javax.annotation.Nonnull;
-import java.text.MessageFormat;
 import java.util.List;
 
 import static fredboat.main.LauncherKt.getBotController;
@@ -84,21 +83,30 @@ public class HistoryCommand extends JCommand implements IMusicCommand {
         MessageBuilder mb = localMessageBuilder()
                 .append(context.i18n("listShowHistory"))
                 .append("\n")
-                .append(MessageFormat.format(context.i18n("listPageNum"), page, maxPages))
+                .appendI18nFormat(context, "listPageNum", page, maxPages)
                 .append("\n")
                 .append("\n");
 
+        //reused for every track, so the list is built without a string per escaped field
+        StringBuilder index = new StringBuilder();
+        StringBuilder title = new StringBuilder();
+        StringBuilder name = new StringBuilder();
+        StringBuilder duration = new StringBuilder();
         for (AudioTrackContext atc : sublist) {
             String status = " ";
 
             Member member = atc.getMember();
             String username = member.getEffectiveName();
-            mb.code("[" +
-                    TextUtils.forceNDigits(i + 1, numberLength)
-                    + "]")
+            index.setLength(0);
+            title.setLength(0);
+            name.setLength(0);
+            duration.setLength(0);
+            mb.code(TextUtils.appendNDigits(index.append('['), i + 1, numberLength).append(']'))
                     .append(status)
-                    .append(context.i18nFormat("listAddedBy", TextUtils.escapeAndDefuse(atc.getEffectiveTitle()),
-                            TextUtils.escapeAndDefuse(username), TextUtils.formatTime(atc.getEffectiveDuration())))
+                    .appendI18nFormat(context, "listAddedBy",
+                            TextUtils.appendEscapedAndDefused(title, atc.getEffectiveTitle()),
+                            TextUtils.appendEscapedAndDefused(name, username),
+                            TextUtils.appendTime(duration, atc.getEffectiveDuration()))
                     .append("\n");
 
             if (i == listEnd) {
@@ -99,10 +99,15 @@ public class ListCommand extends JCommand implements IMusicCommand {
             mb.append("\n");
         }
 
-        mb.append(context.i18nFormat("listPageNum", page, maxPages));
+        mb.appendI18nFormat(context, "listPageNum", page, maxPages);
         mb.append("\n");
         mb.append("\n");
 
+        //reused for every track, so the list is built without a string per escaped field
+        StringBuilder index = new StringBuilder();
+        StringBuilder title = new StringBuilder();
+        StringBuilder name = new StringBuilder();
+        StringBuilder duration = new StringBuilder();
         for (AudioTrackContext atc : sublist) {
             String status = " ";
             if (i == 0) {
@@ -111,13 +116,19 @@ public class ListCommand extends JCommand implements IMusicCommand {
             Member member = atc.getMember();
             String username = member.getEffectiveName();
 
-            mb.code("[" + TextUtils.forceNDigits(i + 1, numberLength) + "]");
+            index.setLength(0);
+            title.setLength(0);
+            name.setLength(0);
+            duration.setLength(0);
+            mb.code(TextUtils.appendNDigits(index.append('['), i + 1, numberLength).append(']'));
             if (atc.isPriority()) {
                 mb.append(" ").code("⬆");
             }
             mb.append(status);
-            mb.append(context.i18nFormat("listAddedBy", TextUtils.escapeAndDefuse(atc.getEffectiveTitle()),
-                    TextUtils.escapeAndDefuse(username), TextUtils.formatTime(atc.getEffectiveDuration())));
+            mb.appendI18nFormat(context, "listAddedBy",
+                    TextUtils.appendEscapedAndDefused(title, atc.getEffectiveTitle()),
+                    TextUtils.appendEscapedAndDefused(name, username),
+                    TextUtils.appendTime(duration, atc.getEffectiveDuration()));
             mb.append("\n");
 
             if (i == listEnd) {
@@ -29,11 +29,13 @@ import fredboat.command.config.PrefixCommand
 import fredboat.commandmeta.abs.CommandContext
 import fredboat.config.idString
 import fredboat.config.property.AppConfig
+import fredboat.db.rest.GuildSettingsLoader
 import fredboat.feature.metrics.Metrics
 import fredboat.sentinel.Message
 import fredboat.sentinel.RawUser
 import fredboat.sentinel.getGuildMono
 import kotlinx.coroutines.reactive.awaitFirstOrNull
+import kotlinx.coroutines.reactive.awaitSingle
 import org.slf4j.LoggerFactory
 import org.springframework.beans.factory.annotation.Qualifier
 import org.springframework.stereotype.Component
@@ -46,6 +48,7 @@ import java.util.regex.Pattern
 @Component
 class CommandContextParser(
         private val appConfig: AppConfig,
+        private val guildSettingsLoader: GuildSettingsLoader,
         @param:Qualifier("selfUser")
         private val selfUser: RawUser
 ) {
@@ -115,11 +118,19 @@ class CommandContextParser(
             log.info("Unknown command:\t{}", commandTrigger)
             return null
         } else {
+            //load the settings of the guild while the guild itself is being fetched, so that the command does not
+            // wait for each of them in turn. The command gets them as one snapshot, which saves it from looking up
+            // things like the locale or the permissions of the guild on its own.
+            val settings = guildSettingsLoader.snapshot(event.guild).cache()
+            settings.subscribe({}, {})
+
             val guild = getGuildMono(event.guild, textChannelInvoked = event.channel).retry(1).awaitFirstOrNull()
                     ?: throw RuntimeException("Guild ${event.guild} doesn't seem to exist")
             val channel = guild.getTextChannel(event.channel) ?: throw RuntimeException("Channel was sent in null channel")
             val member = guild.getMember(event.author) ?: throw RuntimeException("Unknown message author")
 
+            val guildSettings = settings.awaitSingle()
+
             return CommandContext(
                     guild,
                     channel,
@@ -129,7 +140,8 @@ class CommandContextParser(
                     commandTrigger,
                     Arrays.copyOfRange(args, 1, args.size), //exclude args[0] that contains the command trigger
                     input.replaceFirst(commandTrigger.toRegex(), "").trim { it <= ' ' },
-                    command)
+                    command,
+                    guildSettings)
         }
     }
 
@@ -84,7 +84,7 @@ class CommandManager(private val patronageChecker: PatronageChecker, private val
             if (channel.id != 174821093633294338L // #spam_and_music
                     && channel.id != 217526705298866177L // #staff
                     && invoker.roles.none { it.id == BotConstants.FBH_MODERATOR_ROLE_ID }
-                    && !PermsUtil.checkPerms(PermissionLevel.ADMIN, invoker)) {
+                    && !PermsUtil.checkPerms(PermissionLevel.ADMIN, context)) {
                 context.deleteMessage()
                 val response = context.replyWithNameMono(
                         "Please read <#219483023257763842> for server rules and only use commands in <#174821093633294338>!"
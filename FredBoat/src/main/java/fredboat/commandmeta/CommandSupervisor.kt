@@ -0,0 +1,150 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.commandmeta
+
+import fredboat.commandmeta.abs.CommandContext
+import fredboat.feature.metrics.Metrics
+import kotlinx.coroutines.*
+import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Qualifier
+import org.springframework.stereotype.Component
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import javax.annotation.PreDestroy
+
+/**
+ * Runs the handling of commands, scoped to the guild they were sent in.
+ *
+ * Each guild and each user may only have a few commands running at the same time, further ones wait for those to
+ * finish. Commands that would exceed the limit of waiting ones are answered right away. Running commands are
+ * cancelled once they exceed their deadline, when the bot leaves their guild, or when it shuts down. Commands that
+ * block instead of suspending notice this only once they suspend the next time.
+ */
+@Component
+class CommandSupervisor(@param:Qualifier("ioDispatcher") private val dispatcher: CoroutineDispatcher) {
+
+    companion object {
+        private val log = LoggerFactory.getLogger(CommandSupervisor::class.java)
+        const val GUILD_LIMIT = 4
+        const val GUILD_QUEUE_LIMIT = 16
+        const val USER_LIMIT = 2
+        const val USER_QUEUE_LIMIT = 3
+        val DEADLINE_MILLIS = TimeUnit.MINUTES.toMillis(2)
+    }
+
+    private val root = SupervisorJob()
+    //only kept while the guild has running coroutines
+    private val guildJobs = ConcurrentHashMap<Long, GuildJob>()
+    private val guildLimiter = InFlightLimiter(GUILD_LIMIT, GUILD_QUEUE_LIMIT)
+    private val userLimiter = InFlightLimiter(USER_LIMIT, USER_QUEUE_LIMIT)
+
+    /**
+     * Launches handling a message sent in the guild. A failure of it does not affect any other ones.
+     */
+    fun launch(guildId: Long, block: suspend CoroutineScope.() -> Unit): Job {
+        val guildJob = guildJobs.compute(guildId) { _, job ->
+            (job ?: GuildJob(SupervisorJob(root))).apply { active++ }
+        }!!
+        val job = CoroutineScope(guildJob.job + dispatcher).launch(block = block)
+        job.invokeOnCompletion {
+            guildJobs.computeIfPresent(guildId) { _, current ->
+                if (current !== guildJob || --current.active > 0) return@computeIfPresent current
+                current.job.cancel() //detaches it from the root job
+                null
+            }
+        }
+        return job
+    }
+
+    /** Guilds that have coroutines running */
+    val activeGuilds: Int
+        get() = guildJobs.size
+
+    /**
+     * Runs the command once its guild and user are within their limits. Needs to be called from a coroutine that was
+     * launched by [launch].
+     */
+    suspend fun execute(context: CommandContext, block: suspend () -> Unit) {
+        val queued = System.nanoTime()
+        Metrics.commandsQueued.inc()
+        val rejectedBy = try {
+            admit(context)
+        } finally {
+            Metrics.commandsQueued.dec()
+        }
+        if (rejectedBy != null) {
+            Metrics.commandsQueueFull.labels(rejectedBy).inc()
+            context.reply(context.i18n(if (rejectedBy == "user") "commandQueueFullUser" else "commandQueueFullGuild"))
+            return
+        }
+        Metrics.commandQueueDuration.observe((System.nanoTime() - queued) / 1_000_000_000.0)
+
+        try {
+            withTimeout(DEADLINE_MILLIS) {
+                block()
+            }
+        } catch (e: TimeoutCancellationException) {
+            Metrics.commandsTimedOut.labels(context.command.javaClass.simpleName).inc()
+            log.warn("Command {} in guild {} exceeded its deadline of {}ms and was cancelled",
+                    context.command.name, context.guild.id, DEADLINE_MILLIS)
+        } finally {
+            guildLimiter.release(context.guild.id)
+            userLimiter.release(context.user.id)
+        }
+    }
+
+    //acquires both limits, or neither of them. Returns the scope of the limit that rejected the command, if one did
+    private suspend fun admit(context: CommandContext): String? {
+        val userId = context.user.id
+        if (!userLimiter.acquire(userId)) return "user"
+        val admitted = try {
+            guildLimiter.acquire(context.guild.id)
+        } catch (e: CancellationException) {
+            userLimiter.release(userId)
+            throw e
+        }
+        if (admitted) return null
+        userLimiter.release(userId)
+        return "guild"
+    }
+
+    /**
+     * Cancels all commands of the guild, for example when the bot left it.
+     */
+    fun cancel(guildId: Long) {
+        guildJobs.remove(guildId)?.job?.cancel()
+    }
+
+    @PreDestroy
+    fun shutdown() {
+        root.cancel()
+    }
+
+    //counts the coroutines launched in the job that did not complete yet, guarded by the map
+    private class GuildJob(val job: Job) {
+        var active = 0
+    }
+}
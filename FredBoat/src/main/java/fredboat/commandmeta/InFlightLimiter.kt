@@ -0,0 +1,113 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.commandmeta
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Limits how many tasks of the same key, like a guild or a user, may run at the same time. Tasks over the limit wait
+ * for a running one to finish, in the order they arrived, as long as there are not too many of them waiting already.
+ *
+ * @param limit       tasks of the same key that may run at the same time
+ * @param queueLimit  tasks of the same key that may wait for the running ones
+ */
+class InFlightLimiter(private val limit: Int, private val queueLimit: Int) {
+
+    private class Lane {
+        var running = 0
+        val waiting = ArrayDeque<CompletableDeferred<Unit>>()
+    }
+
+    //lanes exist only while tasks of their key are running. They are only ever accessed by computing them.
+    private val lanes = ConcurrentHashMap<Long, Lane>()
+    private val waitingCount = AtomicInteger()
+
+    /**
+     * Tasks that are waiting for a running one to finish, across all keys
+     */
+    val waiting: Int
+        get() = waitingCount.get()
+
+    /**
+     * Suspends until a task of the key may run. Each successful call needs to be followed by a call to [release].
+     *
+     * @return false if there are too many tasks of the key waiting already
+     */
+    suspend fun acquire(key: Long): Boolean {
+        var admitted = false
+        var waiter: CompletableDeferred<Unit>? = null
+        lanes.compute(key) { _, existing ->
+            val lane = existing ?: Lane()
+            if (lane.running < limit) {
+                lane.running++
+                admitted = true
+            } else if (lane.waiting.size < queueLimit) {
+                waiter = CompletableDeferred<Unit>().also { lane.waiting.add(it) }
+            }
+            lane
+        }
+        if (admitted) return true
+        val deferred = waiter ?: return false
+
+        waitingCount.incrementAndGet()
+        try {
+            deferred.await()
+        } catch (e: CancellationException) {
+            var handedOver = false
+            lanes.compute(key) { _, lane ->
+                handedOver = !lane!!.waiting.remove(deferred)
+                lane
+            }
+            //a finishing task handed its slot over to us already, so pass it on
+            if (handedOver) release(key)
+            throw e
+        } finally {
+            waitingCount.decrementAndGet()
+        }
+        return true
+    }
+
+    /**
+     * Lets the next waiting task of the key run, if there is one.
+     */
+    fun release(key: Long) {
+        lanes.compute(key) { _, lane ->
+            lane!!
+            val next = lane.waiting.poll()
+            if (next != null) {
+                //the slot is handed over, so the amount of running tasks stays the same
+                next.complete(Unit)
+            } else {
+                lane.running--
+            }
+            if (lane.running == 0) null else lane
+        }
+    }
+}
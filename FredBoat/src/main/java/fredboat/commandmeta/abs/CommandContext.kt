@@ -25,9 +25,12 @@
 
 package fredboat.commandmeta.abs
 
+import fredboat.db.GuildSettings
 import fredboat.definitions.Module
-import fredboat.main.Launcher
+import fredboat.definitions.PermissionLevel
+import fredboat.feature.I18n
 import fredboat.messaging.internal.Context
+import fredboat.perms.PermsUtil
 import fredboat.sentinel.*
 
 /**
@@ -42,7 +45,9 @@ class CommandContext(
         val trigger: String,                  // the command trigger, e.g. "play", or "p", or "pLaY", whatever the user typed
         val args: Array<String>,              // the arguments split by whitespace, excluding prefix and trigger
         val rawArgs: String,                  // raw arguments excluding prefix and trigger, trimmed
-        val command: Command) : Context() {
+        val command: Command,
+        val settings: GuildSettings           // the settings of the guild as of parsing the command
+) : Context() {
 
     /**
      * @return an adjusted list of mentions in case the prefix mention is used to exclude it. This method should always
@@ -66,11 +71,18 @@ class CommandContext(
         }
 
     val enabledModules: Collection<Module>
-        get() = Launcher.botController.guildModulesService.fetchGuildModules(this.guild).enabledModules
+        get() = settings.enabledModules
+
+    override val prefix: String
+        get() = settings.prefix
 
     override val user: User
         get() = member.user
 
+    override fun getLocale(): I18n.FredBoatLocale = settings.locale
+
+    override suspend fun memberLevel(): PermissionLevel = PermsUtil.getPerms(member, settings.permissions)
+
     /**
      * Deletes the users message that triggered this command, if we have the permissions to do so
      */
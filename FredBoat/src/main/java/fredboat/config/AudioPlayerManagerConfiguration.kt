@@ -48,6 +48,7 @@ import fredboat.audio.source.PlaylistImportSourceManager
 import fredboat.audio.source.SpotifyPlaylistSourceManager
 import fredboat.config.property.AppConfig
 import fredboat.config.property.AudioSourcesConfig
+import fredboat.feature.metrics.collectors.ThreadPoolCollector
 import fredboat.util.rest.SpotifyAPIWrapper
 import fredboat.util.rest.TrackSearcher
 import org.apache.http.client.config.CookieSpecs
@@ -61,6 +62,9 @@ import org.springframework.context.annotation.Configuration
 import org.springframework.context.annotation.Scope
 import java.net.InetAddress
 import java.util.*
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.ThreadPoolExecutor
 import java.util.function.Predicate
 
 /**
@@ -100,7 +104,9 @@ class AudioPlayerManagerConfiguration {
     @Bean(destroyMethod = "")
     fun loadAudioPlayerManager(@Qualifier("preconfiguredAudioPlayerManager") playerManager: AudioPlayerManager,
                                audioSourceManagers: ArrayList<AudioSourceManager>,
-                               playlistImportSourceManager: PlaylistImportSourceManager): AudioPlayerManager {
+                               playlistImportSourceManager: PlaylistImportSourceManager,
+                               threadPoolCollector: ThreadPoolCollector): AudioPlayerManager {
+        addItemLoaderPool("audio-loading", playerManager, threadPoolCollector)
         playerManager.registerSourceManager(playlistImportSourceManager)
         for (audioSourceManager in audioSourceManagers) {
             playerManager.registerSourceManager(audioSourceManager)
@@ -114,7 +120,9 @@ class AudioPlayerManagerConfiguration {
     @Bean(destroyMethod = "")
     fun searchAudioPlayerManager(@Qualifier("preconfiguredAudioPlayerManager") playerManager: AudioPlayerManager,
                                  youtubeAudioSourceManager: YoutubeAudioSourceManager,
-                                 soundCloudAudioSourceManager: SoundCloudAudioSourceManager): AudioPlayerManager {
+                                 soundCloudAudioSourceManager: SoundCloudAudioSourceManager,
+                                 threadPoolCollector: ThreadPoolCollector): AudioPlayerManager {
+        addItemLoaderPool("audio-search", playerManager, threadPoolCollector)
         playerManager.registerSourceManager(youtubeAudioSourceManager)
         playerManager.registerSourceManager(soundCloudAudioSourceManager)
         return playerManager
@@ -125,7 +133,9 @@ class AudioPlayerManagerConfiguration {
      */
     @Bean(destroyMethod = "")
     fun pasteAudioPlayerManager(@Qualifier("preconfiguredAudioPlayerManager") playerManager: AudioPlayerManager,
-                                audioSourceManagers: ArrayList<AudioSourceManager>): AudioPlayerManager {
+                                audioSourceManagers: ArrayList<AudioSourceManager>,
+                                threadPoolCollector: ThreadPoolCollector): AudioPlayerManager {
+        addItemLoaderPool("audio-paste", playerManager, threadPoolCollector)
         for (audioSourceManager in audioSourceManagers) {
             playerManager.registerSourceManager(audioSourceManager)
         }
@@ -199,11 +209,47 @@ class AudioPlayerManagerConfiguration {
         playerManager.configuration.resamplingQuality = quality
 
         playerManager.frameBufferDuration = 1000
-        playerManager.setItemLoaderThreadPoolSize(500)
+        //lavaplayer queues a limited amount of items to load, and fails loading any more than that
+        playerManager.setItemLoaderThreadPoolSize(ExecutorConfiguration.AUDIO_LOADING_THREADS)
 
         return playerManager
     }
 
+    /**
+     * @return the pool that the upcoming tracks of queues are decoded on ahead of time, see
+     * [fredboat.audio.queue.TrackLookahead]. Decoding a track may have to look it up again like loading it does, so this
+     * is the item loader pool of the player manager that loads the tracks, or the io pool if that one can not be found.
+     */
+    @Bean(destroyMethod = "")
+    fun trackLookaheadExecutor(@Qualifier("loadAudioPlayerManager") playerManager: AudioPlayerManager,
+                               executor: ExecutorService): Executor {
+        return itemLoaderPool(playerManager) ?: executor.also {
+            log.warn("Upcoming tracks will be decoded on the io pool instead of the item loader pool")
+        }
+    }
+
+    //lavaplayer does not expose the pool that it loads items with, so it is looked up to be monitored like our own
+    private fun addItemLoaderPool(name: String, playerManager: AudioPlayerManager,
+                                  threadPoolCollector: ThreadPoolCollector) {
+        val pool = itemLoaderPool(playerManager)
+        if (pool == null) {
+            log.warn("The item loader pool of the {} player manager will not be monitored", name)
+            return
+        }
+        threadPoolCollector.addPool(name, pool)
+    }
+
+    private fun itemLoaderPool(playerManager: AudioPlayerManager): ThreadPoolExecutor? {
+        return try {
+            val field = DefaultAudioPlayerManager::class.java.getDeclaredField("trackInfoExecutorService")
+            field.isAccessible = true
+            field.get(playerManager) as ThreadPoolExecutor
+        } catch (e: Exception) {
+            log.warn("Could not find the item loader pool of {}", playerManager, e)
+            null
+        }
+    }
+
 
     @Bean(destroyMethod = "")
     @Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
@@ -24,31 +24,111 @@
 
 package fredboat.config;
 
+import fredboat.feature.metrics.Metrics;
 import fredboat.feature.metrics.collectors.ThreadPoolCollector;
+import kotlinx.coroutines.CoroutineDispatcher;
+import kotlinx.coroutines.ExecutorsKt;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by napster on 24.02.18.
+ * <p>
+ * Defines the thread pools that FredBoat's own work runs on:
+ * - cpu: work that does not block, sized to the available processors
+ * - io: blocking requests to Quarterdeck, Sentinel, paste services and other APIs, and the commands that do them.
+ * This is the default executor.
+ * - transitions: starting the next track when one ends, see {@link fredboat.audio.player.AbstractPlayer}. Kept apart
+ * from io, so that a flood of commands does not leave players silent between tracks
+ * - audio loading: lavaplayer's item loader pools, which also decode the upcoming tracks of queues ahead of time, see
+ * {@link AudioPlayerManagerConfiguration}
+ * <p>
+ * All of them are bounded, both in threads and in queued tasks. Tasks that do not fit are rejected with a
+ * {@link RejectedExecutionException}, which commands answer by telling the user that the bot is busy, instead of
+ * spawning ever more threads under load. Coroutines that are dispatched to a full pool run on kotlinx' single default
+ * executor thread instead, so callers check {@link #isBusy} before launching them.
  */
 @Configuration
 public class ExecutorConfiguration {
 
+    public static final int CPU_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    public static final int CPU_QUEUE_SIZE = 1000;
+    public static final int IO_THREADS = 64;
+    public static final int IO_QUEUE_SIZE = 2000;
+    public static final int TRANSITION_THREADS = 4;
+    public static final int TRANSITION_QUEUE_SIZE = 500;
+    public static final int AUDIO_LOADING_THREADS = 100;
+
     /**
-     * Unlimited threads = http://i.imgur.com/H3b7H1S.gif
-     * Use this executor for various small async tasks
+     * Use this executor for various small async tasks, which may block
      */
     @Bean
+    @Primary
     public ExecutorService executor(ThreadPoolCollector threadPoolCollector) {
-        ExecutorService executor = Executors.newCachedThreadPool(
-                r -> new Thread(r, "main-executor-worker")
-        );
-        threadPoolCollector.addPool("main-executor", (ThreadPoolExecutor) executor);
-        Runtime.getRuntime().addShutdownHook(new Thread(executor::shutdown, "main-executor-shutdown-hook"));
-        return executor;
+        return boundedPool("io", IO_THREADS, IO_QUEUE_SIZE, threadPoolCollector);
+    }
+
+    /**
+     * Use this executor for work that does not block
+     */
+    @Bean
+    public ExecutorService cpuExecutor(ThreadPoolCollector threadPoolCollector) {
+        return boundedPool("cpu", CPU_THREADS, CPU_QUEUE_SIZE, threadPoolCollector);
+    }
+
+    /**
+     * Use this executor for the track transitions of players
+     */
+    @Bean
+    public ExecutorService transitionExecutor(ThreadPoolCollector threadPoolCollector) {
+        return boundedPool("transitions", TRANSITION_THREADS, TRANSITION_QUEUE_SIZE, threadPoolCollector);
+    }
+
+    @Bean
+    public CoroutineDispatcher ioDispatcher(ExecutorService executor) {
+        return ExecutorsKt.from(executor);
+    }
+
+    @Bean
+    public CoroutineDispatcher cpuDispatcher(@Qualifier("cpuExecutor") ExecutorService cpuExecutor) {
+        return ExecutorsKt.from(cpuExecutor);
+    }
+
+    /**
+     * @return true if the executor is one of our pools, and would reject another task right now
+     */
+    public static boolean isBusy(Executor executor) {
+        if (!(executor instanceof ThreadPoolExecutor)) {
+            return false;
+        }
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+        return pool.getQueue().remainingCapacity() == 0 || pool.isShutdown();
+    }
+
+    private static ExecutorService boundedPool(String name, int threads, int queueSize,
+                                               ThreadPoolCollector threadPoolCollector) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueSize),
+                r -> new Thread(r, name + "-worker-" + threadCount.incrementAndGet()),
+                (r, executor) -> {
+                    Metrics.threadPoolRejections.labels(name).inc();
+                    throw new RejectedExecutionException("Pool " + name + " is busy, rejected " + r);
+                });
+        //threads are only started while the queue is empty, so idle ones have to time out for the pool to shrink
+        pool.allowCoreThreadTimeOut(true);
+        threadPoolCollector.addPool(name, pool);
+        Runtime.getRuntime().addShutdownHook(new Thread(pool::shutdown, name + "-executor-shutdown-hook"));
+        return pool;
     }
 }
@@ -4,12 +4,15 @@ import com.fasterxml.jackson.databind.DeserializationFeature
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.fasterxml.jackson.module.kotlin.registerKotlinModule
 import com.fredboat.sentinel.SentinelExchanges
+import fredboat.db.EntityChangeListener
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 import org.springframework.amqp.AmqpRejectAndDontRequeueException
+import org.springframework.amqp.core.AnonymousQueue
 import org.springframework.amqp.core.Binding
 import org.springframework.amqp.core.BindingBuilder
 import org.springframework.amqp.core.DirectExchange
+import org.springframework.amqp.core.FanoutExchange
 import org.springframework.amqp.core.Queue
 import org.springframework.amqp.rabbit.AsyncRabbitTemplate
 import org.springframework.amqp.rabbit.core.RabbitTemplate
@@ -17,6 +20,7 @@ import org.springframework.amqp.rabbit.listener.RabbitListenerErrorHandler
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter
 import org.springframework.amqp.support.converter.MessageConverter
 import org.springframework.beans.factory.annotation.Qualifier
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty
 import org.springframework.context.annotation.Bean
 import org.springframework.context.annotation.Configuration
 import org.springframework.retry.interceptor.RetryInterceptorBuilder
@@ -56,6 +60,25 @@ class RabbitConfiguration {
         return BindingBuilder.bind(eventQueue).to(eventExchange).with("")
     }
 
+    /* Entity change events of Quarterdeck. Each FredBoat instance gets all of them in its own queue */
+
+    @Bean
+    @ConditionalOnProperty(prefix = "backend.quarterdeck", name = ["change-events"], havingValue = "true")
+    fun entityChangeExchange() = FanoutExchange(EntityChangeListener.EXCHANGE)
+
+    @Bean
+    @ConditionalOnProperty(prefix = "backend.quarterdeck", name = ["change-events"], havingValue = "true")
+    fun entityChangeQueue() = AnonymousQueue()
+
+    @Bean
+    @ConditionalOnProperty(prefix = "backend.quarterdeck", name = ["change-events"], havingValue = "true")
+    fun entityChangeBinding(
+            @Qualifier("entityChangeExchange") entityChangeExchange: FanoutExchange,
+            @Qualifier("entityChangeQueue") entityChangeQueue: Queue
+    ): Binding {
+        return BindingBuilder.bind(entityChangeQueue).to(entityChangeExchange)
+    }
+
     @Bean
     fun rabbitListenerErrorHandler() = RabbitListenerErrorHandler {
         _, _, t ->
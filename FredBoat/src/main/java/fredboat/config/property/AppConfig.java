@@ -86,6 +86,11 @@ public interface AppConfig {
 
     boolean getContinuePlayback();
 
+    /**
+     * @return how many tracks of the history of each player are kept on disk. 0 keeps only the latest ones in memory
+     */
+    int getPersistentHistorySize();
+
     @Nullable
     RatelimitConfig getRatelimit();
 }
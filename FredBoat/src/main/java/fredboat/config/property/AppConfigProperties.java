@@ -52,6 +52,7 @@ public class AppConfigProperties implements AppConfig {
     private boolean autoBlacklist = true;
     private String game = "";
     private boolean continuePlayback = false;
+    private int persistentHistorySize = 0;
     private int shardCount = 1;
     //undocumented
     private int playerLimit = -1;
@@ -101,6 +102,11 @@ public class AppConfigProperties implements AppConfig {
         return continuePlayback;
     }
 
+    @Override
+    public int getPersistentHistorySize() {
+        return persistentHistorySize;
+    }
+
     @Override
     public int getPlayerLimit() {
         return playerLimit;
@@ -153,6 +159,10 @@ public class AppConfigProperties implements AppConfig {
         this.continuePlayback = continuePlayback;
     }
 
+    public void setPersistentHistorySize(int persistentHistorySize) {
+        this.persistentHistorySize = persistentHistorySize;
+    }
+
     public void setPlayerLimit(int playerLimit) {
         this.playerLimit = playerLimit;
     }
@@ -39,5 +39,11 @@ public interface BackendConfig {
         String getPass();
 
         String getBasicAuth();
+
+        /**
+         * @return true if Quarterdeck publishes entity change events, so that cached entities only need to be
+         * refreshed occasionally
+         */
+        boolean isChangeEvents();
     }
 }
@@ -55,6 +55,7 @@ public class BackendConfigProperties implements BackendConfig {
         private String user = "";
         private String pass = "";
         private String auth = "";
+        private boolean changeEvents = false;
 
         @Override
         public String getHost() {
@@ -79,6 +80,11 @@ public class BackendConfigProperties implements BackendConfig {
             return auth;
         }
 
+        @Override
+        public boolean isChangeEvents() {
+            return changeEvents;
+        }
+
         public void setHost(String host) {
             this.host = host;
             //noinspection ConstantConditions
@@ -114,5 +120,9 @@ public class BackendConfigProperties implements BackendConfig {
                 throw new RuntimeException(message);
             }
         }
+
+        public void setChangeEvents(boolean changeEvents) {
+            this.changeEvents = changeEvents;
+        }
     }
 }
@@ -0,0 +1,68 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.db
+
+import fredboat.command.config.PrefixCommand
+import fredboat.db.rest.CachedRestService
+import fredboat.db.rest.RestPrefixService
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import org.springframework.amqp.rabbit.annotation.RabbitListener
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty
+import org.springframework.stereotype.Component
+
+/**
+ * Published by Quarterdeck whenever an entity is changed.
+ *
+ * @param entity name of the resource of the entity. Example: guildconfig
+ * @param id id of the entity in its string form, for prefixes the id of the guild
+ */
+data class EntityChangedEvent(val entity: String, val id: String)
+
+/**
+ * Drops cached entities as soon as Quarterdeck tells us they have been changed.
+ */
+@Component
+@ConditionalOnProperty(prefix = "backend.quarterdeck", name = ["change-events"], havingValue = "true")
+class EntityChangeListener(services: List<CachedRestService<*, *>>) {
+
+    companion object {
+        const val EXCHANGE = "quarterdeck-entity-changes"
+        private val log: Logger = LoggerFactory.getLogger(EntityChangeListener::class.java)
+        private val PREFIX_RESOURCE = RestPrefixService.PATH.removeSuffix("/")
+    }
+
+    private val servicesByResource = services.associateBy { it.getResource() }
+
+    @RabbitListener(queues = ["#{entityChangeQueue.name}"], errorHandler = "rabbitListenerErrorHandler")
+    fun onEntityChanged(event: EntityChangedEvent) {
+        log.debug("Entity {} {} changed", event.entity, event.id)
+        servicesByResource[event.entity]?.invalidate(event.id)
+        if (event.entity == PREFIX_RESOURCE) {
+            event.id.toLongOrNull()?.let { PrefixCommand.CUSTOM_PREFIXES.invalidate(it) }
+        }
+    }
+}
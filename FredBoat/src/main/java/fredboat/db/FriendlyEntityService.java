@@ -29,8 +29,10 @@ import fredboat.db.rest.BackendException;
 import fredboat.util.func.NonnullSupplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
 
 import javax.annotation.Nullable;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Supplier;
 
 /**
@@ -82,4 +84,16 @@ public class FriendlyEntityService {
             throw new DatabaseNotReadyException(e);
         }
     }
+
+    /**
+     * Same as {@link FriendlyEntityService#fetchUserFriendly(NonnullSupplier)}, for operations that complete
+     * asynchronously. The operation is started on subscription.
+     */
+    public static <T> Mono<T> fetchUserFriendlyMono(Supplier<CompletableFuture<T>> operation) {
+        return Mono.defer(() -> Mono.fromFuture(operation.get()))
+                .onErrorMap(BackendException.class, e -> {
+                    log.error("EntityService database operation failed", e);
+                    return new DatabaseNotReadyException(e);
+                });
+    }
 }
@@ -0,0 +1,60 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.db
+
+import fredboat.definitions.Module
+import fredboat.feature.I18n
+import fredboat.perms.CompiledPermissions
+import java.util.*
+
+/**
+ * The settings of a guild as they were when this snapshot was taken. Resolved once per command, so that looking up
+ * the locale, modules, permissions or prefix while the command is running does not hit any cache or the backend.
+ *
+ * Snapshots are never updated, fetch a new one instead. [version] tells apart snapshots of the same guild, see
+ * [fredboat.db.rest.GuildSettingsLoader.isStale] for how to find out whether a snapshot is outdated.
+ */
+class GuildSettings(
+        val guildId: Long,
+        val version: Long,
+        val locale: I18n.FredBoatLocale,
+        enabledModules: Collection<Module>,
+        val permissions: CompiledPermissions,
+        val prefix: String,
+        val isTrackAnnounce: Boolean,
+        val isAutoResume: Boolean
+) {
+
+    //one bit per module, by ordinal
+    private val modules: Int = enabledModules.fold(0) { mask, module -> mask or (1 shl module.ordinal) }
+
+    val enabledModules: List<Module> = Module.values().filter { isEnabled(it) }
+
+    val i18n: ResourceBundle
+        get() = locale.props
+
+    fun isEnabled(module: Module): Boolean = modules and (1 shl module.ordinal) != 0
+}
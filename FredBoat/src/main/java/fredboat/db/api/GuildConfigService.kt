@@ -26,6 +26,7 @@
 package fredboat.db.api
 
 import fredboat.db.transfer.GuildConfig
+import reactor.core.publisher.Mono
 
 /**
  * Created by napster on 07.02.18.
@@ -34,5 +35,10 @@ interface GuildConfigService {
 
     fun fetchGuildConfig(guild: Long): GuildConfig
 
+    /**
+     * Non-blocking variant of [fetchGuildConfig]
+     */
+    fun fetchGuildConfigMono(guild: Long): Mono<GuildConfig> = Mono.fromCallable { fetchGuildConfig(guild) }
+
     fun transformGuildConfig(guild: Long, transformation: (GuildConfig) -> GuildConfig): GuildConfig
 }
@@ -27,6 +27,7 @@ package fredboat.db.api;
 
 import fredboat.db.transfer.GuildModules;
 import fredboat.sentinel.Guild;
+import reactor.core.publisher.Mono;
 
 import java.util.function.Function;
 
@@ -37,6 +38,13 @@ public interface GuildModulesService {
 
     GuildModules fetchGuildModules(Guild guild);
 
+    /**
+     * Non-blocking variant of {@link #fetchGuildModules(Guild)}
+     */
+    default Mono<GuildModules> fetchGuildModulesMono(Guild guild) {
+        return Mono.fromCallable(() -> fetchGuildModules(guild));
+    }
+
     GuildModules transformGuildModules(Guild guild, Function<GuildModules, GuildModules> transformation);
 
 }
@@ -26,7 +26,9 @@
 package fredboat.db.api;
 
 import fredboat.db.transfer.GuildPermissions;
+import fredboat.perms.CompiledPermissions;
 import fredboat.sentinel.Guild;
+import reactor.core.publisher.Mono;
 
 import java.util.function.Function;
 
@@ -37,5 +39,19 @@ public interface GuildPermsService {
 
     GuildPermissions fetchGuildPermissions(Guild guild);
 
+    /**
+     * Non-blocking variant of {@link #fetchGuildPermissions(Guild)}
+     */
+    default Mono<GuildPermissions> fetchGuildPermissionsMono(Guild guild) {
+        return Mono.fromCallable(() -> fetchGuildPermissions(guild));
+    }
+
+    /**
+     * @return the permissions of the guild compiled for fast lookups
+     */
+    default Mono<CompiledPermissions> fetchCompiledPermissionsMono(Guild guild) {
+        return fetchGuildPermissionsMono(guild).map(CompiledPermissions::new);
+    }
+
     GuildPermissions transformGuildPerms(Guild guild, Function<GuildPermissions, GuildPermissions> transformation);
 }
@@ -27,43 +27,149 @@ package fredboat.db.rest;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.google.gson.Gson;
+import fredboat.config.property.BackendConfig;
 import fredboat.db.transfer.TransferObject;
+import fredboat.feature.metrics.Metrics;
 import fredboat.util.rest.CacheUtil;
 import io.prometheus.client.guava.cache.CacheMetricsCollector;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 
+import javax.annotation.Nullable;
 import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
 
 /**
  * Created by napster on 18.02.18.
  */
 public abstract class CachedRestService<I extends Serializable, E extends TransferObject<I>> extends RestService<I, E> {
 
+    //shared by all services, so that no two versions handed out by any of them are the same
+    private static final AtomicLong VERSIONS = new AtomicLong();
+    //entities are compared in the form they are sent to the backend in
+    private static final Gson GSON = new Gson();
+
+    //delays of retrying a failed write, doubling with each failure
+    static final long MIN_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    //how long a write is retried before it is dropped
+    static final long MAX_RETRY_AGE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
     protected final LoadingCache<I, E> cache;
+    private final String resource;
+    private final ExecutorService loaderExecutor;
+    //loads that have been started by fetchAsync and did not finish yet
+    private final ConcurrentMap<I, CompletableFuture<E>> inFlight = new ConcurrentHashMap<>();
+    //transformed entities that have not been merged into the backend yet
+    private final ConcurrentMap<I, PendingWrite<E>> pendingWrites = new ConcurrentHashMap<>();
+    //version of each cached entity, changes whenever the cached value changed
+    private final ConcurrentMap<I, Version> versions = new ConcurrentHashMap<>();
+    //failed writes by id, only accessed while flushing
+    private final Map<I, Retry> retries = new HashMap<>();
+    private volatile LongSupplier clock = System::currentTimeMillis;
 
     /**
-     * Create the CachedRestRepo using a default cache
+     * Create the CachedRestRepo using a default cache.
+     * <p>
+     * Entries are refreshed in the background once they are older than a minute. Until the refresh is done, the stale
+     * value keeps being served. Entries that are not accessed for a while are evicted. If Quarterdeck publishes entity
+     * change events, changed entries are invalidated by those instead, and refreshing is only a fallback for missed
+     * events.
+     *
+     * @param resource name of the resource, including a trailing slash. Example: guildconfig/
      */
-    public CachedRestService(String path, Class<E> entityClass, RestTemplate backendRestTemplate,
+    public CachedRestService(BackendConfig backendConfig, String resource, Class<E> entityClass,
+                             RestTemplate backendRestTemplate, ExecutorService executor,
                              CacheMetricsCollector cacheMetrics, String cacheName) {
-        this(path, entityClass, backendRestTemplate,
-                CacheBuilder.newBuilder()
-                        .expireAfterAccess(60, TimeUnit.SECONDS)
-                        .expireAfterWrite(120, TimeUnit.SECONDS),
-                cacheMetrics, cacheName
-        );
+        this(backendConfig.getQuarterdeck().getHost() + VERSION_PATH + resource, entityClass, backendRestTemplate,
+                executor, defaultCacheBuilder(backendConfig.getQuarterdeck().isChangeEvents()), cacheMetrics, cacheName);
     }
 
     public CachedRestService(String path, Class<E> entityClass, RestTemplate backendRestTemplate,
-                             CacheBuilder<Object, Object> cacheBuilder, CacheMetricsCollector cacheMetrics, String cacheName) {
+                             ExecutorService executor, CacheBuilder<Object, Object> cacheBuilder,
+                             CacheMetricsCollector cacheMetrics, String cacheName) {
         super(path, entityClass, backendRestTemplate);
-        this.cache = cacheBuilder.recordStats().build(CacheLoader.from(super::fetch));
+        this.loaderExecutor = executor;
+        String trimmed = path.substring(0, path.length() - 1);
+        this.resource = trimmed.substring(trimmed.lastIndexOf('/') + 1);
+        //NOTE: never use refreshing without async reloading, because Guavas cache uses the thread calling it to do
+        // cleanup tasks (including refreshing)
+        CacheBuilder<I, E> builder = cacheBuilder.recordStats().removalListener(this::onRemoval);
+        this.cache = builder.build(CacheLoader.asyncReloading(CacheLoader.from(this::load), executor));
         cacheMetrics.addCache(cacheName, cache);
     }
 
+    private static CacheBuilder<Object, Object> defaultCacheBuilder(boolean changeEvents) {
+        if (changeEvents) {
+            return CacheBuilder.newBuilder()
+                    .refreshAfterWrite(15, TimeUnit.MINUTES)
+                    .expireAfterAccess(15, TimeUnit.MINUTES)
+                    .expireAfterWrite(2, TimeUnit.HOURS);
+        }
+        return CacheBuilder.newBuilder()
+                .refreshAfterWrite(60, TimeUnit.SECONDS)
+                .expireAfterAccess(5, TimeUnit.MINUTES)
+                .expireAfterWrite(15, TimeUnit.MINUTES);
+    }
+
+    /**
+     * @return name of the resource as used in entity change events. Example: guildconfig
+     */
+    public String getResource() {
+        return resource;
+    }
+
+    /**
+     * @return the version of the cached entity. It is different every time the entity changed or was invalidated,
+     * which makes it possible to tell whether values derived from the entity are outdated.
+     */
+    public long getVersion(I id) {
+        return versions.computeIfAbsent(id, key -> new Version(VERSIONS.incrementAndGet(), null)).number;
+    }
+
+    /**
+     * Drop a cached entity after it has been changed elsewhere. Called for entity change events, which only carry the
+     * id in its string form.
+     */
+    public void invalidate(String id) {
+        I key = parseId(id);
+        if (key != null) {
+            cache.invalidate(key);
+        }
+    }
+
+    /**
+     * @param id id of an entity as carried by entity change events
+     * @return the id as used by this service, or null if it does not identify a cached entity
+     */
+    @Nullable
+    protected abstract I parseId(String id);
+
+    @Nullable
+    protected static Long parseLongId(String id) {
+        try {
+            return Long.parseLong(id);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     @Override
     protected void delete(I id) {
+        pendingWrites.remove(id);
         try {
             super.delete(id);
         } finally {
@@ -76,10 +182,234 @@ public abstract class CachedRestService<I extends Serializable, E extends Transf
         return CacheUtil.getUncheckedUnwrapped(cache, id);
     }
 
+    /**
+     * Non-blocking counterpart of {@link #fetch(Serializable)}. Cached values, including stale ones that are being
+     * refreshed, complete right away. Concurrent misses for the same id share a single load.
+     */
+    public CompletableFuture<E> fetchAsync(I id) {
+        if (cache.getIfPresent(id) != null) {
+            //does not block for present values, and triggers a background refresh if the value is stale
+            return CompletableFuture.completedFuture(fetch(id));
+        }
+
+        CompletableFuture<E> pending = inFlight.get(id);
+        if (pending != null) {
+            return pending;
+        }
+        CompletableFuture<E> future = new CompletableFuture<>();
+        pending = inFlight.putIfAbsent(id, future);
+        if (pending != null) {
+            return pending;
+        }
+
+        try {
+            loaderExecutor.execute(() -> {
+                try {
+                    E result = fetch(id);
+                    inFlight.remove(id, future);
+                    future.complete(result);
+                } catch (Throwable t) {
+                    inFlight.remove(id, future);
+                    future.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(id, future);
+            future.completeExceptionally(new BackendException("Could not schedule fetching entity with id " + id, e));
+        }
+        return future;
+    }
+
     @Override
     public E merge(E entity) {
         E merged = super.merge(entity);
-        cache.put(merged.getId(), merged);
+        put(merged.getId(), merged);
         return merged;
     }
+
+    /**
+     * Apply a transformation to an entity without waiting for the backend. The result is visible to readers right
+     * away, and merged into the backend by the next {@link #flushWrites()}. Transformations of the same entity are
+     * applied in the order they are called in, so that none of them are lost.
+     */
+    protected E transform(I id, Function<E, E> transformation) {
+        E current = fetch(id);
+        PendingWrite<E> write = pendingWrites.compute(id, (key, pending) -> {
+            E transformed = transformation.apply(pending != null ? pending.entity : current);
+            put(id, transformed);
+            return new PendingWrite<>(transformed);
+        });
+        return write.entity;
+    }
+
+    /**
+     * Merge all transformed entities into the backend. Writes that fail are retried on later calls, backing off
+     * exponentially, until they have been failing for {@link #MAX_RETRY_AGE_MILLIS}. Writes that the backend rejects
+     * as invalid are not retried. Dropped writes are reported, and their entities are loaded from the backend again.
+     *
+     * @return amount of writes that failed, now or on an earlier call that they are waiting to be retried after
+     */
+    public synchronized int flushWrites() {
+        int failed = 0;
+        int attemptsFailed = 0;
+        long now = clock.getAsLong();
+        retries.keySet().retainAll(pendingWrites.keySet()); //deleted meanwhile
+        for (Map.Entry<I, PendingWrite<E>> entry : pendingWrites.entrySet()) {
+            I id = entry.getKey();
+            PendingWrite<E> write = entry.getValue();
+            Retry retry = retries.get(id);
+            if (retry != null && now < retry.nextAttempt) {
+                failed++;
+                continue;
+            }
+            E merged;
+            try {
+                merged = super.merge(write.entity);
+            } catch (BackendException e) {
+                if (e.getCause() instanceof HttpClientErrorException) {
+                    log.error("Backend rejected entity with id {} of class {}, dropping the write", id, entityClass, e);
+                    drop(id, write, "rejected");
+                    continue;
+                }
+                retry = retry != null ? retry.next(now) : new Retry(now);
+                if (now - retry.firstFailure >= MAX_RETRY_AGE_MILLIS) {
+                    log.error("Failed to write entity with id {} of class {} for {}ms, dropping the write",
+                            id, entityClass, now - retry.firstFailure, e);
+                    drop(id, write, "expired");
+                    continue;
+                }
+                failed++;
+                attemptsFailed++;
+                retries.put(id, retry);
+                log.debug("Failed to write entity with id {} of class {}, will retry", id, entityClass, e);
+                continue;
+            }
+            retries.remove(id);
+            //keep writes that happened while merging, they will be written on the next flush
+            pendingWrites.computeIfPresent(id, (key, pending) -> {
+                if (pending != write) {
+                    return pending;
+                }
+                put(id, merged);
+                return null;
+            });
+        }
+        if (attemptsFailed > 0) {
+            log.warn("{} writes of entities of class {} failed, will retry", attemptsFailed, entityClass);
+        }
+        return failed;
+    }
+
+    //transformations made while the write was attempted are kept, and attempted on their own
+    private void drop(I id, PendingWrite<E> write, String reason) {
+        retries.remove(id);
+        if (pendingWrites.remove(id, write)) {
+            cache.invalidate(id);
+        }
+        Metrics.entityWritesDropped.labels(entityClass.getSimpleName(), reason).inc();
+    }
+
+    /**
+     * Replace the clock that retries of failed writes are timed with.
+     */
+    void setClock(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    public int getPendingWriteCount() {
+        return pendingWrites.size();
+    }
+
+    //the backend does not know about pending writes yet, so they take precedence over what it returns
+    private E load(I id) {
+        PendingWrite<E> pending = pendingWrites.get(id);
+        E loaded = pending != null ? pending.entity : super.fetch(id);
+        //refreshed entities are compared once they replaced the cached ones, as readers only see them from then on
+        String content = GSON.toJson(loaded);
+        versions.compute(id, (key, current) -> {
+            if (current == null) {
+                return new Version(VERSIONS.incrementAndGet(), content);
+            }
+            return current.content == null ? new Version(current.number, content) : current;
+        });
+        return loaded;
+    }
+
+    private void put(I id, E entity) {
+        cache.put(id, entity);
+        updateVersion(id, entity);
+    }
+
+    //the cached instance may have been changed in place, so this compares against what it held when it was versioned
+    private void updateVersion(I id, E entity) {
+        String content = GSON.toJson(entity);
+        versions.compute(id, (key, current) -> {
+            if (current != null && content.equals(current.content)) {
+                return current;
+            }
+            return new Version(VERSIONS.incrementAndGet(), content);
+        });
+    }
+
+    //evicted entities get a new version once they are looked at again. invalidated ones get the next version right
+    // away, so that readers notice the change without having to load the entity again. replaced ones only get one if
+    // the entity changed
+    private void onRemoval(RemovalNotification<I, E> notification) {
+        I id = notification.getKey();
+        if (id == null) {
+            return;
+        }
+        if (notification.getCause() == RemovalCause.EXPLICIT) {
+            versions.computeIfPresent(id, (key, current) -> new Version(VERSIONS.incrementAndGet(), null));
+        } else if (notification.getCause() == RemovalCause.REPLACED) {
+            E replacement = cache.asMap().get(id);
+            if (replacement != null) {
+                updateVersion(id, replacement);
+            }
+        } else {
+            versions.remove(id);
+        }
+    }
+
+    private static final class Version {
+        private final long number;
+        //json of the entity this version was handed out for, null if the entity was not loaded since
+        @Nullable
+        private final String content;
+
+        private Version(long number, @Nullable String content) {
+            this.number = number;
+            this.content = content;
+        }
+    }
+
+    private static final class Retry {
+        private final long firstFailure;
+        private final int failures;
+        private final long nextAttempt;
+
+        private Retry(long now) {
+            this(now, 1, now + MIN_RETRY_DELAY_MILLIS);
+        }
+
+        private Retry(long firstFailure, int failures, long nextAttempt) {
+            this.firstFailure = firstFailure;
+            this.failures = failures;
+            this.nextAttempt = nextAttempt;
+        }
+
+        private Retry next(long now) {
+            long delay = Math.min(MIN_RETRY_DELAY_MILLIS << Math.min(failures, 16), MAX_RETRY_DELAY_MILLIS);
+            return new Retry(firstFailure, failures + 1, now + delay);
+        }
+    }
+
+    //wrapper to tell apart transformations that return the same, mutated, instance
+    private static final class PendingWrite<E> {
+        private final E entity;
+
+        private PendingWrite(E entity) {
+            this.entity = entity;
+        }
+    }
 }
@@ -0,0 +1,126 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.db.rest;
+
+import fredboat.command.config.PrefixCommand;
+import fredboat.db.GuildSettings;
+import fredboat.db.transfer.GuildConfig;
+import fredboat.feature.I18n;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.function.LongFunction;
+
+import static fredboat.db.FriendlyEntityService.fetchUserFriendlyMono;
+
+/**
+ * Loads all guild scoped entities that a command may need in one go, instead of having each of them miss its cache
+ * in turn while the command is running.
+ * <p>
+ * Quarterdeck has no endpoint to fetch several entity types at once, so the requests are pipelined against the
+ * existing endpoints. Every entity ends up in the cache of the service it belongs to, which keeps handling updates
+ * and invalidation of it on its own.
+ * <p>
+ * The loaded settings can also be taken as a {@link GuildSettings} snapshot, which is versioned by the versions of the
+ * cached entities it was made from.
+ */
+@Component
+public class GuildSettingsLoader {
+
+    private final RestGuildConfigService guildConfigService;
+    private final RestGuildModulesService guildModulesService;
+    private final RestGuildPermsService guildPermsService;
+    private final LongFunction<String> prefixes;
+
+    @Autowired
+    public GuildSettingsLoader(RestGuildConfigService guildConfigService, RestGuildModulesService guildModulesService,
+                               RestGuildPermsService guildPermsService) {
+        this(guildConfigService, guildModulesService, guildPermsService, PrefixCommand.Companion::giefPrefix);
+    }
+
+    GuildSettingsLoader(RestGuildConfigService guildConfigService, RestGuildModulesService guildModulesService,
+                        RestGuildPermsService guildPermsService, LongFunction<String> prefixes) {
+        this.guildConfigService = guildConfigService;
+        this.guildModulesService = guildModulesService;
+        this.guildPermsService = guildPermsService;
+        this.prefixes = prefixes;
+    }
+
+    /**
+     * @return a Mono that completes once the settings of the guild are cached. Settings that are cached already are
+     * not requested again.
+     */
+    public Mono<Void> load(long guildId) {
+        return Mono.when(
+                fetchUserFriendlyMono(() -> guildConfigService.fetchAsync(Long.toString(guildId))),
+                fetchUserFriendlyMono(() -> guildModulesService.fetchAsync(guildId)),
+                fetchUserFriendlyMono(() -> guildPermsService.fetchAsync(Long.toString(guildId)))
+        );
+    }
+
+    /**
+     * @return a snapshot of the settings of the guild. Settings that are cached already are not requested again.
+     */
+    public Mono<GuildSettings> snapshot(long guildId) {
+        return Mono.defer(() -> {
+            //taken before the entities are, so that changes that happen in between make the snapshot stale
+            long version = getVersion(guildId);
+            return Mono.zip(
+                    fetchUserFriendlyMono(() -> guildConfigService.fetchAsync(Long.toString(guildId))),
+                    fetchUserFriendlyMono(() -> guildModulesService.fetchAsync(guildId)),
+                    guildPermsService.fetchCompiledPermissionsMono(guildId)
+            ).map(settings -> {
+                GuildConfig config = settings.getT1();
+                return new GuildSettings(
+                        guildId,
+                        version,
+                        I18n.LANGS.getOrDefault(config.getLang(), I18n.DEFAULT),
+                        settings.getT2().getEnabledModules(),
+                        settings.getT3(),
+                        prefixes.apply(guildId),
+                        config.isTrackAnnounce(),
+                        config.isAutoResume()
+                );
+            });
+        });
+    }
+
+    /**
+     * @return true if any of the settings the snapshot was made from may have changed since. The prefix is not part
+     * of this, it is only ever used right away for the command the snapshot is taken for.
+     */
+    public boolean isStale(GuildSettings settings) {
+        return settings.getVersion() != getVersion(settings.getGuildId());
+    }
+
+    //versions are unique across services, so the latest of them changes whenever any of them does
+    private long getVersion(long guildId) {
+        String id = Long.toString(guildId);
+        return Math.max(guildConfigService.getVersion(id),
+                Math.max(guildModulesService.getVersion(guildId), guildPermsService.getVersion(id)));
+    }
+}
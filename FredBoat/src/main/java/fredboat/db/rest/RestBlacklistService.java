@@ -31,6 +31,9 @@ import io.prometheus.client.guava.cache.CacheMetricsCollector;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
 
+import javax.annotation.Nullable;
+import java.util.concurrent.ExecutorService;
+
 import static fredboat.db.FriendlyEntityService.doUserFriendly;
 import static fredboat.db.FriendlyEntityService.fetchUserFriendly;
 
@@ -42,9 +45,16 @@ public class RestBlacklistService extends CachedRestService<Long, BlacklistEntry
 
     public static final String PATH = "blacklist/";
 
-    public RestBlacklistService(BackendConfig backendConfig, RestTemplate quarterdeckRestTemplate, CacheMetricsCollector cacheMetrics) {
-        super(backendConfig.getQuarterdeck().getHost() + VERSION_PATH + PATH, BlacklistEntry.class,
-                quarterdeckRestTemplate, cacheMetrics, RestBlacklistService.class.getSimpleName());
+    public RestBlacklistService(BackendConfig backendConfig, RestTemplate quarterdeckRestTemplate, ExecutorService executor,
+                                CacheMetricsCollector cacheMetrics) {
+        super(backendConfig, PATH, BlacklistEntry.class,
+                quarterdeckRestTemplate, executor, cacheMetrics, RestBlacklistService.class.getSimpleName());
+    }
+
+    @Nullable
+    @Override
+    protected Long parseId(String id) {
+        return parseLongId(id);
     }
 
     @Override
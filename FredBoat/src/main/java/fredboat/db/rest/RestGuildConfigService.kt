@@ -26,22 +26,28 @@ package fredboat.db.rest
 
 import fredboat.config.property.BackendConfig
 import fredboat.db.FriendlyEntityService.fetchUserFriendly
+import fredboat.db.FriendlyEntityService.fetchUserFriendlyMono
 import fredboat.db.api.GuildConfigService
 import fredboat.db.transfer.GuildConfig
 import io.prometheus.client.guava.cache.CacheMetricsCollector
 import org.springframework.stereotype.Component
 import org.springframework.web.client.RestTemplate
+import reactor.core.publisher.Mono
+import java.util.concurrent.ExecutorService
 
 /**
  * Created by napster on 17.02.18.
  */
 @Component
 class RestGuildConfigService(backendConfig: BackendConfig, quarterdeckRestTemplate: RestTemplate,
+                             executor: ExecutorService,
                              cacheMetrics: CacheMetricsCollector)
     : CachedRestService<String, GuildConfig>(
-        backendConfig.quarterdeck.host + RestService.VERSION_PATH + PATH,
+        backendConfig,
+        PATH,
         GuildConfig::class.java,
         quarterdeckRestTemplate,
+        executor,
         cacheMetrics,
         RestGuildConfigService::class.java.simpleName
 ), GuildConfigService {
@@ -50,11 +56,17 @@ class RestGuildConfigService(backendConfig: BackendConfig, quarterdeckRestTempla
         const val PATH = "guildconfig/"
     }
 
+    override fun parseId(id: String) = id
+
     override fun fetchGuildConfig(guild: Long): GuildConfig {
         return fetchUserFriendly { fetch(guild.toString()) }
     }
 
+    override fun fetchGuildConfigMono(guild: Long): Mono<GuildConfig> {
+        return fetchUserFriendlyMono { fetchAsync(guild.toString()) }
+    }
+
     override fun transformGuildConfig(guild: Long, transformation: (GuildConfig) -> GuildConfig): GuildConfig {
-        return fetchUserFriendly { merge(transformation(fetchGuildConfig(guild))) }
+        return fetchUserFriendly { transform(guild.toString(), transformation) }
     }
 }
@@ -32,6 +32,8 @@ import io.prometheus.client.guava.cache.CacheMetricsCollector;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
 
+import javax.annotation.Nullable;
+import java.util.concurrent.ExecutorService;
 import java.util.function.Function;
 
 import static fredboat.db.FriendlyEntityService.fetchUserFriendly;
@@ -43,10 +45,16 @@ public class RestGuildDataService extends CachedRestService<Long, GuildData> imp
 
     public static final String PATH = "guilddata/";
 
-    public RestGuildDataService(BackendConfig backendConfig, RestTemplate quarterdeckRestTemplate,
+    public RestGuildDataService(BackendConfig backendConfig, RestTemplate quarterdeckRestTemplate, ExecutorService executor,
                                 CacheMetricsCollector cacheMetrics) {
-        super(backendConfig.getQuarterdeck().getHost() + VERSION_PATH + PATH, GuildData.class, quarterdeckRestTemplate,
-                cacheMetrics, RestGuildDataService.class.getSimpleName());
+        super(backendConfig, PATH, GuildData.class, quarterdeckRestTemplate,
+                executor, cacheMetrics, RestGuildDataService.class.getSimpleName());
+    }
+
+    @Nullable
+    @Override
+    protected Long parseId(String id) {
+        return parseLongId(id);
     }
 
     @Override
@@ -56,6 +64,6 @@ public class RestGuildDataService extends CachedRestService<Long, GuildData> imp
 
     @Override
     public GuildData transformGuildData(Guild guild, Function<GuildData, GuildData> transformation) {
-        return fetchUserFriendly(() -> merge(transformation.apply(fetchGuildData(guild))));
+        return fetchUserFriendly(() -> transform(guild.getId(), transformation));
     }
 }
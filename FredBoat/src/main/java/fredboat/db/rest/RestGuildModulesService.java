@@ -31,10 +31,14 @@ import fredboat.sentinel.Guild;
 import io.prometheus.client.guava.cache.CacheMetricsCollector;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
+import reactor.core.publisher.Mono;
 
+import javax.annotation.Nullable;
+import java.util.concurrent.ExecutorService;
 import java.util.function.Function;
 
 import static fredboat.db.FriendlyEntityService.fetchUserFriendly;
+import static fredboat.db.FriendlyEntityService.fetchUserFriendlyMono;
 
 /**
  * Created by napster on 17.02.18.
@@ -44,10 +48,16 @@ public class RestGuildModulesService extends CachedRestService<Long, GuildModule
 
     public static final String PATH = "guildmodules/";
 
-    public RestGuildModulesService(BackendConfig backendConfig, RestTemplate quarterdeckRestTemplate,
+    public RestGuildModulesService(BackendConfig backendConfig, RestTemplate quarterdeckRestTemplate, ExecutorService executor,
                                    CacheMetricsCollector cacheMetrics) {
-        super(backendConfig.getQuarterdeck().getHost() + VERSION_PATH + PATH, GuildModules.class,
-                quarterdeckRestTemplate, cacheMetrics, RestGuildModulesService.class.getSimpleName());
+        super(backendConfig, PATH, GuildModules.class,
+                quarterdeckRestTemplate, executor, cacheMetrics, RestGuildModulesService.class.getSimpleName());
+    }
+
+    @Nullable
+    @Override
+    protected Long parseId(String id) {
+        return parseLongId(id);
     }
 
     @Override
@@ -55,8 +65,13 @@ public class RestGuildModulesService extends CachedRestService<Long, GuildModule
         return fetchUserFriendly(() -> fetch(guild.getId()));
     }
 
+    @Override
+    public Mono<GuildModules> fetchGuildModulesMono(Guild guild) {
+        return fetchUserFriendlyMono(() -> fetchAsync(guild.getId()));
+    }
+
     @Override
     public GuildModules transformGuildModules(Guild guild, Function<GuildModules, GuildModules> transformation) {
-        return fetchUserFriendly(() -> merge(transformation.apply(fetchGuildModules(guild))));
+        return fetchUserFriendly(() -> transform(guild.getId(), transformation));
     }
 }
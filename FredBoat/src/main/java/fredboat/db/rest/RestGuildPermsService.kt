@@ -24,14 +24,19 @@
 
 package fredboat.db.rest
 
+import com.google.common.cache.CacheBuilder
 import fredboat.config.property.BackendConfig
 import fredboat.db.FriendlyEntityService.fetchUserFriendly
+import fredboat.db.FriendlyEntityService.fetchUserFriendlyMono
 import fredboat.db.api.GuildPermsService
 import fredboat.db.transfer.GuildPermissions
+import fredboat.perms.CompiledPermissions
 import fredboat.sentinel.Guild
 import io.prometheus.client.guava.cache.CacheMetricsCollector
 import org.springframework.stereotype.Component
 import org.springframework.web.client.RestTemplate
+import reactor.core.publisher.Mono
+import java.util.concurrent.ExecutorService
 import java.util.function.Function
 
 /**
@@ -39,17 +44,41 @@ import java.util.function.Function
  */
 @Component
 class RestGuildPermsService(backendConfig: BackendConfig, quarterdeckRestTemplate: RestTemplate,
-                            cacheMetrics: CacheMetricsCollector) : CachedRestService<String, GuildPermissions>(backendConfig.quarterdeck.host + RestService.VERSION_PATH + PATH, GuildPermissions::class.java, quarterdeckRestTemplate, cacheMetrics, RestGuildPermsService::class.java.simpleName), GuildPermsService {
+                            executor: ExecutorService,
+                            cacheMetrics: CacheMetricsCollector) : CachedRestService<String, GuildPermissions>(backendConfig, PATH, GuildPermissions::class.java, quarterdeckRestTemplate, executor, cacheMetrics, RestGuildPermsService::class.java.simpleName), GuildPermsService {
 
     companion object {
         const val PATH = "guildperms/"
     }
 
+    override fun parseId(id: String) = id
+
+    //keyed by identity of the cached entities, so a refreshed entity gets compiled again
+    private val compiled = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build<GuildPermissions, CompiledPermissions>()
+
     override fun fetchGuildPermissions(guild: Guild): GuildPermissions {
         return fetchUserFriendly { fetch(guild.id.toString()) }
     }
 
+    override fun fetchGuildPermissionsMono(guild: Guild): Mono<GuildPermissions> {
+        return fetchUserFriendlyMono { fetchAsync(guild.id.toString()) }
+    }
+
+    override fun fetchCompiledPermissionsMono(guild: Guild): Mono<CompiledPermissions> {
+        return fetchCompiledPermissionsMono(guild.id)
+    }
+
+    fun fetchCompiledPermissionsMono(guildId: Long): Mono<CompiledPermissions> {
+        return fetchUserFriendlyMono { fetchAsync(guildId.toString()) }
+                .map { compiled.get(it) { CompiledPermissions(it) } }
+    }
+
     override fun transformGuildPerms(guild: Guild, transformation: Function<GuildPermissions, GuildPermissions>): GuildPermissions {
-        return fetchUserFriendly { merge(transformation.apply(fetchGuildPermissions(guild))) }
+        val transformed = fetchUserFriendly { transform(guild.id.toString(), transformation) }
+        //transformations may change the entity in place
+        compiled.invalidate(transformed)
+        return transformed
     }
 }
@@ -36,6 +36,7 @@ import org.springframework.stereotype.Component
 import org.springframework.web.client.RestClientException
 import org.springframework.web.client.RestTemplate
 import java.util.*
+import java.util.concurrent.ExecutorService
 import java.util.function.Function
 
 
@@ -48,11 +49,14 @@ class RestPrefixService(
         private val selfUser: RawUser,
         backendConfig: BackendConfig,
         quarterdeckRestTemplate: RestTemplate,
+        executor: ExecutorService,
         cacheMetrics: CacheMetricsCollector
 ) : CachedRestService<Prefix.GuildBotId, Prefix>(
-        backendConfig.quarterdeck.host + RestService.VERSION_PATH + PATH,
+        backendConfig,
+        PATH,
         Prefix::class.java,
         quarterdeckRestTemplate,
+        executor,
         cacheMetrics,
         RestPrefixService::class.java.simpleName
 ), PrefixService {
@@ -61,6 +65,9 @@ class RestPrefixService(
         const val PATH = "prefix/"
     }
 
+    //change events of prefixes carry the id of the guild
+    override fun parseId(id: String) = id.toLongOrNull()?.let { Prefix.GuildBotId(it, selfUser.id) }
+
     override fun transformPrefix(guild: Guild, transformation: Function<Prefix, Prefix>): Prefix {
         val prefix = fetchUserFriendly { fetch(Prefix.GuildBotId(guild, selfUser.id)) }
         return fetchUserFriendly { merge(transformation.apply(prefix)) }
@@ -31,7 +31,9 @@ import io.prometheus.client.guava.cache.CacheMetricsCollector;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
 
+import javax.annotation.Nullable;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Created by napster on 17.02.18.
@@ -41,10 +43,17 @@ public class RestSearchResultService extends CachedRestService<SearchResult.Sear
 
     public static final String PATH = "searchresult/";
 
-    public RestSearchResultService(BackendConfig backendConfig, RestTemplate quarterdeckRestTemplate,
+    public RestSearchResultService(BackendConfig backendConfig, RestTemplate quarterdeckRestTemplate, ExecutorService executor,
                                    CacheMetricsCollector cacheMetrics) {
-        super(backendConfig.getQuarterdeck().getHost() + VERSION_PATH + PATH, SearchResult.class,
-                quarterdeckRestTemplate, cacheMetrics, RestSearchResultService.class.getSimpleName());
+        super(backendConfig, PATH, SearchResult.class,
+                quarterdeckRestTemplate, executor, cacheMetrics, RestSearchResultService.class.getSimpleName());
+    }
+
+    //search results are only ever added, they do not change
+    @Nullable
+    @Override
+    protected SearchResult.SearchResultId parseId(String id) {
+        return null;
     }
 
     /**
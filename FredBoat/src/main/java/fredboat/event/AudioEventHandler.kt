@@ -4,7 +4,6 @@ import com.fredboat.sentinel.entities.VoiceServerUpdate
 import fredboat.audio.lavalink.SentinelLavalink
 import fredboat.audio.player.PlayerRegistry
 import fredboat.config.property.AppConfig
-import fredboat.db.api.GuildConfigService
 import fredboat.feature.I18n
 import fredboat.sentinel.Member
 import fredboat.sentinel.VoiceChannel
@@ -14,18 +13,19 @@ import org.springframework.stereotype.Component
 class AudioEventHandler(
         private val appConfig: AppConfig,
         private val playerRegistry: PlayerRegistry,
-        private val lavalink: SentinelLavalink,
-        private val guildConfigService: GuildConfigService
+        private val lavalink: SentinelLavalink
 ) : SentinelEventHandler() {
 
     override fun onVoiceJoin(channel: VoiceChannel, member: Member) {
         checkForAutoResume(channel, member)
+        updateListeners(channel)
         if (!member.isUs) return
         getLink(channel).setChannel(channel.id.toString())
     }
 
     override fun onVoiceLeave(channel: VoiceChannel, member: Member) {
         checkForAutoPause(channel)
+        updateListeners(channel)
         if (!member.isUs) return
         getLink(channel).onDisconnected()
     }
@@ -33,6 +33,7 @@ class AudioEventHandler(
     override fun onVoiceMove(oldChannel: VoiceChannel, newChannel: VoiceChannel, member: Member) {
         checkForAutoResume(newChannel, member)
         checkForAutoPause(oldChannel)
+        updateListeners(newChannel)
         if (!member.isUs) return
         getLink(newChannel).setChannel(newChannel.id.toString())
     }
@@ -42,6 +43,11 @@ class AudioEventHandler(
 
     private fun getLink(channel: VoiceChannel) = lavalink.getLink(channel.guild.idString)
 
+    // The humans in the channel of a player count as its listeners
+    private fun updateListeners(channel: VoiceChannel) {
+        playerRegistry.getExisting(channel.guild)?.updateCounts()
+    }
+
     private fun checkForAutoPause(channelLeft: VoiceChannel) {
         if (appConfig.continuePlayback) return
 
@@ -71,7 +77,7 @@ class AudioEventHandler(
                 && player.playingTrack != null
                 && joinedChannel.members.contains(guild.selfMember)
                 && player.humanUsersInCurrentVC.isNotEmpty()
-                && guildConfigService.fetchGuildConfig(guild.id).isAutoResume) {
+                && player.settings?.isAutoResume == true) {
             player.setPause(false)
             player.activeTextChannel?.send(I18n.get(guild).getString("eventAutoResumed"))?.subscribe()
         }
@@ -2,6 +2,7 @@ package fredboat.event
 
 import fredboat.audio.player.PlayerRegistry
 import fredboat.command.info.HelloCommand
+import fredboat.commandmeta.CommandSupervisor
 import fredboat.db.api.GuildDataService
 import fredboat.feature.metrics.Metrics
 import fredboat.sentinel.Guild
@@ -14,7 +15,8 @@ import java.time.Instant
 @Component
 class GuildEventHandler(
         private val guildDataService: GuildDataService,
-        private val playerRegistry: PlayerRegistry
+        private val playerRegistry: PlayerRegistry,
+        private val commandSupervisor: CommandSupervisor
 ) : SentinelEventHandler() {
     override fun onGuildJoin(guild: Guild) {
         // Wait a few seconds to allow permissions to be set and applied and propagated
@@ -27,6 +29,8 @@ class GuildEventHandler(
 
     override fun onGuildLeave(guildId: Long, joinTime: Instant) {
         playerRegistry.destroyPlayer(guildId)
+        playerRegistry.deleteHistory(guildId)
+        commandSupervisor.cancel(guildId)
 
         val lifespan = Instant.now().epochSecond - joinTime.epochSecond
         Metrics.guildLifespan.observe(lifespan.toDouble())
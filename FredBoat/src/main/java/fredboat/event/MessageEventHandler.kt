@@ -27,41 +27,54 @@ package fredboat.event
 
 import com.fredboat.sentinel.entities.MessageReceivedEvent
 import com.google.common.cache.CacheBuilder
+import fredboat.command.config.PrefixCommand
 import fredboat.command.info.HelpCommand
 import fredboat.command.info.ShardsCommand
 import fredboat.command.info.StatsCommand
 import fredboat.commandmeta.CommandContextParser
 import fredboat.commandmeta.CommandInitializer
 import fredboat.commandmeta.CommandManager
+import fredboat.commandmeta.CommandSupervisor
 import fredboat.commandmeta.abs.CommandContext
+import fredboat.config.ExecutorConfiguration
 import fredboat.config.property.AppConfigProperties
 import fredboat.definitions.PermissionLevel
+import fredboat.feature.I18n
 import fredboat.feature.metrics.Metrics
 import fredboat.perms.Permission.MESSAGE_READ
 import fredboat.perms.Permission.MESSAGE_WRITE
 import fredboat.perms.PermissionSet
 import fredboat.perms.PermsUtil
+import fredboat.sentinel.GuildCache
 import fredboat.sentinel.InternalGuild
 import fredboat.sentinel.Sentinel
 import fredboat.sentinel.User
 import fredboat.sentinel.getGuild
 import fredboat.util.ratelimit.Ratelimiter
 import io.prometheus.client.guava.cache.CacheMetricsCollector
+import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.GlobalScope
 import kotlinx.coroutines.launch
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
+import org.springframework.beans.factory.annotation.Qualifier
 import org.springframework.stereotype.Component
+import java.util.concurrent.ExecutorService
 import java.util.concurrent.TimeUnit
 
 @Component
 class MessageEventHandler(
         private val sentinel: Sentinel,
+        private val guildCache: GuildCache,
         private val ratelimiter: Ratelimiter,
         private val commandContextParser: CommandContextParser,
         private val commandManager: CommandManager,
         private val appConfig: AppConfigProperties,
-        cacheMetrics: CacheMetricsCollector
+        cacheMetrics: CacheMetricsCollector,
+        private val executor: ExecutorService,
+        private val commandSupervisor: CommandSupervisor,
+        @param:Qualifier("cpuExecutor") private val cpuExecutor: ExecutorService,
+        @param:Qualifier("cpuDispatcher") private val cpuDispatcher: CoroutineDispatcher
 ) : SentinelEventHandler() {
 
     companion object {
@@ -93,11 +106,17 @@ class MessageEventHandler(
         if (permissions hasNot (MESSAGE_READ + MESSAGE_WRITE)
                 && !event.content.contains(CommandInitializer.HELP_COMM_NAME)) return
 
-        GlobalScope.launch {
+        //a coroutine dispatched to a full pool would run on kotlinx' default executor thread instead
+        if (ExecutorConfiguration.isBusy(executor)) {
+            if (permissions has (MESSAGE_READ + MESSAGE_WRITE)) replyBusy(event)
+            return
+        }
+
+        commandSupervisor.launch(event.guild) {
             val context = commandContextParser.parse(event) ?: return@launch
 
             // Renew the time to prevent invalidation
-            (context.guild as InternalGuild).lastUsed = System.currentTimeMillis()
+            guildCache.touch(context.guild as InternalGuild)
             log.info(event.content)
 
             //ignore all commands in channels where we can't write, except for the help command
@@ -114,7 +133,7 @@ class MessageEventHandler(
             val module = context.command.module
             if (module != null
                     && !context.enabledModules.contains(module)
-                    && !PermsUtil.checkPerms(PermissionLevel.BOT_ADMIN, context.member)) {
+                    && !PermsUtil.checkPerms(PermissionLevel.BOT_ADMIN, context)) {
                 log.debug("Ignoring command {} because its module {} is disabled",
                         context.command.name, module.name)
                 return@launch
@@ -124,6 +143,21 @@ class MessageEventHandler(
         }
     }
 
+    //the guild's settings are not loaded while busy, so anything that starts with a known prefix is taken for a command,
+    // and answered in the default language
+    private fun replyBusy(event: MessageReceivedEvent) {
+        val content = event.content
+        val selfId = sentinel.selfUser.id
+        val prefix = PrefixCommand.CUSTOM_PREFIXES.getIfPresent(event.guild)?.orElse(null) ?: appConfig.prefix
+        if (!content.startsWith("<@$selfId>") && !content.startsWith("<@!$selfId>")
+                && (prefix.isEmpty() || !content.startsWith(prefix))) return
+
+        Metrics.commandsRejected.labels("unparsed").inc()
+        getGuild(event.guild) { guild ->
+            guild.getTextChannel(event.channel)?.send(I18n.DEFAULT.props.getString("busy"))?.subscribe()
+        }
+    }
+
     /**
      * Check the rate limit of the user and execute the command if everything is fine.
      * @param context Command context of the command to be invoked.
@@ -133,8 +167,16 @@ class MessageEventHandler(
             return
         }
 
-        Metrics.executionTime.labels(context.command.javaClass.simpleName).startTimer().use {
-            commandManager.prefixCalled(context)
+        if (ExecutorConfiguration.isBusy(executor)) {
+            Metrics.commandsRejected.labels(context.command.javaClass.simpleName).inc()
+            context.reply(context.i18n("busy"))
+            return
+        }
+
+        commandSupervisor.execute(context) {
+            Metrics.executionTime.labels(context.command.javaClass.simpleName).startTimer().use {
+                commandManager.prefixCalled(context)
+            }
         }
         //NOTE: Some commands, like ;;mal, run async and will not reflect the real performance of FredBoat
         // their performance should be judged by the totalResponseTime metric instead
@@ -157,15 +199,19 @@ class MessageEventHandler(
 
             //hack in / hardcode some commands; this is not meant to look clean
             val lowered = content.toLowerCase()
+            if ((lowered.contains("shard") || lowered.contains("stats")) && ExecutorConfiguration.isBusy(cpuExecutor)) {
+                author.sendPrivate(I18n.DEFAULT.props.getString("busy")).subscribe()
+                return
+            }
             if (lowered.contains("shard")) {
-                GlobalScope.launch {
+                GlobalScope.launch(cpuDispatcher) {
                     for (message in ShardsCommand.getShardStatus(author.sentinel, content)) {
                         author.sendPrivate(message).subscribe()
                     }
                 }
                 return
             } else if (lowered.contains("stats")) {
-                GlobalScope.launch {
+                GlobalScope.launch(cpuDispatcher) {
                     author.sendPrivate(StatsCommand.getStats(null)).subscribe()
                 }
                 return
@@ -30,21 +30,26 @@ import com.fredboat.sentinel.entities.Shard
 import com.fredboat.sentinel.entities.ShardLifecycleEvent
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager
 import com.sedmelluq.discord.lavaplayer.tools.io.MessageInput
-import com.sedmelluq.discord.lavaplayer.tools.io.MessageOutput
-import com.sedmelluq.discord.lavaplayer.track.AudioTrack
+import fredboat.audio.persistence.PlayerSnapshot
+import fredboat.audio.persistence.PlayerSnapshotCodec
+import fredboat.audio.persistence.PlayerSnapshotStore
+import fredboat.audio.persistence.TrackRecord
+import fredboat.audio.player.GuildPlayer
 import fredboat.audio.player.MusicTextChannelProvider
 import fredboat.audio.player.PlayerRegistry
-import fredboat.audio.queue.AudioTrackContext
-import fredboat.audio.queue.SplitAudioTrackContext
 import fredboat.config.property.AppConfig
 import fredboat.config.property.Credentials
 import fredboat.definitions.RepeatMode
 import fredboat.feature.I18n
+import fredboat.feature.metrics.collectors.ThreadPoolCollector
+import fredboat.sentinel.Guild
 import fredboat.sentinel.getGuild
 import fredboat.shared.constant.DistributionEnum
 import fredboat.shared.constant.ExitCodes
-import kotlinx.coroutines.GlobalScope
-import kotlinx.coroutines.launch
+import fredboat.util.DiscordUtil
+import kotlinx.coroutines.*
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import org.apache.commons.codec.binary.Base64
 import org.apache.commons.io.FileUtils
 import org.json.JSONObject
@@ -53,28 +58,80 @@ import org.springframework.beans.factory.annotation.Qualifier
 import org.springframework.stereotype.Component
 import reactor.core.publisher.Mono
 import java.io.ByteArrayInputStream
-import java.io.ByteArrayOutputStream
 import java.io.File
+import java.io.FileInputStream
 import java.io.IOException
 import java.nio.charset.Charset
 import java.text.MessageFormat
 import java.time.Duration
-import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
 import java.util.function.BiConsumer
 
+/**
+ * Persists the players to disk, so that they can be restored after a restart.
+ *
+ * All players are persisted on shutdown. Players that changed are also checkpointed in between, see [checkpoint], so
+ * that the queues survive a crash as well. Whatever is in the persistence directory on startup is restored when the
+ * shards first get ready, regardless of whether it was written by a checkpoint or on shutdown.
+ *
+ * The snapshots are indexed by the shard of their guild on startup, so each shard only reads the snapshots of its own
+ * guilds. They are restored in parallel on a bounded pool. Only the playing track of each player is decoded right away,
+ * the rest of its queue is restored in encoded form and decoded once it gets played.
+ */
 @Component
 class MusicPersistenceHandler(private val playerRegistry: PlayerRegistry, private val credentials: Credentials,
                               private val musicTextChannelProvider: MusicTextChannelProvider,
                               @param:Qualifier("loadAudioPlayerManager") private val audioPlayerManager: AudioPlayerManager,
-                              private val appConfig: AppConfig, private val allPlayerManagers: Set<AudioPlayerManager>
+                              private val appConfig: AppConfig, private val allPlayerManagers: Set<AudioPlayerManager>,
+                              threadPoolCollector: ThreadPoolCollector
 ) : SentinelEventHandler() {
 
     companion object {
         private val log = LoggerFactory.getLogger(MusicPersistenceHandler::class.java)
+        private val RELOAD_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors())
+        //more players than threads are restored at once, so that looking up their guilds overlaps with decoding
+        private val RELOAD_WORKERS = RELOAD_THREADS * 2
+        //voice state updates count towards the gateway ratelimit of 120 events per minute of each shard
+        private const val VOICE_JOIN_INTERVAL_MILLIS = 600L
+    }
+
+    private val store = PlayerSnapshotStore(File("music_persistence"))
+    //the state of each player when it was last checkpointed, by guild id
+    private val checkpoints = ConcurrentHashMap<Long, List<Any?>>()
+    @Volatile
+    private var isShuttingDown = false
+
+    //the current implementation of music persistence is not a good idea on big bots
+    private val isReloadEnabled: Boolean
+        get() = appConfig.shardCount <= 10 && appConfig.distribution != DistributionEnum.MUSIC
+
+    private val reloadDispatcher: CoroutineDispatcher
+    //the snapshots that were there on startup, by shard id
+    private val pendingByShard = ConcurrentHashMap<Int, List<File>>()
+    //guilds with a snapshot that is not restored yet. Their players are not persisted, that would overwrite the snapshot
+    private val pendingGuilds: MutableSet<Long> = ConcurrentHashMap.newKeySet()
+
+    init {
+        val reloadPool = Executors.newFixedThreadPool(RELOAD_THREADS) { r ->
+            Thread(r, "persistence-reload-worker").apply { isDaemon = true }
+        }
+        threadPoolCollector.addPool("persistence-reload", reloadPool as ThreadPoolExecutor)
+        reloadDispatcher = reloadPool.asCoroutineDispatcher()
+
+        if (isReloadEnabled) {
+            pendingByShard.putAll(store.list().groupBy { DiscordUtil.getShardId(it.name.toLong(), appConfig) })
+            pendingByShard.values.forEach { files -> files.forEach { pendingGuilds.add(it.name.toLong()) } }
+            log.info("Found {} players to reload", pendingGuilds.size)
+        }
     }
 
     //TODO this needs to happen before the shard manager is shut down, inside of a shutdown hook (so shutdown signals are properly processed)
     fun handlePreShutdown(code: Int) {
+        isShuttingDown = true
         if (!appConfig.isMusicDistribution) {
             val announcements = announceAndPersist(code)
 
@@ -96,18 +153,75 @@ class MusicPersistenceHandler(private val playerRegistry: PlayerRegistry, privat
     }
 
     /**
-     * @return a list of futures that will completed as soon as we sent out all announcements to users about the shutdown
+     * Write the players that changed since they were last written, and delete the files of players that are gone or
+     * have nothing left to play. Players are written one by one, so a crash in between loses at most the changes made
+     * since the previous checkpoint.
      */
-    private fun announceAndPersist(code: Int): MutableList<Mono<SendMessageResponse>> {
-        val dir = File("music_persistence")
-        if (!dir.exists()) {
-            val created = dir.mkdir()
-            if (!created) {
-                log.error("Failed to create music persistence directory")
-                return emptyList<Mono<SendMessageResponse>>().toMutableList()
+    @Synchronized
+    fun checkpoint() {
+        if (isShuttingDown || !isReloadEnabled) return
+
+        val present = HashSet<Long>()
+        var written = 0
+        playerRegistry.forEach(BiConsumer { guildId, player ->
+            present.add(guildId)
+            if (guildId in pendingGuilds) return@BiConsumer
+            if (player.isQueueEmpty) {
+                if (checkpoints.remove(guildId) != null) store.delete(guildId)
+                return@BiConsumer
+            }
+
+            val state = stateOf(player)
+            if (checkpoints[guildId] == state) return@BiConsumer
+            try {
+                store.write(snapshotOf(player))
+                checkpoints[guildId] = state
+                written++
+            } catch (e: Exception) {
+                log.error("Failed to checkpoint player of guild {}", guildId, e)
             }
+        })
+
+        checkpoints.keys.filter { it !in present }.forEach { guildId ->
+            checkpoints.remove(guildId)
+            store.delete(guildId)
         }
+        log.debug("Checkpointed {} players", written)
+    }
+
+    //anything that is persisted, except for the position of the playing track which changes all the time
+    private fun stateOf(player: GuildPlayer): List<Any?> = listOf(
+            player.audioTrackProvider.modificationCount,
+            player.playingTrack?.trackId,
+            player.isPaused,
+            player.volume,
+            player.repeatMode,
+            player.isShuffle,
+            player.currentVoiceChannel?.id,
+            player.activeTextChannel?.id
+    )
+
+    private fun snapshotOf(player: GuildPlayer): PlayerSnapshot {
+        val tracks = player.remainingTracks.map { TrackRecord.of(it, audioPlayerManager) }
+
+        return PlayerSnapshot(
+                player.guildId,
+                player.currentVoiceChannel?.id ?: 0,
+                player.activeTextChannel?.id ?: 0,
+                player.isPaused,
+                player.volume,
+                player.repeatMode,
+                player.isShuffle,
+                if (player.playingTrack != null) player.position else null,
+                tracks
+        )
+    }
 
+    /**
+     * @return a list of futures that will completed as soon as we sent out all announcements to users about the shutdown
+     */
+    @Synchronized
+    private fun announceAndPersist(code: Int): MutableList<Mono<SendMessageResponse>> {
         val isUpdate = code == ExitCodes.EXIT_CODE_UPDATE
         val isRestart = code == ExitCodes.EXIT_CODE_RESTART
 
@@ -126,49 +240,8 @@ class MusicPersistenceHandler(private val playerRegistry: PlayerRegistry, privat
                     announcements.add(activeTextChannel.send(msg))
                 }
 
-                val data = JSONObject()
-                val vc = player.currentVoiceChannel
-                data.put("vc", vc?.id ?: 0)
-                data.put("tc", activeTextChannel?.id ?: 0)
-                data.put("isPaused", player.isPaused)
-                data.put("volume", player.volume.toString())
-                data.put("repeatMode", player.repeatMode)
-                data.put("shuffle", player.isShuffle)
-
-                if (player.playingTrack != null) {
-                    data.put("position", player.position)
-                }
-
-                val identifiers = ArrayList<JSONObject>()
-
-                for (atc in player.remainingTracks) {
-                    val baos = ByteArrayOutputStream()
-                    audioPlayerManager.encodeTrack(MessageOutput(baos), atc.track)
-
-                    val ident = JSONObject()
-                            .put("message", Base64.encodeBase64String(baos.toByteArray()))
-                            .put("user", atc.userId)
-
-                    if (atc is SplitAudioTrackContext) {
-                        val split = JSONObject()
-                        split.put("title", atc.effectiveTitle)
-                                .put("startPos", atc.startPosition)
-                                .put("endPos", atc.startPosition + atc.effectiveDuration)
-
-                        ident.put("split", split)
-                    }
-
-                    identifiers.add(ident)
-                }
-
-                data.put("sources", identifiers)
-
                 try {
-                    FileUtils.writeStringToFile(
-                            File(dir, guildId.toString()),
-                            data.toString(),
-                            Charset.forName("UTF-8")
-                    )
+                    if (guildId !in pendingGuilds) store.write(snapshotOf(player))
                 } catch (ex: IOException) {
                     activeTextChannel?.send(MessageFormat.format(
                             I18n.get(player.guild).getString("shutdownPersistenceFail"),
@@ -187,8 +260,7 @@ class MusicPersistenceHandler(private val playerRegistry: PlayerRegistry, privat
     override fun onShardLifecycle(event: ShardLifecycleEvent) {
         if (event.change != LifecycleEventEnum.READIED) return
 
-        //the current implementation of music persistence is not a good idea on big bots
-        if (appConfig.shardCount <= 10 && appConfig.distribution != DistributionEnum.MUSIC) {
+        if (isReloadEnabled) {
             GlobalScope.launch {
                 try {
                     reloadPlaylists(event.shard)
@@ -200,124 +272,156 @@ class MusicPersistenceHandler(private val playerRegistry: PlayerRegistry, privat
     }
 
     private suspend fun reloadPlaylists(shard: Shard) {
-        val dir = File("music_persistence")
-
         if (appConfig.isMusicDistribution) {
             log.warn("Music persistence loading is disabled on the MUSIC distribution! Use PATRON or DEVELOPMENT instead" + "How did this call end up in here anyways?")
             return
         }
 
-        log.info("Began reloading playlists for shard {}", shard)
-        if (!dir.exists()) {
-            log.info("No music persistence directory found.")
+        //taken only once, shards that get ready again later still have their players
+        val files = pendingByShard.remove(shard.id)
+        if (files == null) {
+            log.info("No playlists to reload for shard {}", shard)
             return
         }
-        val files = dir.listFiles()
-        if (files == null || files.isEmpty()) {
-            log.info("No files present in music persistence directory")
-            return
+        log.info("Began reloading {} playlists for shard {}", files.size, shard)
+        val started = System.nanoTime()
+
+        val queue = ConcurrentLinkedQueue(files)
+        val voiceJoins = Mutex()
+        coroutineScope {
+            repeat(Math.min(RELOAD_WORKERS, files.size)) {
+                launch(reloadDispatcher) {
+                    while (true) {
+                        reloadPlaylist(queue.poll() ?: break, voiceJoins)
+                    }
+                }
+            }
         }
+        log.info("Reloaded {} playlists for shard {} in {}ms", files.size, shard,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started))
+    }
 
-        for (file in files) {
+    private suspend fun reloadPlaylist(file: File, voiceJoins: Mutex) {
+        val guildId = file.name.toLong()
+        try {
             try {
-                val guild = getGuild(file.name.toLong()) ?: continue
+                val guild = getGuild(guildId) ?: return
+                if (!guild.selfPresent) return
 
-                if (guild.shardId != shard.id || !guild.selfPresent) continue
+                restore(guild, readSnapshot(guildId, file), voiceJoins)
+            } catch (ex: Exception) {
+                log.error("Error when loading persistence file", ex)
+            }
 
-                val data = JSONObject(FileUtils.readFileToString(file, Charset.forName("UTF-8")))
+            //the restored player is checkpointed again from scratch
+            checkpoints.remove(guildId)
+            val deleted = store.delete(guildId)
+            log.info(if (deleted) "Deleted persistence file: $file" else "Failed to delete persistence file: $file")
+        } finally {
+            pendingGuilds.remove(guildId)
+        }
+    }
 
-                val isPaused = data.getBoolean("isPaused")
-                val sources = data.getJSONArray("sources")
-                val vc = guild.getVoiceChannel(data.getLong("vc"))
-                val tc = guild.getTextChannel(data.getLong("tc"))
-                val volume = data.getString("volume").toFloat()
-                val repeatMode = data.getEnum(RepeatMode::class.java, "repeatMode")
-                val shuffle = data.getBoolean("shuffle")
+    private fun readSnapshot(guildId: Long, file: File): PlayerSnapshot {
+        val header = ByteArray(4)
+        val read = FileInputStream(file).use { it.read(header) }
+        if (read == header.size && PlayerSnapshotCodec.isSnapshot(header)) {
+            return completed(store.read(file))
+        }
 
-                val player = playerRegistry.getOrCreate(guild)
+        //persisted by an older version, which did not keep what is needed to display the tracks
+        val data = JSONObject(FileUtils.readFileToString(file, Charset.forName("UTF-8")))
+        val tracks = data.getJSONArray("sources").mapNotNull { t ->
+            val json = t as JSONObject
+            val message = Base64.decodeBase64(json.getString("message"))
+            val info = audioPlayerManager.decodeTrack(MessageInput(ByteArrayInputStream(message)))?.decodedTrack?.info
+            if (info == null) {
+                log.error("Loaded track that was null! Skipping...")
+                return@mapNotNull null
+            }
+            val split = json.optJSONObject("split")?.let {
+                TrackRecord.Split(it.getString("title"), it.getLong("startPos"), it.getLong("endPos"))
+            }
+            TrackRecord(message, json.getLong("user"), info.title, info.author, info.length, info.isStream,
+                    info.identifier, info.uri, split)
+        }
+        return PlayerSnapshot(
+                guildId,
+                data.getLong("vc"),
+                data.getLong("tc"),
+                data.getBoolean("isPaused"),
+                data.getString("volume").toFloat(),
+                data.getEnum(RepeatMode::class.java, "repeatMode"),
+                data.getBoolean("shuffle"),
+                if (data.has("position")) data.getLong("position") else null,
+                tracks
+        )
+    }
 
-                if (tc != null) {
-                    musicTextChannelProvider.setMusicChannel(tc)
-                }
-                if (appConfig.distribution.volumeSupported()) {
-                    player.volume = volume
-                }
-                player.repeatMode = repeatMode
-                player.isShuffle = shuffle
-
-                val isFirst = booleanArrayOf(true)
-
-                val tracks = ArrayList<AudioTrackContext>()
-                sources.forEach { t: Any ->
-                    val json = t as JSONObject
-                    val message = Base64.decodeBase64(json.getString("message"))
-                    val member = guild.getMember(json.getLong("user")) ?: guild.selfMember
-                    //The member may have left the guild meanwhile, so we may set ourselves as the one who added the song
-
-                    val at: AudioTrack?
-                    try {
-                        val bais = ByteArrayInputStream(message)
-                        at = audioPlayerManager.decodeTrack(MessageInput(bais)).decodedTrack
-                    } catch (e: IOException) {
-                        throw RuntimeException(e)
-                    }
+    //snapshots of older versions lack the info of their tracks, which is taken from the decoded tracks once
+    private fun completed(snapshot: PlayerSnapshot): PlayerSnapshot {
+        if (snapshot.tracks.all { it.identifier != null }) return snapshot
+        val tracks = snapshot.tracks.map { record ->
+            if (record.identifier != null) return@map record
+            val info = try {
+                audioPlayerManager.decodeTrack(MessageInput(ByteArrayInputStream(record.message)))?.decodedTrack?.info
+            } catch (e: Exception) {
+                null
+            }
+            //left incomplete if it can not be decoded, the player skips it once it comes up
+            info?.let { record.complete(it) } ?: record
+        }
+        return PlayerSnapshot(snapshot.guildId, snapshot.voiceChannelId, snapshot.textChannelId, snapshot.isPaused,
+                snapshot.volume, snapshot.repeatMode, snapshot.isShuffle, snapshot.position, tracks)
+    }
 
-                    if (at == null) {
-                        log.error("Loaded track that was null! Skipping...")
-                        return@forEach
-                    }
+    /**
+     * @param voiceJoins held while joining a voice channel of the shard, to pace the joins
+     */
+    private fun restore(guild: Guild, snapshot: PlayerSnapshot, voiceJoins: Mutex) {
+        val vc = guild.getVoiceChannel(snapshot.voiceChannelId)
+        val tc = guild.getTextChannel(snapshot.textChannelId)
 
-                    // Handle split tracks
-                    val atc: AudioTrackContext
-                    val split = json.optJSONObject("split")
-                    if (split != null) {
-                        atc = SplitAudioTrackContext(at, member,
-                                split.getLong("startPos"),
-                                split.getLong("endPos"),
-                                split.getString("title")
-                        )
-                        at.position = split.getLong("startPos")
-
-                        if (isFirst[0]) {
-                            isFirst[0] = false
-                            if (data.has("position")) {
-                                at.position = split.getLong("startPos") + data.getLong("position")
-                            }
-                        }
-                    } else {
-                        atc = AudioTrackContext(at, member)
-
-                        if (isFirst[0]) {
-                            isFirst[0] = false
-                            if (data.has("position")) {
-                                at.position = data.getLong("position")
-                            }
-                        }
-                    }
+        val player = playerRegistry.getOrCreate(guild)
 
-                    tracks.add(atc)
-                }
+        if (tc != null) {
+            musicTextChannelProvider.setMusicChannel(tc)
+        }
+        if (appConfig.distribution.volumeSupported()) {
+            player.volume = snapshot.volume
+        }
+        player.repeatMode = snapshot.repeatMode
+        player.isShuffle = snapshot.isShuffle
+
+        val tracks = snapshot.tracks.mapTo(ArrayList()) { record ->
+            //The member may have left the guild meanwhile, so we may set ourselves as the one who added the song
+            record.toEntry(guild.getMember(record.userId) ?: guild.selfMember, audioPlayerManager)
+        }
+        //the playing track is decoded right away, to resume it where it was
+        while (tracks.isNotEmpty() && !tracks[0].decode()) {
+            tracks.removeAt(0)
+        }
+        val first = tracks.firstOrNull()
+        if (first != null && snapshot.position != null) {
+            first.track.position = first.startPosition + snapshot.position
+        }
 
-                player.loadAll(tracks)
-                if (!isPaused) {
-                    if (vc != null) {
-                        GlobalScope.launch {
-                            try {
-                                player.joinChannel(vc)
-                                player.play()
-                            } catch (ignored: Exception) {
-                            }
+        player.loadAll(tracks)
+        if (!snapshot.isPaused) {
+            if (vc != null) {
+                GlobalScope.launch {
+                    voiceJoins.withLock {
+                        try {
+                            player.joinChannel(vc)
+                            player.play()
+                        } catch (ignored: Exception) {
                         }
+                        delay(VOICE_JOIN_INTERVAL_MILLIS)
                     }
-                    tc?.send(MessageFormat.format(I18n.get(guild).getString("reloadSuccess"), sources.length()))
-                            ?.subscribe()
                 }
-            } catch (ex: Exception) {
-                log.error("Error when loading persistence file", ex)
             }
-
-            val deleted = file.delete()
-            log.info(if (deleted) "Deleted persistence file: $file" else "Failed to delete persistence file: $file")
+            tc?.send(MessageFormat.format(I18n.get(guild).getString("reloadSuccess"), snapshot.tracks.size))
+                    ?.subscribe()
         }
     }
 
@@ -0,0 +1,129 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.event
+
+import fredboat.sentinel.Member
+import fredboat.sentinel.RawUser
+import fredboat.sentinel.VoiceChannel
+import fredboat.util.TimingWheel
+import org.springframework.beans.factory.annotation.Qualifier
+import org.springframework.stereotype.Component
+import java.time.Instant
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+
+/**
+ * Keeps count of the humans in the voice channels we are in, from the voice events. Once a channel has no humans left
+ * in it, its guild is scheduled in [emptyChannels], for the [fredboat.agent.VoiceChannelCleanupAgent] to leave it.
+ */
+@Component
+class VoiceChannelTracker(@param:Qualifier("selfUser") private val selfUser: RawUser) : SentinelEventHandler() {
+
+    companion object {
+        /** How long we stay in a voice channel without any humans in it */
+        val EMPTY_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2)
+        /** How often guilds that are due to leave their voice channel are checked */
+        val TICK_MILLIS = TimeUnit.SECONDS.toMillis(5)
+    }
+
+    private class Occupancy(val channelId: Long, val humans: Int)
+
+    //the voice channel we are in and how many humans are in it, by guild
+    private val occupancy = ConcurrentHashMap<Long, Occupancy>()
+
+    /** IDs of guilds whose voice channel has no humans in it, due when we should leave it */
+    val emptyChannels = TimingWheel<Long>(TICK_MILLIS, (EMPTY_TIMEOUT_MILLIS / TICK_MILLIS).toInt() + 1,
+            System::currentTimeMillis)
+
+    /** IDs of the guilds we are in a voice channel of */
+    val guilds: Set<Long>
+        get() = occupancy.keys
+
+    override fun onVoiceJoin(channel: VoiceChannel, member: Member) {
+        when {
+            member.isSelf -> recount(channel)
+            !member.isBot -> count(channel, 1)
+        }
+    }
+
+    override fun onVoiceLeave(channel: VoiceChannel, member: Member) {
+        when {
+            member.isSelf -> forget(channel.guild.id)
+            !member.isBot -> count(channel, -1)
+        }
+    }
+
+    override fun onVoiceMove(oldChannel: VoiceChannel, newChannel: VoiceChannel, member: Member) {
+        when {
+            member.isSelf -> recount(newChannel)
+            !member.isBot -> {
+                count(oldChannel, -1)
+                count(newChannel, 1)
+            }
+        }
+    }
+
+    override fun onGuildLeave(guildId: Long, joinTime: Instant) = forget(guildId)
+
+    /** @return the number of humans in the voice channel we are in, or null if we are not in one of the guild */
+    fun getHumans(guildId: Long): Int? = occupancy[guildId]?.humans
+
+    /** Count the humans in the channel we are in anew, for when we joined it or when the count may be off */
+    fun recount(channel: VoiceChannel) {
+        val humans = channel.members.count { !it.isBot }
+        occupancy.compute(channel.guild.id) { guildId, old ->
+            updateDeadline(guildId, old?.humans, humans)
+            Occupancy(channel.id, humans)
+        }
+    }
+
+    fun forget(guildId: Long) {
+        occupancy.remove(guildId)
+        emptyChannels.cancel(guildId)
+    }
+
+    private fun count(channel: VoiceChannel, delta: Int) {
+        occupancy.computeIfPresent(channel.guild.id) { guildId, old ->
+            if (old.channelId != channel.id) return@computeIfPresent old
+            val humans = Math.max(0, old.humans + delta)
+            updateDeadline(guildId, old.humans, humans)
+            Occupancy(old.channelId, humans)
+        }
+    }
+
+    //the same as Member.isUs, without having to look up the Sentinel of the member
+    private val Member.isSelf: Boolean
+        get() = id == selfUser.id
+
+    //arm the deadline when the channel becomes empty, and disarm it when someone comes back
+    private fun updateDeadline(guildId: Long, before: Int?, after: Int) {
+        if (after == 0 && before != 0) {
+            emptyChannels.schedule(guildId, EMPTY_TIMEOUT_MILLIS)
+        } else if (after > 0 && before == 0) {
+            emptyChannels.cancel(guildId)
+        }
+    }
+}
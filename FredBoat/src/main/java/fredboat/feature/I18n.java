@@ -36,6 +36,7 @@ import javax.annotation.Nullable;
 import java.util.HashMap;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static fredboat.main.LauncherKt.getBotController;
 
@@ -93,6 +94,8 @@ public class I18n {
 
         private final Language language;
         private final ResourceBundle props;
+        //by key, compiled on first use
+        private final ConcurrentHashMap<String, MessageTemplate> templates = new ConcurrentHashMap<>();
 
         FredBoatLocale(Language language) throws MissingResourceException {
             this.language = language;
@@ -107,6 +110,36 @@ public class I18n {
             return language.getCode();
         }
 
+        /**
+         * @return the parsed string of the key, ready to be formatted. Falls back to the string of the default language
+         * if this language has no valid translation of it.
+         * @throws MissingResourceException if the default language has no string of the key either
+         */
+        @Nonnull
+        public MessageTemplate getTemplate(@Nonnull String key) {
+            MessageTemplate template = templates.get(key);
+            if (template == null) {
+                template = templates.computeIfAbsent(key, this::compile);
+            }
+            return template;
+        }
+
+        private MessageTemplate compile(String key) {
+            if (this == DEFAULT) {
+                return MessageTemplate.compile(props.getString(key));
+            }
+            if (!props.containsKey(key)) {
+                log.warn("Missing language entry for key {} in language {}", key, getCode());
+                return DEFAULT.getTemplate(key);
+            }
+            try {
+                return MessageTemplate.compile(props.getString(key));
+            } catch (IllegalArgumentException e) {
+                log.warn("Invalid language entry for key {} in language {}", key, getCode(), e);
+                return DEFAULT.getTemplate(key);
+            }
+        }
+
         public String getNativeName() {
             return language.getNativeName();
         }
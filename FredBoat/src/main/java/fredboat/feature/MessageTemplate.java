@@ -0,0 +1,212 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.feature;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nullable;
+import java.text.DateFormat;
+import java.text.Format;
+import java.text.MessageFormat;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A {@link MessageFormat} pattern that is parsed only once. Formatting gives the same results as
+ * {@link MessageFormat#format(String, Object...)} does.
+ * <p>
+ * Patterns without any placeholders are formatted once, up front. Patterns that only have plain placeholders like
+ * {0} are split into their literal parts, and rendered by appending those and the arguments to a builder. Patterns
+ * with format types or styles, like {0,number,integer}, are left to a copy of a prepared MessageFormat.
+ * <p>
+ * Instances are immutable and safe to share between threads.
+ */
+public final class MessageTemplate {
+
+    //MessageFormat creates a new number format for each number it formats, which is most of the work of formatting
+    // them. Number formats are not thread safe, but can be reused by the same thread.
+    private static final ThreadLocal<Map<Locale, NumberFormat>> NUMBER_FORMATS = ThreadLocal.withInitial(HashMap::new);
+
+    private final String pattern;
+    private final Locale locale;
+    //the formatted pattern, if it has no placeholders
+    @Nullable
+    private final String constant;
+    //for plain placeholders: literal parts, with the placeholder argument indices in between them
+    private final String[] literals;
+    private final int[] arguments;
+    private final int literalLength;
+    //for placeholders with format types or styles. MessageFormat is not thread safe, so it is copied for each use
+    @Nullable
+    private final MessageFormat format;
+
+    private MessageTemplate(String pattern, Locale locale, @Nullable String constant, String[] literals,
+                            int[] arguments, @Nullable MessageFormat format) {
+        this.pattern = pattern;
+        this.locale = locale;
+        this.constant = constant;
+        this.literals = literals;
+        this.arguments = arguments;
+        this.format = format;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    @CheckReturnValue
+    public static MessageTemplate compile(String pattern) {
+        MessageFormat format = new MessageFormat(pattern);
+        Locale locale = format.getLocale();
+        Format[] formats = format.getFormats();
+        if (formats.length == 0) {
+            return new MessageTemplate(pattern, locale, format.format(new Object[0]), new String[0], new int[0], null);
+        }
+        for (Format subformat : formats) {
+            if (subformat != null) {
+                return new MessageTemplate(pattern, locale, null, new String[0], new int[0], format);
+            }
+        }
+
+        //same rules as MessageFormat#applyPattern: two single quotes are one literal single quote, text in between
+        // single quotes is taken literally, and anything else in between curly braces is a placeholder
+        List<String> literals = new ArrayList<>();
+        List<Integer> arguments = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        StringBuilder argument = null;
+        boolean inQuote = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char ch = pattern.charAt(i);
+            StringBuilder part = argument != null ? argument : literal;
+            if (ch == '\'') {
+                if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '\'') {
+                    part.append(ch);
+                    i++;
+                } else {
+                    inQuote = !inQuote;
+                }
+            } else if (inQuote) {
+                part.append(ch);
+            } else if (argument == null) {
+                if (ch == '{') {
+                    literals.add(literal.toString());
+                    literal.setLength(0);
+                    argument = new StringBuilder();
+                } else {
+                    literal.append(ch);
+                }
+            } else if (ch == '}' || ch == ',') {
+                arguments.add(Integer.parseInt(argument.toString()));
+                argument = null;
+                if (ch == ',') {
+                    //an empty format type, nothing of it but the index matters
+                    i = pattern.indexOf('}', i);
+                }
+            } else {
+                argument.append(ch);
+            }
+        }
+        literals.add(literal.toString());
+
+        int[] argumentIndices = new int[arguments.size()];
+        for (int i = 0; i < argumentIndices.length; i++) {
+            argumentIndices[i] = arguments.get(i);
+        }
+        return new MessageTemplate(pattern, locale, null, literals.toArray(new String[0]), argumentIndices, null);
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @throws IllegalArgumentException if an argument does not fit the format type of its placeholder
+     */
+    @CheckReturnValue
+    public String format(Object... args) {
+        if (constant != null) {
+            return constant;
+        }
+        if (format != null) {
+            return ((MessageFormat) format.clone()).format(args);
+        }
+        return formatTo(new StringBuilder(literalLength + 16 * arguments.length), args).toString();
+    }
+
+    /**
+     * Append the formatted pattern to the builder, without creating an intermediate string for it where possible.
+     *
+     * @throws IllegalArgumentException if an argument does not fit the format type of its placeholder
+     */
+    public StringBuilder formatTo(StringBuilder builder, Object... args) {
+        if (constant != null) {
+            return builder.append(constant);
+        }
+        if (format != null) {
+            return builder.append(((MessageFormat) format.clone()).format(args));
+        }
+
+        builder.append(literals[0]);
+        for (int i = 0; i < arguments.length; i++) {
+            appendArgument(builder, arguments[i], args);
+            builder.append(literals[i + 1]);
+        }
+        return builder;
+    }
+
+    //what MessageFormat does for placeholders without a format type
+    private void appendArgument(StringBuilder builder, int index, @Nullable Object[] args) {
+        if (args == null || index >= args.length) {
+            builder.append('{').append(index).append('}');
+            return;
+        }
+        Object arg = args[index];
+        if (arg == null) {
+            builder.append("null");
+        } else if (arg instanceof Number) {
+            builder.append(NUMBER_FORMATS.get().computeIfAbsent(locale, NumberFormat::getInstance).format(arg));
+        } else if (arg instanceof Date) {
+            builder.append(DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT, locale).format(arg));
+        } else if (arg instanceof CharSequence) {
+            builder.append((CharSequence) arg); //no copy for arguments that were built into a StringBuilder
+        } else {
+            builder.append(arg.toString());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
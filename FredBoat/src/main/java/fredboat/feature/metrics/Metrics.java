@@ -32,6 +32,7 @@ import fredboat.feature.metrics.collectors.FredBoatCollector;
 import fredboat.feature.metrics.collectors.ShardStatusCollector;
 import fredboat.feature.metrics.collectors.ThreadPoolCollector;
 import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
 import io.prometheus.client.Histogram;
 import io.prometheus.client.Summary;
 import io.prometheus.client.guava.cache.CacheMetricsCollector;
@@ -110,6 +111,103 @@ public class Metrics {
             .labelNames("class") // use the simple name of the command class
             .register();
 
+    public static final Counter commandsRejected = Counter.build()
+            .name("fredboat_commands_rejected_total")
+            .help("Total commands that were answered as busy because the executor was saturated")
+            .labelNames("class") // use the simple name of the command class
+            .register();
+
+    public static final Gauge commandsQueued = Gauge.build()
+            .name("fredboat_commands_queued_current")
+            .help("Commands waiting for other commands of their guild or user to finish")
+            .register();
+
+    public static final Histogram commandQueueDuration = Histogram.build()
+            .name("fredboat_command_queue_duration_seconds")
+            .help("How long commands waited for other commands of their guild or user to finish")
+            .buckets(0.01, 0.05, 0.1, 0.5, 1, 5, 10, 30, 60)
+            .register();
+
+    public static final Counter commandsQueueFull = Counter.build()
+            .name("fredboat_commands_queue_full_total")
+            .help("Total commands rejected because too many commands of their guild or user were waiting already")
+            .labelNames("scope") // guild or user
+            .register();
+
+    public static final Counter commandsTimedOut = Counter.build()
+            .name("fredboat_commands_timed_out_total")
+            .help("Total commands cancelled for exceeding their deadline")
+            .labelNames("class") // use the simple name of the command class
+            .register();
+
+    public static final Histogram trackTransitionDelay = Histogram.build()
+            .name("fredboat_track_transition_delay_seconds")
+            .help("How long the end of a track waited for earlier track transitions of its player")
+            .buckets(0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5)
+            .register();
+
+    public static final Histogram trackTransitionDuration = Histogram.build()
+            .name("fredboat_track_transition_duration_seconds")
+            .help("How long it took from the end of a track until the next one was started")
+            .buckets(0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10)
+            .register();
+
+    public static final Counter trackEndsDropped = Counter.build()
+            .name("fredboat_track_ends_dropped_total")
+            .help("Track ends that were not handled because too many were waiting in their player already")
+            .register();
+
+    public static final Counter trackLookahead = Counter.build()
+            .name("fredboat_track_lookahead_total")
+            .help("Tracks started, by whether they were decoded ahead of time")
+            .labelNames("result") // hit or miss
+            .register();
+
+    public static final Gauge lavalinkNodePenalty = Gauge.build()
+            .name("fredboat_lavalink_node_penalty")
+            .help("Total penalty of a lavalink node, including the guilds placed on it since it last reported its stats")
+            .labelNames("node") // name of the node
+            .register();
+
+    public static final Counter lavalinkPlacements = Counter.build()
+            .name("fredboat_lavalink_placements_total")
+            .help("Guilds that were placed on a lavalink node because it was the least loaded one")
+            .labelNames("node") // name of the node
+            .register();
+
+    public static final Counter lavalinkMigrations = Counter.build()
+            .name("fredboat_lavalink_migrations_total")
+            .help("Playing guilds that were moved from a lavalink node with a lot more load than another one")
+            .labelNames("from", "to") // names of the nodes
+            .register();
+
+    //agents
+
+    public static final Histogram agentRunDuration = Histogram.build()
+            .name("fredboat_agent_run_duration_seconds")
+            .help("How long runs of an agent took")
+            .buckets(0.01, 0.1, 0.5, 1, 5, 10, 30, 60, 300)
+            .labelNames("agent") // name of the agent
+            .register();
+
+    public static final Gauge agentLastSuccess = Gauge.build()
+            .name("fredboat_agent_last_success_timestamp_seconds")
+            .help("When a run of an agent last succeeded")
+            .labelNames("agent") // name of the agent
+            .register();
+
+    public static final Counter agentOverruns = Counter.build()
+            .name("fredboat_agent_overruns_total")
+            .help("Total runs of an agent that took longer than its interval")
+            .labelNames("agent") // name of the agent
+            .register();
+
+    public static final Counter threadPoolRejections = Counter.build()
+            .name("fredboat_threadpool_rejected_tasks_total")
+            .help("Total tasks rejected by a thread pool because it was saturated")
+            .labelNames("name") // name of the pool
+            .register();
+
 
     //music stuff
 
@@ -234,6 +332,12 @@ public class Metrics {
             .help("Total database exceptions created")
             .register();
 
+    public static final Counter entityWritesDropped = Counter.build()
+            .name("fredboat_entity_writes_dropped_total")
+            .help("Transformed entities that were never written to the backend")
+            .labelNames("entity", "reason") //rejected by the backend, or failing for too long
+            .register();
+
     public static final Histogram guildLifespan = Histogram.build()
             .name("fredboat_guild_lifespan_seconds")
             .help("How long were we part of a guild when leaving it")
@@ -33,10 +33,16 @@ public class MusicPlayerStats {
     private boolean counted = false;
     protected long total;
     protected long playing;
+    protected long paused;
+    protected long queuedTracks;
+    protected long listeners;
 
     void count(PlayerRegistry playerRegistry) {
         total = playerRegistry.totalCount();
         playing = playerRegistry.playingCount();
+        paused = playerRegistry.pausedCount();
+        queuedTracks = playerRegistry.queuedTracksCount();
+        listeners = playerRegistry.listenersCount();
         counted = true;
     }
 
@@ -56,4 +62,19 @@ public class MusicPlayerStats {
     public long getPlaying() {
         return playing;
     }
+
+    //is 0 while uncalculated
+    public long getPaused() {
+        return paused;
+    }
+
+    //is 0 while uncalculated
+    public long getQueuedTracks() {
+        return queuedTracks;
+    }
+
+    //is 0 while uncalculated, humans in the voice channels of playing players
+    public long getListeners() {
+        return listeners;
+    }
 }
@@ -64,6 +64,10 @@ class FredBoatCollector(
                 "Currently playing music players", labelNames)
         mfs.add(playersPlaying)
 
+        val musicPlayerContents = GaugeMetricFamily("fredboat_music_player_contents",
+                "Tracks queued in the music players, and humans listening to the playing ones", labelNames)
+        mfs.add(musicPlayerContents)
+
         val dockerPulls = CounterMetricFamily("fredboat_docker_pulls",
                 "Total fredboat docker image pulls as reported by the docker hub.", labelNames)
         mfs.add(dockerPulls)
@@ -95,6 +99,10 @@ class FredBoatCollector(
         if (musicPlayerStats.isCounted) {
             playersPlaying.addMetric(Arrays.asList("total", "Players"), musicPlayerStats.playing.toDouble()) //entity could be better named "PlayingPlayers", but dont break existing graphs...besides, players will hopefully one day be stateless entities in the database instead of paused objects in the JVM.
             playersPlaying.addMetric(Arrays.asList("total", "TotalPlayers"), musicPlayerStats.total.toDouble())
+            playersPlaying.addMetric(Arrays.asList("total", "PausedPlayers"), musicPlayerStats.paused.toDouble())
+            musicPlayerContents.addMetric(Arrays.asList("total", "QueuedTracks"),
+                    musicPlayerStats.queuedTracks.toDouble())
+            musicPlayerContents.addMetric(Arrays.asList("total", "Listeners"), musicPlayerStats.listeners.toDouble())
         }
 
         //docker stats
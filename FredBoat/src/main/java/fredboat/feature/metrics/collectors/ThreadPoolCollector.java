@@ -93,6 +93,14 @@ public class ThreadPoolCollector extends Collector {
                 "Size of queue of a thread pool (including scheduled tasks)", labelNames);
         mfs.add(queueSize);
 
+        GaugeMetricFamily maxThreads = new GaugeMetricFamily("fredboat_threadpool_max_threads",
+                "Maximum amount of threads of a thread pool", labelNames);
+        mfs.add(maxThreads);
+
+        GaugeMetricFamily queueRemaining = new GaugeMetricFamily("fredboat_threadpool_queue_remaining_capacity_current",
+                "Amount of tasks that can be queued in a thread pool before it rejects them", labelNames);
+        mfs.add(queueRemaining);
+
         CounterMetricFamily completedTasks = new CounterMetricFamily("fredboat_threadpool_completed_tasks_total",
                 "Total completed tasks by a thread pool", labelNames);
         mfs.add(completedTasks);
@@ -104,6 +112,8 @@ public class ThreadPoolCollector extends Collector {
 
             activeThreads.addMetric(labels, pool.getActiveCount());
             queueSize.addMetric(labels, pool.getQueue().size());
+            maxThreads.addMetric(labels, pool.getMaximumPoolSize());
+            queueRemaining.addMetric(labels, pool.getQueue().remainingCapacity());
             completedTasks.addMetric(labels, pool.getCompletedTaskCount()); //guaranteed to always increase, ergo good fit for a counter
         }
 
@@ -44,7 +44,11 @@ class Launcher(
         private val statsAgent: StatsAgent,
         private val invalidationAgent: GuildCacheInvalidationAgent,
         private val voiceChannelCleanupAgent: VoiceChannelCleanupAgent,
-        private val carbonitexAgent: CarbonitexAgent
+        private val carbonitexAgent: CarbonitexAgent,
+        private val blacklistAgent: BlacklistAgent,
+        private val entityWriteAgent: EntityWriteAgent,
+        private val musicPersistenceAgent: MusicPersistenceAgent,
+        private val lavalinkBalanceAgent: LavalinkBalanceAgent
 ) : ApplicationRunner, ApplicationContextAware {
 
     init {
@@ -70,6 +74,10 @@ class Launcher(
 
         FredBoatAgent.start(statsAgent)
         FredBoatAgent.start(invalidationAgent)
+        if (configProvider.appConfig.useAutoBlacklist()) FredBoatAgent.startNow(blacklistAgent)
+        FredBoatAgent.start(entityWriteAgent)
+        FredBoatAgent.start(musicPersistenceAgent)
+        FredBoatAgent.start(lavalinkBalanceAgent)
 
         val carbonKey = configProvider.credentials.carbonKey
         if (configProvider.appConfig.isMusicDistribution && !carbonKey.isEmpty()) FredBoatAgent.start(carbonitexAgent)
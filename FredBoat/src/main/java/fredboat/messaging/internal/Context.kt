@@ -42,7 +42,6 @@ import kotlinx.coroutines.reactive.awaitSingle
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 import reactor.core.publisher.Mono
-import java.text.MessageFormat
 import java.util.*
 import javax.annotation.CheckReturnValue
 
@@ -62,7 +61,7 @@ abstract class Context {
     abstract val user: User
 
     /* Convenience properties */
-    val prefix: String get() = PrefixCommand.giefPrefix(guild)
+    open val prefix: String get() = PrefixCommand.giefPrefix(guild)
     val selfMember: Member get() = guild.selfMember
     val sentinel: Sentinel get() = guild.sentinel
     val routingKey: String get() = guild.routingKey
@@ -71,7 +70,7 @@ abstract class Context {
     //                         Internal context stuff
     // ********************************************************************************
 
-    private var i18n: ResourceBundle? = null
+    private var locale: I18n.FredBoatLocale? = null
 
     // ********************************************************************************
     //                         Convenience reply methods
@@ -201,7 +200,7 @@ abstract class Context {
         return if (getI18n().containsKey(key)) {
             getI18n().getString(key)
         } else {
-            log.warn("Missing language entry for key {} in language {}", key, I18n.getLocale(guild).code)
+            log.warn("Missing language entry for key {} in language {}", key, getLocale().code)
             I18n.DEFAULT.props.getString(key)
         }
     }
@@ -220,29 +219,50 @@ abstract class Context {
                     MessagingException("a stack trace to help find the source"))
         }
         return try {
-            MessageFormat.format(this.i18n(key), *params)
+            getLocale().getTemplate(key).format(*params)
         } catch (e: IllegalArgumentException) {
             log.warn("Failed to format key '{}' for language '{}' with following parameters: {}",
-                    key, getI18n().baseBundleName, params, e)
+                    key, getLocale().code, params, e)
             //fall back to default props
-            MessageFormat.format(I18n.DEFAULT.props.getString(key), *params)
+            I18n.DEFAULT.getTemplate(key).format(*params)
         }
 
     }
 
-    fun getI18n(): ResourceBundle {
-        var result = i18n
+    /**
+     * Append a translated string with applied formatting to the builder.
+     *
+     * @param key Key of the i18n string.
+     * @param params Parameter(s) to be apply into the i18n string.
+     * @return The builder.
+     */
+    fun i18nFormat(builder: StringBuilder, key: String, vararg params: Any): StringBuilder {
+        val length = builder.length
+        return try {
+            getLocale().getTemplate(key).formatTo(builder, *params)
+        } catch (e: IllegalArgumentException) {
+            log.warn("Failed to format key '{}' for language '{}' with following parameters: {}",
+                    key, getLocale().code, params, e)
+            builder.setLength(length)
+            I18n.DEFAULT.getTemplate(key).formatTo(builder, *params)
+        }
+    }
+
+    open fun getLocale(): I18n.FredBoatLocale {
+        var result = locale
         if (result == null) {
-            result = I18n.get(guild)
-            i18n = result
+            result = I18n.getLocale(guild)
+            locale = result
         }
         return result
     }
 
+    fun getI18n(): ResourceBundle = getLocale().props
+
     private fun embedImage(url: String): Embed = embed {
         color = BotConstants.FREDBOAT_COLOR.rgb
         image = url
     }
 
-    suspend fun memberLevel() = PermsUtil.getPerms(member)
+    open suspend fun memberLevel() = PermsUtil.getPerms(member)
 }
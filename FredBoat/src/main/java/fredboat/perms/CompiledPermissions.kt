@@ -0,0 +1,87 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.perms
+
+import fredboat.db.transfer.GuildPermissions
+import fredboat.definitions.PermissionLevel
+import fredboat.sentinel.Member
+import fredboat.sentinel.Role
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * The lists of user and role ids of [GuildPermissions], parsed once into sets. The [PermissionLevel] a member is granted
+ * by them then comes from a few set lookups, and is memoized until the roles of the member change.
+ *
+ * Instances do not follow changes of the [GuildPermissions] they were compiled from, compile a new one instead.
+ */
+class CompiledPermissions(permissions: GuildPermissions) {
+
+    private val admins = parse(permissions.adminList)
+    private val djs = parse(permissions.djList)
+    private val users = parse(permissions.userList)
+
+    //by member id. members get a new list of roles whenever their roles change, which makes it our version of them
+    private val memberLevels = ConcurrentHashMap<Long, Pair<List<Role>, PermissionLevel>>()
+
+    /**
+     * @return the level the lists grant to the member, [PermissionLevel.BASE] if none of them include it
+     */
+    fun getLevel(member: Member): PermissionLevel {
+        val roles = member.roles
+        val memoized = memberLevels[member.id]
+        if (memoized != null && memoized.first === roles) return memoized.second
+
+        val roleIds = LongArray(roles.size) { roles[it].id }
+        val level = getLevel(member.id, member.guild.id, roleIds)
+        memberLevels[member.id] = roles to level
+        return level
+    }
+
+    /**
+     * @param roleIds ids of the roles of the member, not including the public role
+     */
+    fun getLevel(memberId: Long, guildId: Long, roleIds: LongArray): PermissionLevel = when {
+        matches(admins, memberId, guildId, roleIds) -> PermissionLevel.ADMIN
+        matches(djs, memberId, guildId, roleIds) -> PermissionLevel.DJ
+        matches(users, memberId, guildId, roleIds) -> PermissionLevel.USER
+        else -> PermissionLevel.BASE
+    }
+
+    //the id of the public role is the id of the guild
+    private fun matches(ids: LongOpenHashSet, memberId: Long, guildId: Long, roleIds: LongArray): Boolean {
+        if (ids.isEmpty()) return false
+        if (ids.contains(memberId) || ids.contains(guildId)) return true
+        return roleIds.any { ids.contains(it) }
+    }
+
+    private fun parse(list: List<String>): LongOpenHashSet {
+        val ids = LongOpenHashSet(list.size)
+        list.forEach { id -> id.toLongOrNull()?.let { ids.add(it) } }
+        ids.trim()
+        return ids
+    }
+}
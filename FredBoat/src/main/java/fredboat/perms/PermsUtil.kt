@@ -37,21 +37,24 @@ import javax.annotation.CheckReturnValue
  */
 object PermsUtil {
 
-    suspend fun getPerms(member: Member): PermissionLevel = when {
+    /**
+     * @param permissions the compiled permissions of the guild of the member, if they are at hand already
+     */
+    suspend fun getPerms(member: Member, permissions: CompiledPermissions? = null): PermissionLevel = when {
         isBotOwner(member)
         -> PermissionLevel.BOT_OWNER
         isBotAdmin(member)
         -> PermissionLevel.BOT_ADMIN
-        member.hasPermission(Permission.ADMINISTRATOR).awaitSingle()
-        -> PermissionLevel.ADMIN
         else -> {
-            val gp = Launcher.botController.guildPermsService.fetchGuildPermissions(member.guild)
+            val listed = (permissions ?: Launcher.botController.guildPermsService
+                    .fetchCompiledPermissionsMono(member.guild).awaitSingle())
+                    .getLevel(member)
 
-            when {
-                checkList(gp.adminList, member) -> PermissionLevel.ADMIN
-                checkList(gp.djList, member) -> PermissionLevel.DJ
-                checkList(gp.userList, member) -> PermissionLevel.USER
-                else -> PermissionLevel.BASE
+            //no need to ask Sentinel about the Discord permissions of members that are listed as admins anyways
+            if (listed != PermissionLevel.ADMIN && member.hasPermission(Permission.ADMINISTRATOR).awaitSingle()) {
+                PermissionLevel.ADMIN
+            } else {
+                listed
             }
         }
     }
@@ -60,8 +63,16 @@ object PermsUtil {
      * @return True if the provided member has at least the requested PermissionLevel or higher. False if not.
      */
     @CheckReturnValue
-    suspend fun checkPerms(minLevel: PermissionLevel, member: Member): Boolean {
-        return getPerms(member).level >= minLevel.level
+    suspend fun checkPerms(minLevel: PermissionLevel, member: Member, permissions: CompiledPermissions? = null): Boolean {
+        return getPerms(member, permissions).level >= minLevel.level
+    }
+
+    /**
+     * @return True if the invoker has at least the requested PermissionLevel or higher. False if not.
+     */
+    @CheckReturnValue
+    suspend fun checkPerms(minLevel: PermissionLevel, context: CommandContext): Boolean {
+        return checkPerms(minLevel, context.member, context.settings.permissions)
     }
 
     /**
@@ -69,7 +80,7 @@ object PermsUtil {
      */
     @CheckReturnValue
     suspend fun checkPermsWithFeedback(minLevel: PermissionLevel, context: CommandContext): Boolean {
-        val actual = getPerms(context.member)
+        val actual = getPerms(context.member, context.settings.permissions)
 
         if (actual.level >= minLevel.level) {
             return true
@@ -24,7 +24,8 @@ class RabbitConsumer(
         audioHandler: AudioEventHandler,
         messageHandler: MessageEventHandler,
         musicPersistenceHandler: MusicPersistenceHandler,
-        shardReviveHandler: ShardLifecycleHandler
+        shardReviveHandler: ShardLifecycleHandler,
+        voiceChannelTracker: VoiceChannelTracker
 ) {
 
     companion object {
@@ -37,7 +38,8 @@ class RabbitConsumer(
             audioHandler,
             messageHandler,
             musicPersistenceHandler,
-            shardReviveHandler
+            shardReviveHandler,
+            voiceChannelTracker
     )
 
     @RabbitHandler(isDefault = true)
@@ -79,6 +81,7 @@ class RabbitConsumer(
         guildCache.getIfCached(event.guild)?.let {
             (it as InternalGuild).onSelfLeaving()
             guildCache.cache.remove(event.guild)
+            guildCache.expiry.cancel(event.guild)
         }
         val instant = Instant.ofEpochMilli(event.joinTime)
         eventHandlers.forEach { it.onGuildLeave(event.guild, instant) }
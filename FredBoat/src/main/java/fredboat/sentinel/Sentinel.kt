@@ -254,7 +254,7 @@ class Sentinel(private val template: AsyncRabbitTemplate,
         )
     }
 
-    private fun getSentinelUserList(routingKey: String): Flux<Long> = Flux.create { sink ->
+    fun getSentinelUserList(routingKey: String): Flux<Long> = Flux.create { sink ->
         template.convertSendAndReceive<List<Long>>(SentinelExchanges.REQUESTS, routingKey, UserListRequest()).addCallback(
                 { list ->
                     if (list == null) sink.error(NullPointerException())
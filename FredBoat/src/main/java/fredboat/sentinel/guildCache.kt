@@ -5,6 +5,7 @@ import com.fredboat.sentinel.entities.GuildSubscribeRequest
 import com.google.common.cache.CacheBuilder
 import fredboat.audio.lavalink.SentinelLavalink
 import fredboat.config.property.AppConfig
+import fredboat.util.TimingWheel
 import kotlinx.coroutines.GlobalScope
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.reactive.awaitFirstOrNull
@@ -31,6 +32,10 @@ class GuildCache(private val sentinel: Sentinel,
     companion object {
         lateinit var INSTANCE: GuildCache
         private val log: Logger = LoggerFactory.getLogger(GuildCache::class.java)
+        /** How long a guild may go unused before it may be invalidated */
+        val EXPIRY_MILLIS = TimeUnit.MINUTES.toMillis(10)
+        /** How often guilds that are due to be invalidated are checked */
+        val EXPIRY_TICK_MILLIS = TimeUnit.SECONDS.toMillis(5)
     }
 
     @Autowired
@@ -38,6 +43,10 @@ class GuildCache(private val sentinel: Sentinel,
     lateinit var rabbitConsumer: RabbitConsumer
     val cache = ConcurrentHashMap<Long, InternalGuild>()
 
+    /** IDs of cached guilds, due when they have not been used for [EXPIRY_MILLIS] */
+    val expiry = TimingWheel<Long>(EXPIRY_TICK_MILLIS, (EXPIRY_MILLIS / EXPIRY_TICK_MILLIS).toInt() + 1,
+            System::currentTimeMillis)
+
     /** Non-finished requests. Acts as a debounce */
     private val requestCache = CacheBuilder.newBuilder()
             .expireAfterWrite(1, TimeUnit.MINUTES) // Just as a precaution
@@ -85,6 +94,7 @@ class GuildCache(private val sentinel: Sentinel,
         val timeTakenReceive = System.currentTimeMillis() - startTime
         val g = InternalGuild(it)
         cache[g.id] = g
+        expiry.schedule(g.id, EXPIRY_MILLIS)
         val timeTakenParse = System.currentTimeMillis() - startTime - timeTakenReceive
         val timeTaken = timeTakenReceive + timeTakenParse
 
@@ -126,6 +136,12 @@ class GuildCache(private val sentinel: Sentinel,
 
     fun getIfCached(id: Long): Guild? = cache[id]
 
+    /** Renew the time the guild was last used, to prevent invalidation */
+    fun touch(guild: InternalGuild) {
+        guild.lastUsed = System.currentTimeMillis()
+        expiry.schedule(guild.id, EXPIRY_MILLIS)
+    }
+
     private fun calculateShardId(guildId: Long): Int = ((guildId shr 22) % appConfig.shardCount.toLong()).toInt()
 
 }
@@ -1,5 +1,6 @@
 package fredboat.util
 
+import fredboat.messaging.internal.Context
 import fredboat.sentinel.IMentionable
 
 class MessageBuilder {
@@ -22,6 +23,14 @@ class MessageBuilder {
         return this
     }
 
+    /**
+     * Append a translated string with applied formatting, see [Context.i18nFormat]
+     */
+    fun appendI18nFormat(context: Context, key: String, vararg params: Any): MessageBuilder {
+        context.i18nFormat(builder, key, *params)
+        return this
+    }
+
     fun italic(str: String): MessageBuilder {
         builder.append("*").append(str).append("*")
         return this
@@ -37,7 +46,7 @@ class MessageBuilder {
         return this
     }
 
-    fun code(str: String): MessageBuilder {
+    fun code(str: CharSequence): MessageBuilder {
         builder.append("`").append(str).append("`")
         return this
     }
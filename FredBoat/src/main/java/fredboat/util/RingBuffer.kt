@@ -0,0 +1,77 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.util
+
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * Holds the latest elements that were added to it, up to its capacity. Elements are looked up by their age, so pages
+ * of them can be read without copying the buffer.
+ *
+ * Reading does not lock. Adding is synchronized, and marks the slot it overwrites first, so that readers can tell if
+ * the element they read was replaced meanwhile and retry.
+ */
+class RingBuffer<T : Any>(val capacity: Int) {
+
+    private val elements = AtomicReferenceArray<T>(capacity)
+    //elements that were added, and elements that adding has started for. Only written while synchronized
+    @Volatile
+    private var added = 0L
+    @Volatile
+    private var started = 0L
+
+    init {
+        require(capacity > 0) { "Capacity must be positive" }
+    }
+
+    val size: Int
+        get() = Math.min(added, capacity.toLong()).toInt()
+
+    val isEmpty: Boolean
+        get() = added == 0L
+
+    @Synchronized
+    fun add(element: T) {
+        val position = added
+        started = position + 1
+        elements.set((position % capacity).toInt(), element)
+        added = position + 1
+    }
+
+    /**
+     * @param index 0 for the latest element
+     * @return the element, or null if there are not that many elements
+     */
+    operator fun get(index: Int): T? {
+        while (true) {
+            val added = this.added
+            if (index < 0 || index >= Math.min(added, capacity.toLong())) return null
+            val element = elements.get(((added - 1 - index) % capacity).toInt())
+            //the slot is overwritten by the element that is added capacity - index elements later
+            if (started - added < capacity - index) return element
+        }
+    }
+}
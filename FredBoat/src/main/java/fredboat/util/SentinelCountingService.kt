@@ -1,34 +1,53 @@
 package fredboat.util
 
 import com.fredboat.sentinel.entities.ExtendedShardInfo
-import fredboat.config.property.AppConfig
 import fredboat.sentinel.Sentinel
-import it.unimi.dsi.fastutil.longs.LongOpenHashSet
 import org.springframework.stereotype.Service
+import reactor.core.publisher.Flux
 import reactor.core.publisher.Mono
-import reactor.core.publisher.toMono
 import reactor.util.function.Tuple2
 
 @Service
-class SentinelCountingService(private val sentinel: Sentinel, appConfig: AppConfig) {
-
-    /** Rough average users per shard + 5000 (for good measure) all timed the max number of shards */
-    private val estimatedUsers = (30000 + 5000) * appConfig.shardCount
+class SentinelCountingService(private val sentinel: Sentinel) {
 
+    @Volatile
     private var cachedCounts: Counts = Counts(0,0,0,0,0,0, emptyList())
+    @Volatile
     private var cachedUserCount = 0
+    @Volatile
     private var countsCacheTime = 0L
+    @Volatile
     private var userCountCacheTime = 0L
 
+    //requests that are underway, which callers share instead of making requests of their own
+    private var countsRequest: Mono<Counts>? = null
+    private var userCountRequest: Mono<Int>? = null
+
     companion object {
         private const val COUNTS_TIMEOUT = 60000 // 1 minute
         private const val USERS_TIMEOUT = 10 * 60000 // 10 minutes
+        /** How many user lists are requested and counted at once */
+        private const val USER_LIST_CONCURRENCY = 2
+
+        /**
+         * Counts the user lists on their own, and merges the counts. Only [USER_LIST_CONCURRENCY] lists are counted at
+         * once, and none of them are kept once they are counted.
+         */
+        fun countUniqueUsers(userLists: List<Flux<Long>>, exactLimit: Int = UniqueCounter.DEFAULT_EXACT_LIMIT)
+                : Mono<Long> = Flux.fromIterable(userLists)
+                .flatMapDelayError({ list ->
+                    list.reduce(UniqueCounter(exactLimit)) { counter, id -> counter.add(id) }
+                }, USER_LIST_CONCURRENCY, 1)
+                .reduce(UniqueCounter(exactLimit)) { total, counter -> total.merge(counter) }
+                .map { it.count() }
     }
 
+    @Synchronized
     fun getCounts(): Mono<Counts> {
-        if(countsCacheTime + COUNTS_TIMEOUT > System.currentTimeMillis()) return cachedCounts.toMono()
+        if(countsCacheTime + COUNTS_TIMEOUT > System.currentTimeMillis()) return Mono.just(cachedCounts)
+        countsRequest?.let { return it }
 
-        return Mono.create { sink ->
+        val request = Mono.create<Counts> { sink ->
             var guilds = 0L
             var roles = 0L
             var textChannels = 0L
@@ -41,6 +60,7 @@ class SentinelCountingService(private val sentinel: Sentinel, appConfig: AppConf
                     .doOnComplete {
                         val result = Counts(guilds, roles, textChannels, voiceChannels, categories, emotes, shards)
                         cachedCounts = result
+                        countsCacheTime = System.currentTimeMillis()
                         sink.success(result)
                     }
                     .doOnError { sink.error(it) }
@@ -53,25 +73,31 @@ class SentinelCountingService(private val sentinel: Sentinel, appConfig: AppConf
                         emotes += it.response.emotes
                         shards.addAll(it.response.shards!!)
                     }
-        }
+        }.doFinally { synchronized(this) { countsRequest = null } }.cache()
+        countsRequest = request
+        return request
     }
 
     /**
      * The day that we reach 2,147,483,647 users will be a glorious one
+     *
+     * Counted exactly for smaller bots, and estimated to within about a percent for larger ones.
      */
+    @Synchronized
     fun getUniqueUserCount(): Mono<Int> {
-        if(userCountCacheTime + USERS_TIMEOUT > System.currentTimeMillis()) return cachedUserCount.toMono()
+        if(userCountCacheTime + USERS_TIMEOUT > System.currentTimeMillis()) return Mono.just(cachedUserCount)
+        userCountRequest?.let { return it }
 
-        return Mono.create { sink ->
-            val set = LongOpenHashSet(estimatedUsers)
-            sentinel.getFullSentinelUserList()
-                    .doOnComplete {
-                        val sum = set.size
-                        cachedUserCount = sum
-                        sink.success(sum)
-                    }.doOnError { sink.error(it) }
-                    .subscribe { set.add(it) }
-        }
+        val request = countUniqueUsers(sentinel.tracker.sentinels.map { sentinel.getSentinelUserList(it.key) })
+                .map { it.toInt() }
+                .doOnSuccess {
+                    cachedUserCount = it
+                    userCountCacheTime = System.currentTimeMillis()
+                }
+                .doFinally { synchronized(this) { userCountRequest = null } }
+                .cache()
+        userCountRequest = request
+        return request
     }
 
     fun getAllCounts(): Mono<Tuple2<Counts, Int>> = Mono.zip(getCounts(), getUniqueUserCount())
@@ -0,0 +1,77 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.util
+
+import org.slf4j.LoggerFactory
+import java.util.*
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+
+/**
+ * Runs tasks one after another, in the order they were submitted, on the threads of another executor. Up to [limit]
+ * tasks may wait, further ones are rejected. If the other executor rejects, the waiting tasks run on the thread that
+ * submitted the task instead.
+ */
+class SerialExecutor(private val delegate: Executor, private val limit: Int) : Executor {
+
+    companion object {
+        private val log = LoggerFactory.getLogger(SerialExecutor::class.java)
+    }
+
+    private val tasks = ArrayDeque<Runnable>()
+    //whether a thread is running the tasks. Only accessed while holding the lock of the tasks
+    private var running = false
+
+    /**
+     * @throws RejectedExecutionException if [limit] tasks are waiting already
+     */
+    override fun execute(task: Runnable) {
+        synchronized(tasks) {
+            if (tasks.size >= limit) throw RejectedExecutionException("$limit tasks are waiting already")
+            tasks.add(task)
+            if (running) return
+            running = true
+        }
+        try {
+            delegate.execute { runTasks() }
+        } catch (e: RejectedExecutionException) {
+            runTasks()
+        }
+    }
+
+    private fun runTasks() {
+        while (true) {
+            val task = synchronized(tasks) {
+                tasks.poll() ?: null.also { running = false }
+            } ?: return
+            try {
+                task.run()
+            } catch (e: Exception) {
+                log.error("Uncaught exception in serially executed task", e)
+            }
+        }
+    }
+}
@@ -36,6 +36,8 @@ import fredboat.messaging.internal.Context;
 import fredboat.sentinel.Member;
 import fredboat.sentinel.User;
 import fredboat.shared.constant.BotConstants;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.commons.text.CharacterPredicates;
@@ -51,6 +53,7 @@ import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -61,8 +64,6 @@ public class TextUtils {
 
     private static final Pattern TIMESTAMP_PATTERN = Pattern.compile("^(\\d?\\d)(?::([0-5]?\\d))?(?::([0-5]?\\d))?$");
 
-    private static final Collection<Character> BACKTICK = Collections.singleton('`');
-    private static final List<Character> MARKDOWN_CHARS = Arrays.asList('*', '`', '~', '_', '|');
 
     public static final CharMatcher SPLIT_SELECT_SEPARATOR =
             CharMatcher.whitespace().or(CharMatcher.is(','))
@@ -131,6 +132,13 @@ public class TextUtils {
             return;
         }
 
+        //one of our pools is saturated
+        if (e instanceof RejectedExecutionException) {
+            log.warn("{}: {}", logMessage, e.getMessage());
+            context.replyWithName(context.i18n("busy"));
+            return;
+        }
+
         log.error(logMessage, e);
 
         // TODO handle InsufficientPermissionException
@@ -143,10 +151,10 @@ public class TextUtils {
         context.replyWithMention(SORRY + "\n" + BotConstants.hangoutInvite);
     }
 
-    private static CompletionStage<String> postToHasteBasedService(String baseUrl, String body,
+    private static CompletionStage<String> postToHasteBasedService(String baseUrl, RequestBody body,
                                                                    Optional<String> user, Optional<String> pass) {
 
-        var request = BotController.Companion.getHTTP().post(baseUrl, body, "text/plain");
+        var request = BotController.Companion.getHTTP().post(baseUrl, body);
 
         if (user.isPresent() && pass.isPresent()) {
             request = request.basicAuth(user.get(), pass.get());
@@ -157,13 +165,13 @@ public class TextUtils {
                 .thenApply(json -> json.getString("key"));
     }
 
-    private static CompletionStage<String> postToWastebin(String body) {
+    private static CompletionStage<String> postToWastebin(RequestBody body) {
         var creds = Launcher.Companion.getBotController().getCredentials();
         return postToHasteBasedService("https://wastebin.party/documents", body,
                 Optional.of(creds.getWastebinUser()), Optional.of(creds.getWastebinPass()));
     }
 
-    private static CompletionStage<String> postToHastebin(String body) {
+    private static CompletionStage<String> postToHastebin(RequestBody body) {
         return postToHasteBasedService("https://hastebin.com/documents", body, Optional.of(""), Optional.of(""));
     }
 
@@ -177,6 +185,16 @@ public class TextUtils {
      * Optional return type
      */
     public static CompletionStage<Optional<String>> postToPasteService(String body) {
+        return postToPasteService(RequestBody.create(MediaType.parse("text/plain"), body));
+    }
+
+    /**
+     * Like {@link #postToPasteService(String)}, for bodies that are too large to be built up front. The body is
+     * written again for each paste service that is tried.
+     *
+     * @see fredboat.util.rest.StreamingTextBody
+     */
+    public static CompletionStage<Optional<String>> postToPasteService(RequestBody body) {
         return postToWastebin(body)
                 .thenApply(key -> Optional.of("https://wastebin.party/" + key))
                 .exceptionally(t -> {
@@ -198,8 +216,15 @@ public class TextUtils {
     }
 
     public static String formatTime(long millis) {
+        return appendTime(new StringBuilder(8), millis).toString();
+    }
+
+    /**
+     * Appends the time like {@link #formatTime(long)} formats it.
+     */
+    public static StringBuilder appendTime(StringBuilder builder, long millis) {
         if (millis == Long.MAX_VALUE) {
-            return "LIVE";
+            return builder.append("LIVE");
         }
 
         long t = millis / 1000L;
@@ -207,19 +232,18 @@ public class TextUtils {
         int min = (int) ((t % 3600L) / 60L);
         int hrs = (int) (t / 3600L);
 
-        String timestamp;
-
         if (hrs != 0) {
-            timestamp = forceTwoDigits(hrs) + ":" + forceTwoDigits(min) + ":" + forceTwoDigits(sec);
-        } else {
-            timestamp = forceTwoDigits(min) + ":" + forceTwoDigits(sec);
+            appendTwoDigits(builder, hrs).append(':');
         }
-
-        return timestamp;
+        appendTwoDigits(builder, min).append(':');
+        return appendTwoDigits(builder, sec);
     }
 
-    private static String forceTwoDigits(int i) {
-        return i < 10 ? "0" + i : Integer.toString(i);
+    private static StringBuilder appendTwoDigits(StringBuilder builder, int i) {
+        if (i < 10) {
+            builder.append('0');
+        }
+        return builder.append(i);
     }
 
     private static final DecimalFormat percentageFormat = new DecimalFormat("###.##");
@@ -304,23 +328,48 @@ public class TextUtils {
         return revisedString.toString();
     }
 
+    /**
+     * @return the input with a backslash in front of each markdown character, or the input itself if it has none
+     */
     public static String escapeMarkdown(@Nonnull String input) {
-        return escape(input, MARKDOWN_CHARS);
+        int first = indexOfMarkdown(input, 0);
+        if (first < 0) {
+            return input;
+        }
+        StringBuilder builder = new StringBuilder(input.length() + 16).append(input, 0, first);
+        return appendEscapedMarkdown(builder, input, first).toString();
     }
 
-    public static String escapeBackticks(@Nonnull String input) {
-        return escape(input, BACKTICK);
+    /**
+     * Appends the input like {@link #escapeMarkdown(String)} returns it.
+     */
+    public static StringBuilder appendEscapedMarkdown(StringBuilder builder, @Nonnull String input) {
+        return appendEscapedMarkdown(builder, input, 0);
     }
 
+    public static String escapeBackticks(@Nonnull String input) {
+        if (input.indexOf('`') < 0) {
+            return input;
+        }
+        return input.replace("`", "\\`");
+    }
 
     public static String forceNDigits(int i, int n) {
-        StringBuilder str = new StringBuilder(Integer.toString(i));
+        return appendNDigits(new StringBuilder(n), i, n).toString();
+    }
 
-        while (str.length() < n) {
-            str.insert(0, "0");
+    /**
+     * Appends the number like {@link #forceNDigits(int, int)} formats it.
+     */
+    public static StringBuilder appendNDigits(StringBuilder builder, int i, int n) {
+        int length = i < 0 ? 2 : 1;
+        for (int rest = i / 10; rest != 0; rest /= 10) {
+            length++;
         }
-
-        return str.toString();
+        for (; length < n; length++) {
+            builder.append('0');
+        }
+        return builder.append(i);
     }
 
     public static String padWithSpaces(@Nullable String str, int totalLength, boolean front) {
@@ -414,7 +463,19 @@ public class TextUtils {
      */
     @Nonnull
     public static String escapeAndDefuse(@Nonnull String input) {
-        return defuse(escapeMarkdown(input));
+        int first = indexOfEscapeOrDefuse(input, 0, true);
+        if (first < 0) {
+            return input;
+        }
+        StringBuilder builder = new StringBuilder(input.length() + 16).append(input, 0, first);
+        return appendEscapedAndDefused(builder, input, first, true).toString();
+    }
+
+    /**
+     * Appends the input like {@link #escapeAndDefuse(String)} returns it.
+     */
+    public static StringBuilder appendEscapedAndDefused(StringBuilder builder, @Nonnull String input) {
+        return appendEscapedAndDefused(builder, input, 0, true);
     }
 
     /**
@@ -428,18 +489,84 @@ public class TextUtils {
      */
     @Nonnull
     public static String defuse(@Nonnull String input) {
-        return defuseUrls(defuseMentions(input));
+        int first = indexOfEscapeOrDefuse(input, 0, false);
+        if (first < 0) {
+            return input;
+        }
+        StringBuilder builder = new StringBuilder(input.length() + 8).append(input, 0, first);
+        return appendEscapedAndDefused(builder, input, first, false).toString();
     }
 
-    @Nonnull
-    private static String defuseMentions(@Nonnull String input) {
-        return input.replaceAll("@here", "@" + ZERO_WIDTH_CHAR + "here")
-                .replaceAll("@everyone", "@" + ZERO_WIDTH_CHAR + "everyone");
+    // The escaping and defusing below is done in a single pass over the input. Markdown characters get a backslash
+    // in front of them, and a zero width character is put into each @here, @everyone and ://. None of those contain
+    // markdown characters, so this ends up the same as escaping first and defusing the escaped input afterwards.
+
+    private static final String HERE = "@here";
+    private static final String EVERYONE = "@everyone";
+    private static final String URL = "://";
+
+    private static boolean isMarkdown(char c) {
+        return c == '*' || c == '`' || c == '~' || c == '_' || c == '|';
     }
 
-    @Nonnull
-    private static String defuseUrls(@Nonnull String input) {
-        return input.replaceAll("://", ":" + ZERO_WIDTH_CHAR + "//");
+    private static int indexOfMarkdown(String input, int from) {
+        for (int i = from; i < input.length(); i++) {
+            if (isMarkdown(input.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static StringBuilder appendEscapedMarkdown(StringBuilder builder, String input, int from) {
+        for (int i = from; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (isMarkdown(c)) {
+                builder.append('\\');
+            }
+            builder.append(c);
+        }
+        return builder;
+    }
+
+    //index of the first character that needs to be escaped or starts something that needs to be defused, or -1
+    private static int indexOfEscapeOrDefuse(String input, int from, boolean escape) {
+        for (int i = from; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (escape && isMarkdown(c)) {
+                return i;
+            }
+            if ((c == '@' && (input.startsWith(HERE, i) || input.startsWith(EVERYONE, i)))
+                    || (c == ':' && input.startsWith(URL, i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static StringBuilder appendEscapedAndDefused(StringBuilder builder, String input, int from,
+                                                         boolean escape) {
+        int i = from;
+        while (i < input.length()) {
+            char c = input.charAt(i);
+            if (escape && isMarkdown(c)) {
+                builder.append('\\').append(c);
+                i++;
+            } else if (c == '@' && input.startsWith(HERE, i)) {
+                builder.append('@').append(ZERO_WIDTH_CHAR).append(HERE, 1, HERE.length());
+                i += HERE.length();
+            } else if (c == '@' && input.startsWith(EVERYONE, i)) {
+                builder.append('@').append(ZERO_WIDTH_CHAR).append(EVERYONE, 1, EVERYONE.length());
+                i += EVERYONE.length();
+            } else if (c == ':' && input.startsWith(URL, i)) {
+                builder.append(':').append(ZERO_WIDTH_CHAR).append(URL, 1, URL.length());
+                i += URL.length();
+            } else {
+                builder.append(c);
+                i++;
+            }
+        }
+        return builder;
     }
 
     @Nonnull
@@ -0,0 +1,113 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.util
+
+/**
+ * A hashed timing wheel: keys are scheduled to be due after a delay, and [advance] hands out the keys that became due
+ * since it was last called. Scheduling is O(1), and advancing only looks at the slots of the ticks that passed, instead
+ * of at every scheduled key.
+ *
+ * Rescheduling a key moves its deadline, the entry in the slot of the old deadline is dropped once that slot comes
+ * around. Deadlines further out than one rotation of the wheel stay in their slot until the rotation they are due in.
+ *
+ * @param tickMillis how precise deadlines are
+ * @param wheelSize the number of slots. Deadlines up to tickMillis * wheelSize ahead are due in the first rotation
+ * @param clock the current time in milliseconds
+ */
+class TimingWheel<K : Any>(
+        private val tickMillis: Long,
+        private val wheelSize: Int,
+        private val clock: () -> Long
+) {
+
+    private val slots = List(wheelSize) { HashSet<K>() }
+    private val deadlines = HashMap<K, Long>()
+    //the last tick that was advanced to
+    private var tick = clock() / tickMillis
+
+    init {
+        require(tickMillis > 0) { "Tick must be positive" }
+        require(wheelSize > 0) { "Wheel size must be positive" }
+    }
+
+    /** The number of scheduled keys */
+    val size: Int
+        @Synchronized get() = deadlines.size
+
+    /** @return true if the key is scheduled */
+    @Synchronized
+    operator fun contains(key: K) = deadlines.containsKey(key)
+
+    /**
+     * Schedule the key to be due after the delay, replacing any earlier deadline of it.
+     */
+    @Synchronized
+    fun schedule(key: K, delayMillis: Long) {
+        val deadline = clock() + delayMillis
+        deadlines[key] = deadline
+        slots[slotOf(deadline)].add(key)
+    }
+
+    @Synchronized
+    fun cancel(key: K) {
+        deadlines.remove(key)
+    }
+
+    /**
+     * @return the keys that became due since the last call, no longer scheduled
+     */
+    @Synchronized
+    fun advance(): List<K> {
+        val target = clock() / tickMillis
+        //after a full rotation every slot has been looked at, and later ticks cover the deadlines of earlier ones
+        val first = Math.max(tick + 1, target - wheelSize + 1)
+        val due = mutableListOf<K>()
+        for (t in first..target) {
+            val slot = (t % wheelSize).toInt()
+            val threshold = t * tickMillis
+            slots[slot].removeIf { key ->
+                val deadline = deadlines[key] ?: return@removeIf true
+                when {
+                    deadline <= threshold -> {
+                        deadlines.remove(key)
+                        due.add(key)
+                        true
+                    }
+                    //due in a later rotation, or rescheduled into another slot
+                    else -> slotOf(deadline) != slot
+                }
+            }
+        }
+        if (target > tick) tick = target
+        return due
+    }
+
+    //deadlines that are due already go into the slot of the next tick
+    private fun slotOf(deadline: Long): Int {
+        val dueTick = Math.max(Math.floorDiv(deadline + tickMillis - 1, tickMillis), tick + 1)
+        return (dueTick % wheelSize).toInt()
+    }
+}
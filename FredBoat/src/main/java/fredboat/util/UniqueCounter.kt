@@ -0,0 +1,124 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.util
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet
+
+/**
+ * Counts distinct IDs. Up to [exactLimit] distinct IDs are kept in a set and counted exactly, beyond that they are
+ * counted by a HyperLogLog sketch of 2^14 registers, which takes 16KB no matter how many IDs are added and has a
+ * standard error of about 0.8%.
+ *
+ * Counters can be merged, so separate sources can be counted on their own and then combined. Not thread safe.
+ */
+class UniqueCounter(private val exactLimit: Int = DEFAULT_EXACT_LIMIT) {
+
+    companion object {
+        const val DEFAULT_EXACT_LIMIT = 100_000
+        private const val PRECISION = 14
+        internal const val REGISTERS = 1 shl PRECISION
+        private const val ALPHA = 0.7213 / (1 + 1.079 / REGISTERS)
+    }
+
+    private var exact: LongOpenHashSet? = LongOpenHashSet()
+    private var registers: ByteArray? = null
+
+    /** True once this counter estimates instead of counting exactly */
+    val isEstimate: Boolean
+        get() = registers != null
+
+    /** The number of registers of the sketch, or 0 while counting exactly */
+    internal val registerCount: Int
+        get() = registers?.size ?: 0
+
+    fun add(id: Long): UniqueCounter {
+        val set = exact
+        if (set == null) {
+            addToSketch(registers!!, id)
+        } else if (set.add(id) && set.size > exactLimit) {
+            toSketch()
+        }
+        return this
+    }
+
+    /** Adds the IDs counted by the other counter to this one */
+    fun merge(other: UniqueCounter): UniqueCounter {
+        val otherSet = other.exact
+        if (otherSet != null) {
+            otherSet.forEach { add(it) }
+            return this
+        }
+        if (exact != null) toSketch()
+        val own = registers!!
+        val others = other.registers!!
+        for (i in 0 until REGISTERS) {
+            if (others[i] > own[i]) own[i] = others[i]
+        }
+        return this
+    }
+
+    fun count(): Long {
+        exact?.let { return it.size.toLong() }
+        val registers = registers!!
+        var sum = 0.0
+        var zeros = 0
+        for (register in registers) {
+            sum += 1.0 / (1L shl register.toInt())
+            if (register.toInt() == 0) zeros++
+        }
+        val estimate = ALPHA * REGISTERS * REGISTERS / sum
+        //with a 64 bit hash only small cardinalities need a correction, for which linear counting is more accurate
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+            return Math.round(REGISTERS * Math.log(REGISTERS.toDouble() / zeros))
+        }
+        return Math.round(estimate)
+    }
+
+    private fun toSketch() {
+        val sketch = ByteArray(REGISTERS)
+        exact!!.forEach { addToSketch(sketch, it) }
+        exact = null
+        registers = sketch
+    }
+
+    private fun addToSketch(registers: ByteArray, id: Long) {
+        val hash = mix(id)
+        val index = (hash ushr (64 - PRECISION)).toInt()
+        //the position of the first set bit of the remaining bits, which are capped so that it is never beyond them
+        val rank = (java.lang.Long.numberOfLeadingZeros((hash shl PRECISION) or (1L shl (PRECISION - 1))) + 1).toByte()
+        if (rank > registers[index]) registers[index] = rank
+    }
+
+    //the finalizer of MurmurHash3, which spreads the bits of the mostly sequential snowflake IDs
+    private fun mix(id: Long): Long {
+        var h = id
+        h = h xor (h ushr 33)
+        h *= -0xae502812aa7333L
+        h = h xor (h ushr 33)
+        h *= -0x3b314601e57a13adL
+        return h xor (h ushr 33)
+    }
+}
@@ -27,22 +27,36 @@ package fredboat.util.ratelimit;
 import fredboat.db.api.BlacklistService;
 import fredboat.db.transfer.BlacklistEntry;
 import fredboat.feature.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.function.UnaryOperator;
 
 /**
  * Created by napster on 17.04.17.
  * <p>
  * Provides a forgiving blacklist with progressively increasing blacklist lengths
  *
- * In an environment where shards are running in different containers and not inside a single jar this class will need
- * some help in keeping bans up to date, that is, reading them from the database, either on changes (rethinkDB?) or
- * through an agent in regular periods
+ * The backend can only look up entries one by one, so the ids that are blacklisted are recorded in a snapshot kept in a
+ * local file instead, as all blacklistings are issued and lifted here. Once blacklistings have been recorded for longer
+ * than the longest one lasts, the snapshot holds every id that is blacklisted right now, and lookups are answered from
+ * it without asking the backend. Until then, entries are looked up individually. Changes to blacklist entries are
+ * written behind, see {@link #flush()}.
  */
 public class Blacklist {
 
+    private static final Logger log = LoggerFactory.getLogger(Blacklist.class);
+
     //this holds progressively increasing lengths of blacklisting in milliseconds
     private static final List<Long> blacklistLevels;
 
@@ -56,6 +70,9 @@ public class Blacklist {
         );
     }
 
+    private static final long LONGEST_BLACKLISTING = blacklistLevels.get(blacklistLevels.size() - 1);
+    private static final int SNAPSHOT_FORMAT_VERSION = 1;
+
     private final long rateLimitHitsBeforeBlacklist;
 
     //users that can never be blacklisted
@@ -63,11 +80,41 @@ public class Blacklist {
 
     private final BlacklistService blacklistService; //implementation as a RestRepo includes a cache
 
+    @Nullable
+    private final File snapshotFile;
+    private final LongSupplier clock;
+
+    //ids that were blacklisted here since recordedSince, and have not run out or been lifted since
+    private volatile BlacklistSnapshot snapshot = BlacklistSnapshot.EMPTY;
+    //epoch millis since when blacklistings are recorded in the snapshot
+    private volatile long recordedSince;
+    private final Object snapshotLock = new Object();
+    private final Object fileLock = new Object();
+    //the snapshot that was last written to the file, guarded by the fileLock
+    @Nullable
+    private BlacklistSnapshot writtenSnapshot;
+
+    //entries that were changed locally and still need to be persisted
+    private final ConcurrentHashMap<Long, BlacklistEntry> pendingWrites = new ConcurrentHashMap<>();
+
 
-    public Blacklist(BlacklistService blacklistService, Set<Long> userWhiteList, long rateLimitHitsBeforeBlacklist) {
+    /**
+     * @param snapshotFile where the snapshot of the blacklisted ids is kept, or null to keep it in memory only
+     */
+    public Blacklist(BlacklistService blacklistService, Set<Long> userWhiteList, long rateLimitHitsBeforeBlacklist,
+                     @Nullable File snapshotFile) {
+        this(blacklistService, userWhiteList, rateLimitHitsBeforeBlacklist, snapshotFile, System::currentTimeMillis);
+    }
+
+    Blacklist(BlacklistService blacklistService, Set<Long> userWhiteList, long rateLimitHitsBeforeBlacklist,
+              @Nullable File snapshotFile, LongSupplier clock) {
         this.blacklistService = blacklistService;
         this.rateLimitHitsBeforeBlacklist = rateLimitHitsBeforeBlacklist;
         this.userWhiteList = Collections.unmodifiableSet(userWhiteList);
+        this.snapshotFile = snapshotFile;
+        this.clock = clock;
+        this.recordedSince = clock.getAsLong();
+        readSnapshot();
     }
 
     /**
@@ -82,18 +129,15 @@ public class Blacklist {
         //first of all, ppl that can never get blacklisted no matter what
         if (userWhiteList.contains(id)) return false;
 
-        BlacklistEntry blEntry = blacklistService.fetchBlacklistEntry(id);
-        if (blEntry.getLevel() < 0) return false; //blacklist entry exists, but id hasn't actually been blacklisted yet
-
-
-        //id was a blacklisted, but it has run out
-        //noinspection RedundantIfStatement
-        if (System.currentTimeMillis() > blEntry.getBlacklistedTimestamp() + (getBlacklistTimeLength(blEntry.getLevel()))) {
-            return false;
+        long now = clock.getAsLong();
+        if (now - recordedSince >= LONGEST_BLACKLISTING) {
+            return snapshot.blacklistedUntil(id) > now;
         }
 
-        //looks like this id is blacklisted ¯\_(ツ)_/¯
-        return true;
+        //blacklistings from before the snapshot may still last, ask the backend about this id
+        BlacklistEntry blEntry = getEntry(id);
+        //blacklist entry may exist, but the id hasn't actually been blacklisted yet, or it has run out
+        return getBlacklistedUntil(blEntry) > now;
     }
 
     /**
@@ -102,14 +146,14 @@ public class Blacklist {
     public long hitRateLimit(long id) {
         //update blacklist entry of this id
         long blacklistingLength = 0;
-        BlacklistEntry blEntry = blacklistService.fetchBlacklistEntry(id);
+        BlacklistEntry blEntry = getEntry(id);
 
         //synchronize on the individual blacklist entries since we are about to change and save them
-        // we can use these to synchronize because they are backed by a cache, subsequent calls to fetch them
-        // will return the same object
+        // we can use these to synchronize because they are backed by a cache or held as a pending write, subsequent
+        // calls to fetch them will return the same object
         //noinspection SynchronizationOnLocalVariableOrMethodParameter
         synchronized (blEntry) {
-            long now = System.currentTimeMillis();
+            long now = clock.getAsLong();
 
             //is the last ratelimit hit a long time away (1 hour)? then reset the ratelimit hits
             if (now - blEntry.getRateLimitReachedTimestamp() > 60 * 60 * 1000) {
@@ -126,10 +170,11 @@ public class Blacklist {
                 blEntry.setRateLimitReached(0); //reset these for the next time
 
                 blacklistingLength = getBlacklistTimeLength(blEntry.getLevel());
+                long until = now + blacklistingLength;
+                updateSnapshot(s -> s.with(id, until));
             }
-            //persist it
-            //if this turns up to be a performance bottleneck, have an agent run that persists the blacklist occasionally
-            blacklistService.mergeBlacklistEntry(blEntry);
+            //persisted by the next flush
+            pendingWrites.put(id, blEntry);
             return blacklistingLength;
         }
     }
@@ -138,9 +183,108 @@ public class Blacklist {
      * completely resets a blacklist for an id
      */
     public void liftBlacklist(long id) {
+        pendingWrites.remove(id);
+        updateSnapshot(s -> s.without(id));
         blacklistService.deleteBlacklistEntry(id);
     }
 
+    /**
+     * Persist all blacklist entries that have been changed since the last flush, and the snapshot of the blacklisted
+     * ids. Entries that fail to be persisted are kept for the next attempt, unless they have been changed again
+     * meanwhile.
+     */
+    public void flush() {
+        for (BlacklistEntry entry : pendingWrites.values()) {
+            if (!pendingWrites.remove(entry.getId(), entry)) {
+                continue; //lifted meanwhile
+            }
+            try {
+                //noinspection SynchronizationOnLocalVariableOrMethodParameter
+                synchronized (entry) {
+                    blacklistService.mergeBlacklistEntry(entry);
+                }
+            } catch (Exception e) {
+                log.warn("Failed to persist blacklist entry {}, retrying on next flush", entry.getId(), e);
+                pendingWrites.putIfAbsent(entry.getId(), entry);
+            }
+        }
+        writeSnapshot();
+    }
+
+    private BlacklistEntry getEntry(long id) {
+        BlacklistEntry pending = pendingWrites.get(id);
+        if (pending != null) {
+            return pending;
+        }
+        return blacklistService.fetchBlacklistEntry(id);
+    }
+
+    private void readSnapshot() {
+        if (snapshotFile == null || !snapshotFile.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+            int version = in.readInt();
+            if (version != SNAPSHOT_FORMAT_VERSION) {
+                throw new IOException("Unknown snapshot format version " + version);
+            }
+            long since = in.readLong();
+            snapshot = BlacklistSnapshot.read(in, clock.getAsLong());
+            recordedSince = since;
+            log.info("Loaded blacklist snapshot with {} ids", snapshot.size());
+        } catch (IOException e) {
+            log.warn("Failed to read the blacklist snapshot from {}, recording blacklistings anew", snapshotFile, e);
+        }
+    }
+
+    //written to a temporary file first, so that a crash leaves either the previous or the new snapshot in place
+    private void writeSnapshot() {
+        if (snapshotFile == null) {
+            return;
+        }
+        updateSnapshot(s -> s.withoutExpired(clock.getAsLong()));
+        synchronized (fileLock) {
+            BlacklistSnapshot current = snapshot;
+            if (current == writtenSnapshot) {
+                return;
+            }
+            File tmp = new File(snapshotFile.getPath() + ".tmp");
+            try {
+                try (FileOutputStream fileOut = new FileOutputStream(tmp)) {
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+                    out.writeInt(SNAPSHOT_FORMAT_VERSION);
+                    out.writeLong(recordedSince);
+                    current.write(out);
+                    out.flush();
+                    fileOut.getFD().sync();
+                }
+                try {
+                    Files.move(tmp.toPath(), snapshotFile.toPath(),
+                            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                writtenSnapshot = current;
+            } catch (IOException e) {
+                log.warn("Failed to write the blacklist snapshot to {}, retrying on next flush", snapshotFile, e);
+            }
+        }
+    }
+
+    private void updateSnapshot(UnaryOperator<BlacklistSnapshot> update) {
+        synchronized (snapshotLock) {
+            snapshot = update.apply(snapshot);
+        }
+    }
+
+    /**
+     * @return epoch millis until which the entry is blacklisted, or 0 if it has never been blacklisted
+     */
+    private long getBlacklistedUntil(BlacklistEntry blEntry) {
+        if (blEntry.getLevel() < 0) return 0;
+        return blEntry.getBlacklistedTimestamp() + getBlacklistTimeLength(blEntry.getLevel());
+    }
+
     /**
      * Return length of a blacklist incident in milliseconds depending on the blacklist level
      */
@@ -0,0 +1,147 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.util.ratelimit;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Immutable, compact view of the ids that are currently blacklisted, sorted by id so lookups are a binary search over
+ * a primitive array. Changes create a new snapshot, which is fine as they only happen on blacklist incidents.
+ */
+final class BlacklistSnapshot {
+
+    static final BlacklistSnapshot EMPTY = new BlacklistSnapshot(new long[0], new long[0]);
+
+    //sorted ascending
+    private final long[] ids;
+    //blacklisted until, in epoch millis, at the same index as the id it belongs to
+    private final long[] until;
+
+    private BlacklistSnapshot(long[] ids, long[] until) {
+        this.ids = ids;
+        this.until = until;
+    }
+
+    /**
+     * @return epoch millis until which the id is blacklisted, or 0 if it is not part of this snapshot
+     */
+    long blacklistedUntil(long id) {
+        int index = Arrays.binarySearch(ids, id);
+        return index < 0 ? 0 : until[index];
+    }
+
+    BlacklistSnapshot with(long id, long untilMillis) {
+        int index = Arrays.binarySearch(ids, id);
+        if (index >= 0) {
+            long[] newUntil = until.clone();
+            newUntil[index] = untilMillis;
+            return new BlacklistSnapshot(ids, newUntil);
+        }
+
+        int insertAt = -(index + 1);
+        long[] newIds = new long[ids.length + 1];
+        long[] newUntil = new long[until.length + 1];
+        System.arraycopy(ids, 0, newIds, 0, insertAt);
+        System.arraycopy(until, 0, newUntil, 0, insertAt);
+        newIds[insertAt] = id;
+        newUntil[insertAt] = untilMillis;
+        System.arraycopy(ids, insertAt, newIds, insertAt + 1, ids.length - insertAt);
+        System.arraycopy(until, insertAt, newUntil, insertAt + 1, until.length - insertAt);
+        return new BlacklistSnapshot(newIds, newUntil);
+    }
+
+    BlacklistSnapshot without(long id) {
+        int index = Arrays.binarySearch(ids, id);
+        if (index < 0) {
+            return this;
+        }
+
+        long[] newIds = new long[ids.length - 1];
+        long[] newUntil = new long[until.length - 1];
+        System.arraycopy(ids, 0, newIds, 0, index);
+        System.arraycopy(until, 0, newUntil, 0, index);
+        System.arraycopy(ids, index + 1, newIds, index, ids.length - index - 1);
+        System.arraycopy(until, index + 1, newUntil, index, until.length - index - 1);
+        return new BlacklistSnapshot(newIds, newUntil);
+    }
+
+    /**
+     * @return a snapshot without the ids whose blacklisting ran out before the given point in time, or this snapshot
+     * if there are none
+     */
+    BlacklistSnapshot withoutExpired(long now) {
+        LongArrayList keptIds = new LongArrayList(ids.length);
+        LongArrayList keptUntil = new LongArrayList(until.length);
+        for (int i = 0; i < ids.length; i++) {
+            if (until[i] > now) {
+                keptIds.add(ids[i]);
+                keptUntil.add(until[i]);
+            }
+        }
+        if (keptIds.size() == ids.length) {
+            return this;
+        }
+        return new BlacklistSnapshot(keptIds.toLongArray(), keptUntil.toLongArray());
+    }
+
+    int size() {
+        return ids.length;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            out.writeLong(ids[i]);
+            out.writeLong(until[i]);
+        }
+    }
+
+    /**
+     * @param now ids whose blacklisting ran out before this point in time are left out
+     * @throws IOException if the input does not hold a snapshot as written by {@link #write(DataOutput)}
+     */
+    static BlacklistSnapshot read(DataInput in, long now) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("Negative snapshot size " + size);
+        }
+        long[] ids = new long[size];
+        long[] until = new long[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = in.readLong();
+            until[i] = in.readLong();
+            if (i > 0 && ids[i] <= ids[i - 1]) {
+                throw new IOException("Snapshot ids are not sorted");
+            }
+        }
+        return new BlacklistSnapshot(ids, until).withoutExpired(now);
+    }
+}
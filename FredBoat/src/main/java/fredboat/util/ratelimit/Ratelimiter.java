@@ -40,6 +40,7 @@ import io.prometheus.client.guava.cache.CacheMetricsCollector;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Nullable;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
@@ -74,7 +75,10 @@ public class Ratelimiter {
         ratelimits = new ArrayList<>();
 
         if (appConfig.useAutoBlacklist()) {
-            autoBlacklist = new Blacklist(blacklistService, whitelist, RATE_LIMIT_HITS_BEFORE_BLACKLIST);
+            autoBlacklist = new Blacklist(blacklistService, whitelist, RATE_LIMIT_HITS_BEFORE_BLACKLIST,
+                    new File("blacklist"));
+            //blacklist changes are written behind, make sure they are not lost when shutting down
+            Runtime.getRuntime().addShutdownHook(new Thread(autoBlacklist::flush, "blacklist-flush-shutdown-hook"));
         } else {
             autoBlacklist = null;
         }
@@ -136,6 +140,14 @@ public class Ratelimiter {
         return isRatelimited(context, command, 1);
     }
 
+    /**
+     * @return the auto blacklist, or null if auto blacklisting is disabled
+     */
+    @Nullable
+    public Blacklist getAutoBlacklist() {
+        return autoBlacklist;
+    }
+
     /**
      * @param id Id of the object whose blacklist status is to be checked, for example a userId or a guildId
      * @return true if the id is blacklisted, false if it's not
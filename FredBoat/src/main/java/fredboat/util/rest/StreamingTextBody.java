@@ -0,0 +1,83 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.util.rest;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.function.Supplier;
+
+/**
+ * A plain text request body made of lines, which are rendered while the body is being written instead of up front.
+ * <p>
+ * The sink okhttp hands out passes each completed segment of at most 8 KiB on to the socket, and blocks while the
+ * socket does not take any more. So besides the line that is being written, no more than one segment of the body is
+ * held in memory at any time, and lines are only rendered as fast as the receiver reads them.
+ * <p>
+ * The body is chunked, as its length is not known up front. It can be written more than once, for example when
+ * okhttp retries the request, in which case the lines are rendered again from a new iterator.
+ */
+public class StreamingTextBody extends RequestBody {
+
+    private static final MediaType TEXT_PLAIN = MediaType.parse("text/plain; charset=utf-8");
+
+    private final Supplier<? extends Iterator<String>> lines;
+
+    /**
+     * @param lines supplies a new iterator over the lines for each time the body is written. The iterator is used by
+     *              okhttp's threads.
+     */
+    public StreamingTextBody(Supplier<? extends Iterator<String>> lines) {
+        this.lines = lines;
+    }
+
+    @Nullable
+    @Override
+    public MediaType contentType() {
+        return TEXT_PLAIN;
+    }
+
+    @Override
+    public long contentLength() {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        Iterator<String> iterator = lines.get();
+        if (iterator.hasNext()) {
+            sink.writeUtf8(iterator.next());
+        }
+        while (iterator.hasNext()) {
+            sink.writeByte('\n');
+            sink.writeUtf8(iterator.next());
+        }
+    }
+}
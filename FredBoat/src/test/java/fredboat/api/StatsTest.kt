@@ -0,0 +1,134 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.api
+
+import fredboat.testutil.BaseTest
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.springframework.http.HttpStatus
+import org.springframework.test.web.reactive.server.WebTestClient
+import reactor.core.publisher.Mono
+import reactor.core.publisher.MonoProcessor
+import java.nio.charset.StandardCharsets
+import java.time.ZonedDateTime
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.concurrent.thread
+
+class StatsTest : BaseTest() {
+
+    @Volatile
+    private var body = "{\"global\":{\"guilds\":1}}"
+    private val renders = AtomicInteger()
+    private val service = StatsSnapshotService {
+        renders.incrementAndGet()
+        Mono.fromCallable { body.toByteArray(StandardCharsets.UTF_8) }
+    }
+    private val client = WebTestClient.bindToController(Stats(service)).build()
+
+    @Test
+    fun unchangedSnapshotsAreNotSentAgain() {
+        val result = client.get().uri("/stats").exchange()
+                .expectStatus().isOk
+                .expectBody(String::class.java)
+                .returnResult()
+        assertEquals(body, result.responseBody)
+        val headers = result.responseHeaders
+        val etag = headers.eTag!!
+        val lastModified = headers.lastModified
+
+        client.get().uri("/stats").ifNoneMatch(etag).exchange()
+                .expectStatus().isEqualTo(HttpStatus.NOT_MODIFIED)
+                .expectBody().isEmpty
+        client.get().uri("/stats").ifModifiedSince(ZonedDateTime.now().plusMinutes(1)).exchange()
+                .expectStatus().isEqualTo(HttpStatus.NOT_MODIFIED)
+        client.get().uri("/stats").ifNoneMatch("\"outdated\"").exchange()
+                .expectStatus().isOk
+                .expectHeader().valueEquals("ETag", etag)
+                .expectHeader().valueEquals("Last-Modified", headers.getFirst("Last-Modified")!!)
+        assertTrue(lastModified > 0)
+        assertEquals(1, renders.get(), "requests should be served from the snapshot")
+    }
+
+    @Test
+    fun etagsOnlyChangeWithTheBody() {
+        val first = headers()
+        Thread.sleep(1000) //Last-Modified has a resolution of seconds
+        service.renew().block()
+        val unchanged = headers()
+        assertEquals(first.eTag, unchanged.eTag, "the ETag of an unchanged body should not change")
+        assertEquals(first.lastModified, unchanged.lastModified)
+        client.get().uri("/stats").ifNoneMatch(first.eTag!!).exchange()
+                .expectStatus().isEqualTo(HttpStatus.NOT_MODIFIED)
+
+        body = "{\"global\":{\"guilds\":2}}"
+        service.renew().block()
+        val changed = headers()
+        assertNotEquals(first.eTag, changed.eTag)
+        assertTrue(changed.lastModified > first.lastModified)
+        val result = client.get().uri("/stats").ifNoneMatch(first.eTag!!).exchange()
+                .expectStatus().isOk
+                .expectBody(String::class.java)
+                .returnResult()
+        assertEquals(body, result.responseBody)
+        assertEquals(changed.eTag, result.responseHeaders.eTag)
+        assertEquals(3, renders.get())
+    }
+
+    @Test
+    fun requestsShareTheFirstRenewal() {
+        val rendered = MonoProcessor.create<ByteArray>()
+        val slowService = StatsSnapshotService {
+            renders.incrementAndGet()
+            rendered
+        }
+        val slowClient = WebTestClient.bindToController(Stats(slowService)).build()
+        val etags = arrayOfNulls<String>(3)
+        val requests = (0 until 3).map { i ->
+            thread {
+                etags[i] = slowClient.get().uri("/stats").exchange()
+                        .expectStatus().isOk
+                        .returnResult(String::class.java).responseHeaders.eTag
+            }
+        }
+
+        //a request waits for its response once it joined the renewal
+        val deadline = System.currentTimeMillis() + 5000
+        while (requests.any { it.state != Thread.State.WAITING && it.state != Thread.State.TIMED_WAITING }
+                && System.currentTimeMillis() < deadline) Thread.sleep(10)
+        assertEquals(1, renders.get(), "requests should have shared a single renewal")
+
+        rendered.onNext(body.toByteArray(StandardCharsets.UTF_8))
+        requests.forEach { it.join(TimeUnit.SECONDS.toMillis(5)) }
+        assertNotNull(etags[0])
+        assertTrue(etags.all { it == etags[0] }, "all requests should have been answered with the same snapshot")
+        assertEquals(1, renders.get())
+    }
+
+    private fun headers() = client.get().uri("/stats").exchange()
+            .expectStatus().isOk
+            .returnResult(String::class.java).responseHeaders
+}
@@ -0,0 +1,150 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.audio.lavalink
+
+import fredboat.testutil.BaseTest
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import kotlin.math.min
+
+/**
+ * Places and moves guilds on fake nodes, which get more loaded with each player and fall behind on sending frames once
+ * they have more players than they can handle.
+ */
+class NodeBalancerTest : BaseTest() {
+
+    @Test
+    fun guildsArePlacedOnTheLeastLoadedNode() {
+        val cluster = FakeCluster(FakeNode("a", 100, players = 80), FakeNode("b", 100, players = 10))
+        cluster.report()
+
+        assertEquals("b", cluster.place()?.name)
+    }
+
+    @Test
+    fun guildsThatJoinBetweenReportsAreSpread() {
+        val cluster = FakeCluster(FakeNode("a", 500), FakeNode("b", 500), FakeNode("c", 500))
+        cluster.report()
+
+        repeat(300) { cluster.place() }
+        cluster.nodes.forEach { assertEquals(100.0, it.players.toDouble(), 1.0, "guilds on ${it.name}") }
+    }
+
+    @Test
+    fun nodesThatCanNotBeUsedAreSkipped() {
+        val down = FakeNode("down", 100)
+        val silent = FakeNode("silent", 100)
+        val cluster = FakeCluster(down, silent, FakeNode("up", 100, players = 90))
+        cluster.report()
+        down.isAvailable = false
+        silent.reported = null
+
+        assertEquals("up", cluster.place()?.name)
+        cluster.nodes.last().isAvailable = false
+        assertNull(cluster.place())
+    }
+
+    @Test
+    fun penaltiesGrowWithLoad() {
+        val balancer = NodeBalancer()
+        fun total(load: NodeLoad) = balancer.penalties(NodeState("node", true, load))!!.total
+
+        assertEquals(0, total(NodeLoad(0, 0.0, -1, -1)))
+        assertEquals(10, total(NodeLoad(10, 0.0, 0, 0)))
+        assertTrue(total(NodeLoad(10, 0.5, 0, 0)) > total(NodeLoad(10, 0.2, 0, 0)))
+        assertTrue(total(NodeLoad(10, 0.5, 300, 0)) > total(NodeLoad(10, 0.5, 0, 0)))
+        assertTrue(total(NodeLoad(10, 0.5, 0, 300)) > total(NodeLoad(10, 0.5, 0, 0)))
+        assertTrue(total(NodeLoad(10, 1.0, 3000, 3000)) > 0, "penalties should not overflow")
+        assertNull(balancer.penalties(NodeState("node", true, null)))
+    }
+
+    @Test
+    fun hotNodesAreRebalancedGradually() {
+        val hot = FakeNode("hot", 200, players = 300)
+        val cold = FakeNode("cold", 200, players = 20)
+        val cluster = FakeCluster(hot, cold)
+        cluster.report()
+
+        val first = cluster.rebalance()!!
+        assertEquals("hot", first.from)
+        assertEquals("cold", first.to)
+        assertEquals(NodeBalancer.MAX_MIGRATIONS, first.count)
+        assertNull(cluster.rebalance(), "guilds should not be moved again before the nodes reported their load")
+
+        var rounds = 1
+        var moved = first.count
+        while (rounds < 200) {
+            cluster.report()
+            val migration = cluster.rebalance() ?: break
+            assertTrue(migration.count <= NodeBalancer.MAX_MIGRATIONS)
+            moved += migration.count
+            rounds++
+        }
+        log.info("Moved {} guilds in {} rounds, ending up with {} guilds on the hot node and {} on the cold one",
+                moved, rounds, hot.players, cold.players)
+        assertTrue(rounds < 200, "rebalancing should stop once the nodes are balanced")
+        assertTrue(hot.players <= hot.capacity, "the hot node should not fall behind anymore")
+        assertEquals(320, hot.players + cold.players)
+
+        cluster.report()
+        assertNull(cluster.rebalance(), "balanced nodes should be left alone")
+    }
+
+    private class FakeNode(val name: String, val capacity: Int, var players: Int = 0) {
+        var isAvailable = true
+        var reported: NodeLoad? = null
+
+        fun report() {
+            val behind = maxOf(0, players - capacity)
+            reported = NodeLoad(players, min(1.0, 0.8 * players / capacity), behind * 30, behind * 10)
+        }
+
+        val state: NodeState
+            get() = NodeState(name, isAvailable, reported)
+    }
+
+    private class FakeCluster(vararg val nodes: FakeNode) {
+        private val balancer = NodeBalancer()
+
+        fun report() = nodes.forEach { it.report() }
+
+        fun place(): FakeNode? {
+            val placed = balancer.place(states()) ?: return null
+            return node(placed.name).apply { players++ }
+        }
+
+        fun rebalance(): Migration? {
+            val migration = balancer.rebalance(states()) { node(it.name).players } ?: return null
+            node(migration.from).players -= migration.count
+            node(migration.to).players += migration.count
+            return migration
+        }
+
+        private fun states() = nodes.map { it.state }
+
+        private fun node(name: String) = nodes.first { it.name == name }
+    }
+}
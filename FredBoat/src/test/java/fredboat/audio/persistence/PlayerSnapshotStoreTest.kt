@@ -0,0 +1,241 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.audio.persistence
+
+import fredboat.definitions.RepeatMode
+import fredboat.testutil.BaseTest
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.util.zip.CRC32
+import java.util.zip.CheckedOutputStream
+
+class PlayerSnapshotStoreTest : BaseTest() {
+
+    companion object {
+        private val AUTHOR = "An author with a rather long name, ".repeat(8)
+    }
+
+    private lateinit var dir: File
+    private lateinit var store: PlayerSnapshotStore
+
+    @BeforeEach
+    fun setUp() {
+        dir = Files.createTempDirectory("music_persistence").toFile()
+        store = PlayerSnapshotStore(dir)
+    }
+
+    @AfterEach
+    fun tearDown() {
+        dir.deleteRecursively()
+    }
+
+    @Test
+    fun snapshotsRoundTrip() {
+        val snapshot = snapshot(1L, 3)
+        val read = PlayerSnapshotCodec.read(ByteArrayInputStream(encode(snapshot)))
+
+        assertEquals(1L, read.guildId)
+        assertEquals(10L, read.voiceChannelId)
+        assertEquals(20L, read.textChannelId)
+        assertTrue(read.isPaused)
+        assertEquals(0.5f, read.volume)
+        assertEquals(RepeatMode.ALL, read.repeatMode)
+        assertTrue(read.isShuffle)
+        assertEquals(42000L, read.position)
+        assertEquals(3, read.tracks.size)
+        read.tracks.forEachIndexed { i, track ->
+            val expected = snapshot.tracks[i]
+            assertArrayEquals(expected.message, track.message)
+            assertEquals(expected.userId, track.userId)
+            assertEquals(expected.title, track.title)
+            assertEquals(expected.author, track.author)
+            assertEquals(expected.duration, track.duration)
+            assertEquals(expected.isStream, track.isStream)
+            assertEquals(expected.identifier, track.identifier)
+            assertEquals(expected.uri, track.uri)
+        }
+        assertNull(read.tracks[0].split)
+        val split = read.tracks[1].split!!
+        assertEquals("Chapter 1", split.title)
+        assertEquals(1000L, split.startPosition)
+        assertEquals(2000L, split.endPosition)
+
+        val empty = PlayerSnapshot(2L, 0, 0, false, 1f, RepeatMode.OFF, false, null, emptyList())
+        val readEmpty = PlayerSnapshotCodec.read(ByteArrayInputStream(encode(empty)))
+        assertNull(readEmpty.position)
+        assertFalse(readEmpty.isPaused)
+        assertTrue(readEmpty.tracks.isEmpty())
+    }
+
+    @Test
+    fun olderVersionsAreRead() {
+        for (version in 1..2) {
+            val read = PlayerSnapshotCodec.read(ByteArrayInputStream(legacySnapshot(version)))
+            assertEquals(1L, read.guildId)
+            assertEquals(42000L, read.position)
+            assertEquals(2, read.tracks.size)
+
+            val track = read.tracks[0]
+            assertArrayEquals(byteArrayOf(1, 2, 3), track.message)
+            assertEquals(100L, track.userId)
+            assertEquals("Track title", track.title)
+            assertEquals(AUTHOR, track.author)
+            assertEquals(if (version == 1) 0L else 60000L, track.duration)
+            assertEquals(version == 2, track.isStream)
+            assertNull(track.identifier, "records of version $version should be completed from their tracks")
+            assertNull(track.uri)
+            assertEquals("Chapter", read.tracks[1].split!!.title)
+        }
+    }
+
+    @Test
+    fun repeatedStringsAreStoredOnce() {
+        val few = encode(snapshot(1L, 10)).size
+        val many = encode(snapshot(1L, 1000)).size
+        val perTrack = (many - few) / 990
+        assertTrue(perTrack < AUTHOR.length / 2,
+                "titles and authors should not be repeated per track, took $perTrack bytes per track")
+    }
+
+    @Test
+    fun corruptedSnapshotsAreRejected() {
+        val bytes = encode(snapshot(1L, 5))
+        assertTrue(PlayerSnapshotCodec.isSnapshot(bytes))
+        assertFalse(PlayerSnapshotCodec.isSnapshot("{\"vc\":1}".toByteArray()))
+
+        for (i in listOf(5, bytes.size / 2, bytes.size - 9)) {
+            val corrupted = bytes.copyOf()
+            corrupted[i] = (corrupted[i] + 1).toByte()
+            assertThrows<IOException>("flipped byte $i") { PlayerSnapshotCodec.read(ByteArrayInputStream(corrupted)) }
+        }
+        for (length in listOf(0, 3, bytes.size / 2, bytes.size - 1)) {
+            assertThrows<IOException>("cut to $length bytes") {
+                PlayerSnapshotCodec.read(ByteArrayInputStream(bytes.copyOf(length)))
+            }
+        }
+    }
+
+    @Test
+    fun writesReplaceThePreviousSnapshot() {
+        store.write(snapshot(1L, 5))
+        store.write(snapshot(1L, 2))
+        store.write(snapshot(2L, 1))
+
+        assertEquals(setOf("1", "2"), store.list().map { it.name }.toSet())
+        assertEquals(2, store.read(store.fileOf(1L)).tracks.size)
+        assertEquals(1, store.read(store.fileOf(2L)).tracks.size)
+
+        assertTrue(store.delete(2L))
+        assertEquals(listOf("1"), store.list().map { it.name })
+    }
+
+    @Test
+    fun unfinishedWritesAreDiscarded() {
+        store.write(snapshot(1L, 5))
+        //a crash in the middle of writing the next snapshot of the guild
+        val partial = encode(snapshot(1L, 7))
+        File(dir, "1.tmp").writeBytes(partial.copyOf(partial.size / 2))
+
+        assertEquals(listOf("1"), store.list().map { it.name })
+        assertFalse(File(dir, "1.tmp").exists())
+        assertEquals(5, store.read(store.fileOf(1L)).tracks.size)
+    }
+
+    private fun snapshot(guildId: Long, trackCount: Int) = PlayerSnapshot(
+            guildId,
+            10L,
+            20L,
+            true,
+            0.5f,
+            RepeatMode.ALL,
+            true,
+            42000L,
+            (0 until trackCount).map { i ->
+                val split = if (i % 2 == 1) TrackRecord.Split("Chapter $i", i * 1000L, i * 2000L) else null
+                TrackRecord(ByteArray(16) { (it + i).toByte() }, 100L + i, "Track title ${i % 3}",
+                        AUTHOR, 60000L * i, i == 2, "video$i", if (i == 2) null else "https://example.com/$i", split)
+            }
+    )
+
+    //a snapshot like versions 1 and 2 wrote it, which did not store identifiers and uris
+    private fun legacySnapshot(version: Int): ByteArray {
+        val bytes = ByteArrayOutputStream()
+        val checked = CheckedOutputStream(bytes, CRC32())
+        val out = DataOutputStream(checked)
+        out.writeInt(0x46424D50)
+        out.writeByte(version)
+        out.writeLong(1L)
+        out.writeLong(10L)
+        out.writeLong(20L)
+        out.writeByte(4) //position
+        out.writeFloat(1f)
+        out.writeByte(RepeatMode.OFF.ordinal)
+        out.writeLong(42000L)
+        val strings = listOf("Track title", AUTHOR, "Chapter")
+        out.writeInt(strings.size)
+        strings.forEach {
+            out.writeInt(it.length)
+            out.write(it.toByteArray())
+        }
+        out.writeInt(2)
+        for (split in listOf(false, true)) {
+            val recordBytes = ByteArrayOutputStream()
+            val record = DataOutputStream(recordBytes)
+            record.writeLong(100L)
+            record.writeInt(0)
+            record.writeInt(1)
+            if (version >= 2) record.writeLong(60000L)
+            record.writeByte((if (split) 1 else 0) or (if (version >= 2) 2 else 0))
+            if (split) {
+                record.writeInt(2)
+                record.writeLong(0L)
+                record.writeLong(1000L)
+            }
+            record.writeInt(3)
+            record.write(byteArrayOf(1, 2, 3))
+            out.writeInt(recordBytes.size())
+            recordBytes.writeTo(out)
+        }
+        out.flush()
+        DataOutputStream(bytes).writeLong(checked.checksum.value)
+        return bytes.toByteArray()
+    }
+
+    private fun encode(snapshot: PlayerSnapshot): ByteArray {
+        val out = ByteArrayOutputStream()
+        PlayerSnapshotCodec.write(snapshot, out)
+        return out.toByteArray()
+    }
+}
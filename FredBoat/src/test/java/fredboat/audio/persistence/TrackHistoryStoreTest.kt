@@ -0,0 +1,184 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.audio.persistence
+
+import com.google.common.base.Ticker
+import fredboat.testutil.BaseTest
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.file.Files
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class TrackHistoryStoreTest : BaseTest() {
+
+    companion object {
+        private const val MAX_ENTRIES = 10
+    }
+
+    private lateinit var dir: File
+    private lateinit var store: TrackHistoryStore
+    private var nanos = 0L
+    private val ticker = object : Ticker() {
+        override fun read() = nanos
+    }
+
+    @BeforeEach
+    fun setUp() {
+        dir = Files.createTempDirectory("track_history").toFile()
+        store = TrackHistoryStore(dir, MAX_ENTRIES, ticker)
+    }
+
+    @AfterEach
+    fun tearDown() {
+        dir.deleteRecursively()
+    }
+
+    @Test
+    fun recordsAreReadLatestFirst() {
+        (0 until 5).forEach { store.append(1L, record(it)) }
+        store.append(2L, record(100))
+
+        assertEquals(5, store.count(1L))
+        assertEquals(listOf("4", "3", "2", "1", "0"), store.read(1L, 0, 5).map { it.title })
+        assertEquals(listOf("2", "1"), store.read(1L, 2, 4).map { it.title })
+        assertEquals(listOf("0"), store.read(1L, 4, 10).map { it.title }, "the end should be clamped to the count")
+        assertTrue(store.read(1L, 5, 10).isEmpty())
+        assertEquals(1, store.count(2L))
+        assertEquals(0, store.count(3L))
+
+        val read = store.read(1L, 0, 1).single()
+        val written = record(4)
+        assertArrayEquals(written.message, read.message)
+        assertEquals(written.userId, read.userId)
+        assertEquals(written.author, read.author)
+        assertEquals(written.duration, read.duration)
+        assertEquals(written.isStream, read.isStream)
+        assertEquals(written.identifier, read.identifier)
+        assertEquals(written.uri, read.uri)
+        assertNull(store.read(1L, 4, 5).single().identifier)
+        assertEquals("split 4", read.split!!.title)
+        assertEquals(4000L, read.split!!.endPosition)
+    }
+
+    @Test
+    fun historyIsCompactedToTheLatestRecords() {
+        (0 until 2 * MAX_ENTRIES).forEach { store.append(1L, record(it)) }
+        assertEquals(MAX_ENTRIES, store.count(1L))
+        val compactedLength = store.fileOf(1L).length()
+
+        (2 * MAX_ENTRIES until 3 * MAX_ENTRIES + 5).forEach { store.append(1L, record(it)) }
+        assertEquals(MAX_ENTRIES + 5, store.count(1L))
+        assertEquals((3 * MAX_ENTRIES + 4 downTo 2 * MAX_ENTRIES).map { it.toString() },
+                store.read(1L, 0, MAX_ENTRIES + 5).map { it.title })
+        assertTrue(store.fileOf(1L).length() < 2 * compactedLength)
+
+        assertEquals(MAX_ENTRIES + 5, TrackHistoryStore(dir, MAX_ENTRIES).count(1L), "compacted files should be readable")
+    }
+
+    @Test
+    fun incompleteRecordsAreTruncated() {
+        (0 until 3).forEach { store.append(1L, record(it)) }
+        val file = store.fileOf(1L)
+        val length = file.length()
+        store.append(1L, record(3))
+        RandomAccessFile(file, "rw").use { it.setLength(file.length() - 3) }
+
+        val reopened = TrackHistoryStore(dir, MAX_ENTRIES)
+        assertEquals(3, reopened.count(1L))
+        assertEquals(length, file.length())
+        reopened.append(1L, record(4))
+        assertEquals(listOf("4", "2", "1", "0"), reopened.read(1L, 0, 4).map { it.title })
+    }
+
+    @Test
+    fun deletedHistoryIsEmpty() {
+        store.append(1L, record(0))
+        assertTrue(store.delete(1L))
+        assertEquals(0, store.count(1L))
+        assertTrue(store.read(1L, 0, 10).isEmpty())
+    }
+
+    @Test
+    fun idleGuildsAreRecounted() {
+        (0 until 3).forEach { store.append(1L, record(it)) }
+        store.append(2L, record(3))
+        assertEquals(2, store.countedGuilds)
+
+        nanos += TimeUnit.MINUTES.toNanos(TrackHistoryStore.IDLE_MINUTES) - 1
+        assertEquals(3, store.count(1L))
+        nanos += 1
+        store.append(1L, record(4))
+        assertEquals(1, store.countedGuilds, "the idle guild should have been forgotten")
+
+        nanos += TimeUnit.MINUTES.toNanos(TrackHistoryStore.IDLE_MINUTES)
+        assertEquals(4, store.count(1L))
+        assertEquals(1, store.count(2L))
+        assertEquals(listOf("4", "2", "1", "0"), store.read(1L, 0, 10).map { it.title })
+    }
+
+    @Test
+    fun guildsAreAppendedToConcurrently() {
+        val guilds = 4
+        val appends = 3 * MAX_ENTRIES
+        val executor = Executors.newFixedThreadPool(2 * guilds)
+        try {
+            //two threads per guild, each appending every other record
+            val futures = (0 until 2 * guilds).map { thread ->
+                executor.submit {
+                    for (i in thread % 2 until appends step 2) store.append(thread / 2L, record(i))
+                }
+            }
+            futures.forEach { it.get(10, TimeUnit.SECONDS) }
+        } finally {
+            executor.shutdownNow()
+        }
+
+        val reopened = TrackHistoryStore(dir, MAX_ENTRIES)
+        for (guild in 0L until guilds) {
+            assertEquals(store.count(guild), reopened.count(guild), "all records of guild $guild should be complete")
+            val titles = reopened.read(guild, 0, 2 * MAX_ENTRIES).map { it.title.toInt() }
+            assertEquals(titles.size, titles.toSet().size)
+            assertTrue(titles.first() >= appends - 2, "the latest record should be one of the last appended")
+        }
+    }
+
+    private fun record(i: Int) = TrackRecord(
+            ByteArray(16 + i) { it.toByte() },
+            1000L + i,
+            i.toString(),
+            "Author",
+            60000L * i,
+            i % 3 == 0,
+            if (i % 5 == 0) null else "video$i",
+            if (i % 5 == 0 || i % 7 == 0) null else "https://example.com/$i",
+            if (i % 2 == 0) TrackRecord.Split("split $i", 0L, 1000L * i) else null
+    )
+}
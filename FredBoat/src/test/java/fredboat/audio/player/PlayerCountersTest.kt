@@ -0,0 +1,103 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.audio.player
+
+import fredboat.testutil.BaseTest
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import java.util.*
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Runs made up players through random state changes from several threads, and checks the counters against a look at
+ * each of the players.
+ */
+class PlayerCountersTest : BaseTest() {
+
+    private val counters = PlayerCounters()
+
+    private class FakePlayer(val registration: PlayerCounters.Registration) {
+        @Volatile
+        var state = PlayerCounts.NONE
+
+        fun change(random: Random) {
+            registration.report {
+                val playing = random.nextBoolean()
+                state = PlayerCounts(
+                        playing = if (playing) 1 else 0,
+                        paused = if (!playing && random.nextBoolean()) 1 else 0,
+                        queuedTracks = random.nextInt(100),
+                        listeners = if (playing) random.nextInt(10) else 0
+                )
+                state
+            }
+        }
+    }
+
+    @Test
+    fun countersAgreeWithTheFullScan() {
+        val players = (0 until 200).map { FakePlayer(counters.register()) }
+        val removed = Collections.newSetFromMap(IdentityHashMap<FakePlayer, Boolean>())
+        val executor = Executors.newFixedThreadPool(8)
+        (0 until 8).forEach { thread ->
+            executor.execute {
+                val random = Random(thread.toLong())
+                repeat(20_000) {
+                    val player = players[random.nextInt(players.size)]
+                    if (thread == 0 && it % 1000 == 0) {
+                        synchronized(removed) { removed.add(player) }
+                        player.registration.remove()
+                    } else {
+                        player.change(random)
+                    }
+                }
+            }
+        }
+        executor.shutdown()
+        executor.awaitTermination(1, TimeUnit.MINUTES)
+
+        val scan = players.filterNot { removed.contains(it) }.map { it.state }
+        assertEquals(scan.sumBy { it.playing }.toLong(), counters.playingCount)
+        assertEquals(scan.sumBy { it.paused }.toLong(), counters.pausedCount)
+        assertEquals(scan.sumBy { it.queuedTracks }.toLong(), counters.queuedTracksCount)
+        assertEquals(scan.sumBy { it.listeners }.toLong(), counters.listenersCount)
+    }
+
+    @Test
+    fun removedPlayersAreNotCountedAgain() {
+        val registration = counters.register()
+        registration.report { PlayerCounts(playing = 1, queuedTracks = 5, listeners = 2) }
+        assertEquals(1, counters.playingCount)
+        assertEquals(5, counters.queuedTracksCount)
+
+        registration.remove()
+        registration.report { PlayerCounts(playing = 1, queuedTracks = 3) }
+        assertEquals(0, counters.playingCount)
+        assertEquals(0, counters.queuedTracksCount)
+        assertEquals(0, counters.listenersCount)
+    }
+}
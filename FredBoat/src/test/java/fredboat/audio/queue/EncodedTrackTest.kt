@@ -0,0 +1,123 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.audio.queue
+
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioSourceManager
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioTrack
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo
+import fredboat.testutil.BaseTest
+import fredboat.testutil.Heap
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import java.io.IOException
+
+class EncodedTrackTest : BaseTest() {
+
+    companion object {
+        private const val QUEUE_SIZE = 10000
+    }
+
+    private val sourceManager = YoutubeAudioSourceManager()
+    private val playerManager = DefaultAudioPlayerManager().apply { registerSourceManager(sourceManager) }
+    //keeps the measured queue reachable until the heap is measured
+    private var retained: Any? = null
+
+    @AfterEach
+    fun tearDown() {
+        playerManager.shutdown()
+    }
+
+    @Test
+    fun encodedTracksDecodeToTheSameTrack() {
+        val encoded = EncodedTrack.encode(track(1), playerManager)
+        assertEquals("Title 1", encoded.title)
+        assertEquals("Author 1", encoded.author)
+        assertEquals(180001L, encoded.duration)
+        assertFalse(encoded.isStream)
+        assertEquals(track(1).info.identifier, encoded.identifier)
+        assertEquals(track(1).info.uri, encoded.uri)
+
+        val decoded = encoded.decode()
+        assertEquals(track(1).info.identifier, decoded.info.identifier)
+        assertEquals(track(1).info.uri, decoded.info.uri)
+        assertEquals(180001L, decoded.duration)
+        assertNotSame(decoded, encoded.decode(), "each decoding should make a new track")
+    }
+
+    @Test
+    fun infoIsOnlyDecodedWithoutIdentifier() {
+        val garbage = byteArrayOf(1, 2, 3)
+        val info = EncodedTrack(garbage, "Title", "Author", 1000L, false, "video", null, playerManager).info
+        assertEquals("video", info.identifier)
+        assertEquals("Title", info.title)
+        assertNull(info.uri)
+
+        val message = EncodedTrack.encode(track(2), playerManager).message
+        val legacy = EncodedTrack(message, "Title 2", "Author 2", 180002L, false, null, null, playerManager)
+        assertEquals(track(2).info.uri, legacy.info.uri, "tracks without identifier should be decoded for their info")
+        assertThrows<IOException> { EncodedTrack(garbage, "", "", 0L, false, null, null, playerManager).info }
+    }
+
+    @Test
+    fun encodedQueueHeap() {
+        val messages = (0 until QUEUE_SIZE).map { EncodedTrack.encode(track(it), playerManager).message }
+
+        //what a restored queue used to hold: a decoded track for each entry
+        val decoded = heapRetainedBy {
+            messages.map { EncodedTrack(it, "", "", 0, false, null, null, playerManager).decode() }
+        }
+        val encoded = heapRetainedBy {
+            messages.map { message ->
+                val info = EncodedTrack(message, "", "", 0, false, null, null, playerManager).decode().info
+                EncodedTrack(message, info.title, info.author, info.length, info.isStream, info.identifier, info.uri,
+                        playerManager)
+            }
+        }
+
+        log.info("A queue of {} tracks retains {}KiB decoded, {}KiB encoded, which is {} bytes less per track",
+                QUEUE_SIZE, decoded / 1024, encoded / 1024, (decoded - encoded) / QUEUE_SIZE)
+        assertTrue(encoded < decoded, "encoded tracks should take less heap than decoded ones")
+    }
+
+    private fun track(i: Int): AudioTrack {
+        val identifier = "video%06d".format(i)
+        return YoutubeAudioTrack(AudioTrackInfo("Title $i", "Author ${i % 100}", 180000L + i, identifier, false,
+                "https://www.youtube.com/watch?v=$identifier"), sourceManager)
+    }
+
+    //the measured messages are retained before and after, so only what is created from them is counted
+    private fun heapRetainedBy(create: () -> Any): Long {
+        val before = Heap.used()
+        retained = create()
+        val after = Heap.used()
+        retained = null
+        return after - before
+    }
+}
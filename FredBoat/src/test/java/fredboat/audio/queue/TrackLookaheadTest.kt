@@ -0,0 +1,228 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.audio.queue
+
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioSourceManager
+import com.sedmelluq.discord.lavaplayer.source.youtube.YoutubeAudioTrack
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo
+import fredboat.definitions.RepeatMode
+import fredboat.sentinel.Guild
+import fredboat.sentinel.Member
+import fredboat.testutil.BaseTest
+import fredboat.testutil.sentinel.Raws
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import java.io.DataInput
+import java.util.*
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Plays queues of encoded tracks from a local source manager that takes a while to decode them, like one that has to
+ * look its tracks up again, and checks which of them leave a gap between tracks with and without decoding them ahead
+ * of time.
+ */
+class TrackLookaheadTest : BaseTest() {
+
+    companion object {
+        private const val DECODE_MILLIS = 100L
+        private const val TRACKS = 8
+    }
+
+    private val sourceManager = SlowSourceManager()
+    private val playerManager = DefaultAudioPlayerManager().apply { registerSourceManager(sourceManager) }
+    private val executor = Executors.newCachedThreadPool()
+    private val member = object : Member(object : Guild(Raws.guild) {}, Raws.napster) {}
+    private var now = 0L
+    private val testThread = Thread.currentThread()
+
+    @AfterEach
+    fun tearDown() {
+        executor.shutdownNow()
+        playerManager.shutdown()
+    }
+
+    @Test
+    fun upcomingEntriesAreDecodedAheadOfTime() {
+        val provider = queue(5)
+        val lookahead = TrackLookahead(provider, executor, depth = 2)
+
+        lookahead.refresh()
+        assertEquals(2, lookahead.size)
+        awaitDecodes(2)
+        val first = provider.provideAudioTrack()!!
+        assertTrue(lookahead.take(first))
+        assertTrue(first.isDecoded)
+        assertEquals("Title 0", first.track.info.title)
+        assertTrue(provider.asList.none { it.isDecoded }, "upcoming entries should only be decoded once played")
+
+        lookahead.refresh()
+        assertEquals(2, lookahead.size)
+        awaitDecodes(3)
+        assertTrue(lookahead.take(provider.provideAudioTrack()!!))
+        lookahead.refresh()
+        awaitDecodes(4)
+        lookahead.refresh()
+        Thread.sleep(2 * DECODE_MILLIS)
+        assertEquals(4, sourceManager.decodes.get(), "entries should not be decoded again")
+    }
+
+    @Test
+    fun shuffleAndRepeatModeAreRespected() {
+        val provider = queue(10)
+        val lookahead = TrackLookahead(provider, executor, depth = 2)
+
+        provider.isShuffle = true
+        lookahead.refresh()
+        for (decodes in 2..4) {
+            awaitDecodes(decodes)
+            assertTrue(lookahead.take(provider.provideAudioTrack()!!), "the next shuffled entry should be decoded")
+            lookahead.refresh()
+        }
+        awaitDecodes(5)
+
+        //only skips go on to the next entry, the repeated one is decoded already
+        provider.repeatMode = RepeatMode.SINGLE
+        lookahead.refresh()
+        assertEquals(1, lookahead.size)
+        val repeated = provider.provideAudioTrack()!!
+        assertTrue(repeated.isDecoded)
+        provider.skipped()
+        assertTrue(lookahead.take(provider.provideAudioTrack()!!))
+    }
+
+    @Test
+    fun queueChangesForgetEntriesThatAreNotUpcoming() {
+        val provider = queue(5)
+        val lookahead = TrackLookahead(provider, executor, depth = 2)
+        lookahead.refresh()
+        val removed = provider.peek()!!
+
+        provider.remove(removed)
+        lookahead.refresh()
+        assertEquals(2, lookahead.size)
+        assertFalse(lookahead.take(removed), "removed entries should not be decoded ahead of time anymore")
+
+        provider.clear()
+        lookahead.refresh()
+        assertEquals(0, lookahead.size)
+    }
+
+    @Test
+    fun expiredTracksAreDecodedAgain() {
+        val provider = queue(3)
+        //decoded right away, so that the time of decoding is known
+        val lookahead = TrackLookahead(provider, Executor { it.run() }, depth = 1, expiryMillis = 1000, clock = { now })
+        lookahead.refresh()
+        awaitDecodes(1)
+
+        now += 1000
+        assertFalse(lookahead.take(provider.provideAudioTrack()!!), "an expired track should not be used")
+
+        lookahead.refresh()
+        awaitDecodes(2)
+        now += 999
+        assertTrue(lookahead.take(provider.provideAudioTrack()!!))
+    }
+
+    @Test
+    fun gapsBetweenTracks() {
+        val titles = (0 until TRACKS).map { "Title $it" }
+
+        //every track is decoded by the player once the previous one ended
+        play(queue(TRACKS), null)
+        assertEquals(titles, sourceManager.decoded.map { it.title })
+        assertTrue(sourceManager.decoded.all { it.byPlayer })
+
+        sourceManager.decoded.clear()
+        sourceManager.decodes.set(0)
+        val provider = queue(TRACKS)
+        //a single thread decodes the upcoming tracks in the order they were handed to it
+        val loader = Executors.newSingleThreadExecutor()
+        play(provider, TrackLookahead(provider, loader))
+        loader.shutdown()
+        assertEquals(titles, sourceManager.decoded.map { it.title }, "tracks should be decoded in the order they play")
+        assertTrue(sourceManager.decoded.none { it.byPlayer }, "no track should have been decoded when it was played")
+    }
+
+    //plays each track until the lookahead decoded the upcoming ones, like a track that is longer than their decoding
+    private fun play(provider: SimpleTrackProvider, lookahead: TrackLookahead?) {
+        lookahead?.refresh()
+        var played = 0
+        while (true) {
+            if (lookahead != null) awaitDecodes(minOf(played + TrackLookahead.DEFAULT_DEPTH, TRACKS))
+            //the previous track ended
+            val atc = provider.provideAudioTrack() ?: break
+            if (lookahead?.take(atc) != true) assertTrue(atc.decode())
+            assertEquals("Title $played", atc.track.info.title)
+            played++
+            lookahead?.refresh()
+        }
+        assertEquals(TRACKS, played)
+    }
+
+    private fun queue(size: Int) = SimpleTrackProvider().apply {
+        addAll((0 until size).map { AudioTrackContext(EncodedTrack.encode(track(it), playerManager), member) })
+    }
+
+    private fun track(i: Int): AudioTrack {
+        val identifier = "video%06d".format(i)
+        return YoutubeAudioTrack(AudioTrackInfo("Title $i", "Author $i", 180000L, identifier, false,
+                "https://www.youtube.com/watch?v=$identifier"), sourceManager)
+    }
+
+    private fun awaitDecodes(decodes: Int) {
+        val deadline = System.currentTimeMillis() + 10 * DECODE_MILLIS * decodes
+        synchronized(sourceManager) {
+            while (sourceManager.decodes.get() < decodes && System.currentTimeMillis() < deadline) {
+                (sourceManager as Object).wait(maxOf(1, deadline - System.currentTimeMillis()))
+            }
+        }
+        assertEquals(decodes, sourceManager.decodes.get())
+    }
+
+    private class Decode(val title: String, val byPlayer: Boolean)
+
+    //a source manager that has to look its tracks up again when they are decoded
+    private inner class SlowSourceManager : YoutubeAudioSourceManager() {
+        val decodes = AtomicInteger()
+        val decoded: MutableList<Decode> = Collections.synchronizedList(mutableListOf())
+
+        override fun decodeTrack(trackInfo: AudioTrackInfo, input: DataInput): AudioTrack {
+            Thread.sleep(DECODE_MILLIS)
+            decoded.add(Decode(trackInfo.title, Thread.currentThread() === testThread))
+            synchronized(this) {
+                decodes.incrementAndGet()
+                (this as Object).notifyAll()
+            }
+            return super.decodeTrack(trackInfo, input)
+        }
+    }
+}
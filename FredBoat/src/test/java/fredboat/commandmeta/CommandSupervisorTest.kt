@@ -0,0 +1,81 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.commandmeta
+
+import fredboat.testutil.BaseTest
+import kotlinx.coroutines.*
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+
+class CommandSupervisorTest : BaseTest() {
+
+    private val supervisor = CommandSupervisor(Dispatchers.Unconfined)
+
+    @AfterEach
+    fun tearDown() {
+        supervisor.shutdown()
+    }
+
+    @Test
+    fun guildsAreForgottenOnceTheirCoroutinesCompleted() = runBlocking {
+        val first = CompletableDeferred<Unit>()
+        val second = CompletableDeferred<Unit>()
+        supervisor.launch(1L) { first.await() }
+        supervisor.launch(1L) { second.await() }
+        supervisor.launch(2L) { }
+        assertEquals(1, supervisor.activeGuilds, "guilds without running coroutines should not be kept")
+
+        first.complete(Unit)
+        assertEquals(1, supervisor.activeGuilds)
+        second.complete(Unit)
+        assertEquals(0, supervisor.activeGuilds)
+
+        val again = CompletableDeferred<Unit>()
+        val job = supervisor.launch(1L) { again.await() }
+        assertTrue(job.isActive, "a guild should be usable again after it was forgotten")
+        again.complete(Unit)
+        job.join()
+        assertEquals(0, supervisor.activeGuilds)
+    }
+
+    @Test
+    fun cancelledGuildsAreForgotten() = runBlocking {
+        val running = supervisor.launch(1L) { awaitCancellation() }
+        val other = supervisor.launch(2L) { awaitCancellation() }
+
+        supervisor.cancel(1L)
+        running.join()
+        assertTrue(running.isCancelled)
+        assertTrue(other.isActive, "other guilds should not be affected")
+        assertEquals(1, supervisor.activeGuilds)
+
+        other.cancelAndJoin()
+        assertEquals(0, supervisor.activeGuilds)
+    }
+
+    private suspend fun awaitCancellation(): Nothing = CompletableDeferred<Nothing>().await()
+}
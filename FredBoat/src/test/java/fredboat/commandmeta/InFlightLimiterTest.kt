@@ -0,0 +1,100 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.commandmeta
+
+import fredboat.testutil.BaseTest
+import kotlinx.coroutines.*
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+class InFlightLimiterTest : BaseTest() {
+
+    @Test
+    fun tasksOverTheLimitWaitInOrder() = runBlocking {
+        val limiter = InFlightLimiter(2, 2)
+        assertTrue(limiter.acquire(1L))
+        assertTrue(limiter.acquire(1L))
+        assertTrue(limiter.acquire(2L), "other keys should not be limited")
+
+        val admitted = mutableListOf<Int>()
+        val third = launch { assertTrue(limiter.acquire(1L)); admitted.add(3) }
+        val fourth = launch { assertTrue(limiter.acquire(1L)); admitted.add(4) }
+        yield()
+        assertEquals(2, limiter.waiting)
+        assertFalse(limiter.acquire(1L), "the queue should be full")
+
+        limiter.release(1L)
+        third.join()
+        assertEquals(listOf(3), admitted)
+        limiter.release(1L)
+        fourth.join()
+        assertEquals(listOf(3, 4), admitted)
+        assertEquals(0, limiter.waiting)
+    }
+
+    @Test
+    fun cancelledTasksGiveUpTheirPlace() = runBlocking {
+        val limiter = InFlightLimiter(1, 2)
+        assertTrue(limiter.acquire(1L))
+        val cancelled = launch { limiter.acquire(1L) }
+        val waiting = async { limiter.acquire(1L) }
+        yield()
+        cancelled.cancelAndJoin()
+        assertEquals(1, limiter.waiting)
+
+        limiter.release(1L)
+        assertTrue(waiting.await(), "the slot should go to the task that is still waiting")
+        limiter.release(1L)
+        assertTrue(limiter.acquire(1L), "all slots should have been released")
+    }
+
+    @Test
+    fun concurrentTasksNeverExceedTheLimit() {
+        val pool = Executors.newFixedThreadPool(8)
+        val limiter = InFlightLimiter(3, Int.MAX_VALUE)
+        val running = AtomicInteger()
+        val maxRunning = AtomicInteger()
+        runBlocking(pool.asCoroutineDispatcher()) {
+            repeat(1000) {
+                launch {
+                    assertTrue(limiter.acquire(1L))
+                    try {
+                        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max)
+                        delay(1)
+                        running.decrementAndGet()
+                    } finally {
+                        limiter.release(1L)
+                    }
+                }
+            }
+        }
+        pool.shutdown()
+        assertEquals(3, maxRunning.get())
+        assertEquals(0, limiter.waiting)
+    }
+}
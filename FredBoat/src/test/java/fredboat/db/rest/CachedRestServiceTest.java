@@ -0,0 +1,231 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.db.rest;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gson.Gson;
+import fredboat.db.transfer.GuildConfig;
+import fredboat.db.transfer.GuildPermissions;
+import fredboat.testutil.BaseTest;
+import io.prometheus.client.guava.cache.CacheMetricsCollector;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CachedRestServiceTest extends BaseTest {
+
+    private final FakeQuarterdeck quarterdeck = new FakeQuarterdeck(0);
+    private ExecutorService executor;
+    private RestGuildConfigService guildConfigService;
+    private RestGuildPermsService guildPermsService;
+    private long now = 0;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newCachedThreadPool();
+        CacheMetricsCollector cacheMetrics = new CacheMetricsCollector();
+        guildConfigService = new RestGuildConfigService(quarterdeck.backendConfig(), quarterdeck.restTemplate(),
+                executor, cacheMetrics);
+        guildPermsService = new RestGuildPermsService(quarterdeck.backendConfig(), quarterdeck.restTemplate(),
+                executor, cacheMetrics);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void transformationsAreVisibleBeforeTheyAreWritten() {
+        guildConfigService.transformGuildConfig(1, config -> config.setLang("de_DE"));
+        guildConfigService.transformGuildConfig(1, config -> config.setTrackAnnounce(true));
+        guildConfigService.transformGuildConfig(1, config -> config.setAutoResume(true));
+
+        GuildConfig config = guildConfigService.fetchGuildConfig(1);
+        assertEquals("de_DE", config.getLang());
+        assertTrue(config.isTrackAnnounce());
+        assertTrue(config.isAutoResume());
+        assertEquals(0, quarterdeck.merges.get());
+        assertNull(quarterdeck.getStored(RestGuildConfigService.PATH, 1));
+    }
+
+    @Test
+    void transformationsAreCoalescedIntoOneWrite() {
+        guildConfigService.transformGuildConfig(1, config -> config.setLang("de_DE"));
+        guildConfigService.transformGuildConfig(1, config -> config.setTrackAnnounce(true));
+
+        assertEquals(0, guildConfigService.flushWrites());
+        assertEquals(1, quarterdeck.merges.get());
+        assertEquals(0, guildConfigService.getPendingWriteCount());
+        String stored = quarterdeck.getStored(RestGuildConfigService.PATH, 1);
+        assertTrue(stored.contains("de_DE"));
+        assertTrue(stored.contains("\"trackAnnounce\":true"));
+
+        assertEquals(0, guildConfigService.flushWrites());
+        assertEquals(1, quarterdeck.merges.get(), "nothing should be written when there are no new transformations");
+    }
+
+    @Test
+    void failedWritesAreRetried() {
+        guildConfigService.setClock(() -> now);
+        guildConfigService.transformGuildConfig(1, config -> config.setLang("de_DE"));
+
+        quarterdeck.setDown(true);
+        assertEquals(1, guildConfigService.flushWrites());
+        assertEquals(1, guildConfigService.getPendingWriteCount());
+        assertEquals("de_DE", guildConfigService.fetchGuildConfig(1).getLang());
+
+        quarterdeck.setDown(false);
+        now += CachedRestService.MIN_RETRY_DELAY_MILLIS;
+        assertEquals(0, guildConfigService.flushWrites());
+        assertEquals(0, guildConfigService.getPendingWriteCount());
+        assertTrue(quarterdeck.getStored(RestGuildConfigService.PATH, 1).contains("de_DE"));
+    }
+
+    @Test
+    void failedWritesBackOff() {
+        guildConfigService.setClock(() -> now);
+        guildConfigService.transformGuildConfig(1, config -> config.setLang("de_DE"));
+        quarterdeck.setDown(true);
+
+        List<Long> attempts = new ArrayList<>();
+        for (; now <= TimeUnit.MINUTES.toMillis(10); now += TimeUnit.SECONDS.toMillis(5)) {
+            int requests = quarterdeck.requests.get();
+            assertEquals(1, guildConfigService.flushWrites());
+            if (quarterdeck.requests.get() > requests) attempts.add(now);
+        }
+        //the delay doubles until it reaches the maximum of five minutes
+        assertEquals(List.of(0L, 5000L, 15000L, 35000L, 75000L, 155000L, 315000L), attempts);
+
+        now = CachedRestService.MAX_RETRY_AGE_MILLIS;
+        assertEquals(0, guildConfigService.flushWrites());
+        assertEquals(0, guildConfigService.getPendingWriteCount(), "writes should be dropped after failing for long");
+        quarterdeck.setDown(false);
+        assertEquals(new GuildConfig().getLang(), guildConfigService.fetchGuildConfig(1).getLang(),
+                "the dropped entity should have been loaded again");
+    }
+
+    @Test
+    void rejectedWritesAreDropped() {
+        guildConfigService.transformGuildConfig(1, config -> config.setLang("de_DE"));
+
+        quarterdeck.setRejectingMerges(true);
+        assertEquals(0, guildConfigService.flushWrites());
+        assertEquals(0, guildConfigService.getPendingWriteCount(), "rejected writes should not be retried");
+        assertNull(quarterdeck.getStored(RestGuildConfigService.PATH, 1));
+        assertEquals(new GuildConfig().getLang(), guildConfigService.fetchGuildConfig(1).getLang());
+    }
+
+    @Test
+    void changeEventsInvalidateCachedEntities() {
+        guildConfigService.fetchGuildConfig(1);
+        guildConfigService.fetchGuildConfig(2);
+        assertEquals(2, quarterdeck.fetches.get());
+
+        guildConfigService.invalidate("1");
+        guildConfigService.fetchGuildConfig(1);
+        guildConfigService.fetchGuildConfig(2);
+        assertEquals(3, quarterdeck.fetches.get(), "only the changed entity should be fetched again");
+        assertEquals("guildconfig", guildConfigService.getResource());
+    }
+
+    @Test
+    void versionsOnlyChangeWithTheEntity() {
+        //refreshes are done on the calling thread
+        RestGuildConfigService service = new RestGuildConfigService(quarterdeck.backendConfig(),
+                quarterdeck.restTemplate(), MoreExecutors.newDirectExecutorService(), new CacheMetricsCollector());
+        service.fetchGuildConfig(1);
+        long version = service.getVersion("1");
+
+        service.cache.refresh("1");
+        assertEquals(2, quarterdeck.fetches.get());
+        assertEquals(version, service.getVersion("1"), "refreshing an unchanged entity should keep its version");
+        service.transformGuildConfig(1, config -> config.setLang(config.getLang()));
+        assertEquals(version, service.getVersion("1"), "transformations that change nothing should keep the version");
+
+        service.transformGuildConfig(1, config -> config.setTrackAnnounce(true));
+        long transformed = service.getVersion("1");
+        assertTrue(transformed > version);
+        service.flushWrites();
+        assertEquals(transformed, service.getVersion("1"), "writing an entity should keep its version");
+
+        guildConfigService.transformGuildConfig(1, config -> config.setLang("de_DE"));
+        guildConfigService.flushWrites();
+        service.cache.refresh("1");
+        assertTrue(service.getVersion("1") > transformed, "refreshing a changed entity should change its version");
+    }
+
+    @Test
+    void concurrentTransformationsAreNotLost() throws Exception {
+        int writers = 32;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        Future<?> flusher = executor.submit(() -> {
+            while (writing.get()) {
+                guildPermsService.flushWrites();
+            }
+        });
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            String member = Integer.toString(i);
+            futures.add(executor.submit(() -> {
+                start.await();
+                return guildPermsService.transform("1", perms -> {
+                    List<String> admins = new ArrayList<>(perms.getAdminList());
+                    admins.add(member);
+                    return perms.setAdminList(admins);
+                });
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        writing.set(false);
+        flusher.get();
+        guildPermsService.flushWrites();
+
+        GuildPermissions written = new Gson().fromJson(
+                quarterdeck.getStored(RestGuildPermsService.PATH, 1), GuildPermissions.class);
+        for (int i = 0; i < writers; i++) {
+            assertTrue(written.getAdminList().contains(Integer.toString(i)), "write of member " + i + " got lost");
+        }
+        assertEquals(0, guildPermsService.getPendingWriteCount());
+    }
+}
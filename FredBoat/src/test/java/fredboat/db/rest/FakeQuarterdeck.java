@@ -0,0 +1,225 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.db.rest;
+
+import com.google.gson.Gson;
+import fredboat.config.property.BackendConfig;
+import fredboat.db.transfer.GuildConfig;
+import fredboat.db.transfer.GuildData;
+import fredboat.db.transfer.GuildModules;
+import fredboat.db.transfer.GuildPermissions;
+import fredboat.db.transfer.TransferObject;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.converter.json.GsonHttpMessageConverter;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.Serializable;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Stand-in for Quarterdeck that keeps the guild scoped entities in memory. Entities that were never merged are
+ * fetched with their default values. Each request is answered after a configurable delay. Requests can be held until
+ * a number of them is in flight at the same time, to tell whether a client sends them in parallel.
+ */
+class FakeQuarterdeck implements ClientHttpRequestFactory {
+
+    static final String HOST = "http://quarterdeck/";
+    private static final long HOLD_TIMEOUT_MILLIS = 1000;
+
+    private static final Map<String, Function<String, TransferObject<?>>> DEFAULTS = new HashMap<>();
+
+    static {
+        DEFAULTS.put(RestGuildConfigService.PATH, id -> withId(new GuildConfig(), id));
+        DEFAULTS.put(RestGuildPermsService.PATH, id -> withId(new GuildPermissions(), id));
+        DEFAULTS.put(RestGuildModulesService.PATH, id -> withId(new GuildModules(), Long.parseLong(id)));
+        DEFAULTS.put(RestGuildDataService.PATH, id -> withId(new GuildData(), Long.parseLong(id)));
+    }
+
+    final AtomicInteger fetches = new AtomicInteger();
+    final AtomicInteger merges = new AtomicInteger();
+    final AtomicInteger requests = new AtomicInteger();
+    //the most requests that were in flight at the same time
+    final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile CountDownLatch held = new CountDownLatch(0);
+    //entity json by resource path and id
+    private final Map<String, String> stored = new ConcurrentHashMap<>();
+    private final Gson gson = new Gson();
+    private final long latencyMillis;
+    private volatile boolean down = false;
+    private volatile boolean rejectingMerges = false;
+
+    FakeQuarterdeck(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    RestTemplate restTemplate() {
+        RestTemplate restTemplate = new RestTemplate(Collections.singletonList(new GsonHttpMessageConverter()));
+        restTemplate.setRequestFactory(this);
+        return restTemplate;
+    }
+
+    BackendConfig backendConfig() {
+        return () -> new BackendConfig.Quarterdeck() {
+            @Override
+            public String getHost() {
+                return HOST;
+            }
+
+            @Override
+            public String getUser() {
+                return "";
+            }
+
+            @Override
+            public String getPass() {
+                return "";
+            }
+
+            @Override
+            public String getBasicAuth() {
+                return "";
+            }
+
+            @Override
+            public boolean isChangeEvents() {
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param down true to answer all requests with an error
+     */
+    void setDown(boolean down) {
+        this.down = down;
+    }
+
+    /**
+     * @param rejectingMerges true to answer merges with a client error, as if the merged entities were invalid
+     */
+    void setRejectingMerges(boolean rejectingMerges) {
+        this.rejectingMerges = rejectingMerges;
+    }
+
+    /**
+     * Hold the next requests until the given number of them is in flight, or until a timeout if that never happens
+     * because they are sent one after another.
+     */
+    void holdUntilInFlight(int count) {
+        held = new CountDownLatch(count);
+    }
+
+    /**
+     * @return the stored json of an entity, or null if it was never merged
+     */
+    String getStored(String resource, Object id) {
+        return stored.get(resource + id);
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) {
+        return new MockClientHttpRequest(httpMethod, uri) {
+            @Override
+            protected ClientHttpResponse executeInternal() {
+                requests.incrementAndGet();
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                try {
+                    return answer(uri.getPath(), getBodyAsString());
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            }
+        };
+    }
+
+    private ClientHttpResponse answer(String path, String body) {
+        try {
+            CountDownLatch held = this.held;
+            held.countDown();
+            held.await(HOLD_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (down) {
+            return new MockClientHttpResponse(new byte[0], HttpStatus.SERVICE_UNAVAILABLE);
+        }
+
+        String endpoint = path.substring(path.lastIndexOf('/') + 1);
+        String resource = path.substring(0, path.lastIndexOf('/') + 1);
+        resource = resource.substring(resource.lastIndexOf('/', resource.length() - 2) + 1);
+        Function<String, TransferObject<?>> defaults = DEFAULTS.get(resource);
+        if (defaults == null) {
+            return new MockClientHttpResponse(new byte[0], HttpStatus.NOT_FOUND);
+        }
+
+        String json;
+        if ("fetch".equals(endpoint)) {
+            fetches.incrementAndGet();
+            String id = body.replace("\"", "");
+            json = stored.get(resource + id);
+            if (json == null) {
+                json = gson.toJson(defaults.apply(id));
+            }
+        } else if ("merge".equals(endpoint)) {
+            if (rejectingMerges) {
+                return new MockClientHttpResponse(new byte[0], HttpStatus.BAD_REQUEST);
+            }
+            merges.incrementAndGet();
+            TransferObject<?> entity = gson.fromJson(body, defaults.apply("0").getClass());
+            stored.put(resource + entity.getId(), body);
+            json = body;
+        } else {
+            return new MockClientHttpResponse(new byte[0], HttpStatus.NOT_FOUND);
+        }
+
+        MockClientHttpResponse response = new MockClientHttpResponse(json.getBytes(StandardCharsets.UTF_8), HttpStatus.OK);
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        return response;
+    }
+
+    private static <I extends Serializable, E extends TransferObject<I>> E withId(E entity, I id) {
+        entity.setId(id);
+        return entity;
+    }
+}
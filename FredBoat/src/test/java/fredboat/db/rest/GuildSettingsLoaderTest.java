@@ -0,0 +1,135 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.db.rest;
+
+import fredboat.config.property.BackendConfig;
+import fredboat.db.GuildSettings;
+import fredboat.definitions.Module;
+import fredboat.testutil.BaseTest;
+import io.prometheus.client.guava.cache.CacheMetricsCollector;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the guild settings services against a stand-in for Quarterdeck, and checks that the settings of a cold guild
+ * are requested in parallel when they are loaded up front.
+ */
+class GuildSettingsLoaderTest extends BaseTest {
+
+    private final FakeQuarterdeck quarterdeck = new FakeQuarterdeck(0);
+    private ExecutorService executor;
+    private RestGuildConfigService guildConfigService;
+    private RestGuildModulesService guildModulesService;
+    private RestGuildPermsService guildPermsService;
+    private GuildSettingsLoader loader;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newCachedThreadPool();
+        RestTemplate restTemplate = quarterdeck.restTemplate();
+        BackendConfig backendConfig = quarterdeck.backendConfig();
+        CacheMetricsCollector cacheMetrics = new CacheMetricsCollector();
+
+        guildConfigService = new RestGuildConfigService(backendConfig, restTemplate, executor, cacheMetrics);
+        guildModulesService = new RestGuildModulesService(backendConfig, restTemplate, executor, cacheMetrics);
+        guildPermsService = new RestGuildPermsService(backendConfig, restTemplate, executor, cacheMetrics);
+        loader = new GuildSettingsLoader(guildConfigService, guildModulesService, guildPermsService, guildId -> ";;");
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void loadPopulatesTheCachesOfTheServices() {
+        loader.load(1L).block();
+        assertEquals(3, quarterdeck.fetches.get());
+
+        assertEquals("1", guildConfigService.fetch("1").getId());
+        assertEquals(1L, (long) guildModulesService.fetch(1L).getId());
+        assertEquals("1", guildPermsService.fetch("1").getId());
+        assertEquals(3, quarterdeck.fetches.get(), "the settings should have been served from the caches");
+
+        loader.load(1L).block();
+        assertEquals(3, quarterdeck.fetches.get(), "cached settings should not be requested again");
+    }
+
+    @Test
+    void snapshotsBecomeStaleWhenTheSettingsChange() {
+        loader.snapshot(1L).block();
+        GuildSettings settings = loader.snapshot(1L).block();
+        assertFalse(loader.isStale(settings));
+        assertEquals(";;", settings.getPrefix());
+        assertFalse(settings.isTrackAnnounce());
+        assertEquals(3, quarterdeck.fetches.get(), "snapshots should be made from the cached settings");
+
+        guildConfigService.transformGuildConfig(1, config -> config.setTrackAnnounce(true));
+        assertTrue(loader.isStale(settings));
+        GuildSettings changed = loader.snapshot(1L).block();
+        assertFalse(loader.isStale(changed));
+        assertTrue(changed.isTrackAnnounce());
+        assertTrue(changed.getVersion() > settings.getVersion());
+
+        guildModulesService.transform(1L, modules -> modules.disableModule(Module.FUN));
+        assertTrue(loader.isStale(changed));
+        assertFalse(loader.snapshot(1L).block().isEnabled(Module.FUN));
+        assertTrue(changed.isEnabled(Module.FUN), "snapshots should not change");
+
+        GuildSettings current = loader.snapshot(1L).block();
+        guildPermsService.invalidate("1");
+        assertTrue(loader.isStale(current), "invalidated settings should make snapshots stale right away");
+    }
+
+    @Test
+    void coldGuildSettingsAreRequestedInParallel() {
+        //what a command in a cold guild did before: each setting misses its cache in turn
+        guildConfigService.fetch("1");
+        guildModulesService.fetch(1L);
+        guildPermsService.fetch("1");
+        assertEquals(1, quarterdeck.maxInFlight.get());
+
+        //requests sent one after another would each be held until the timeout, and never be in flight together
+        quarterdeck.maxInFlight.set(0);
+        quarterdeck.holdUntilInFlight(3);
+        loader.load(2L).block();
+        assertEquals(3, quarterdeck.maxInFlight.get(), "settings should be requested in parallel");
+
+        guildConfigService.fetch("2");
+        guildModulesService.fetch(2L);
+        guildPermsService.fetch("2");
+        assertEquals(6, quarterdeck.fetches.get(), "the loaded settings should have been served from the caches");
+    }
+}
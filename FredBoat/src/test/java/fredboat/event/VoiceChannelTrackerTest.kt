@@ -0,0 +1,163 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.event
+
+import fredboat.sentinel.Guild
+import fredboat.sentinel.Member
+import fredboat.sentinel.RawMember
+import fredboat.sentinel.RawUser
+import fredboat.sentinel.VoiceChannel
+import fredboat.testutil.BaseTest
+import fredboat.testutil.sentinel.Raws
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import java.time.Instant
+
+class VoiceChannelTrackerTest : BaseTest() {
+
+    private val tracker = VoiceChannelTracker(RawUser(Raws.self.id, Raws.self.name, Raws.self.discrim, true))
+    private val guild = object : Guild(Raws.guild) {}
+    private val self = member(Raws.self)
+    private val bot = member(Raws.self.copy(id = 1L, name = "Some other bot"))
+    private val owner = member(Raws.owner)
+    private val napster = member(Raws.napster)
+    private val realkc = member(Raws.realkc)
+
+    @Test
+    fun humansAreCountedInOurChannelOnly() {
+        val ours = channel(1L, self, owner)
+        val other = channel(2L, napster)
+        tracker.onVoiceJoin(ours, self)
+        assertEquals(1, tracker.getHumans(guild.id))
+        assertEquals(setOf(guild.id), tracker.guilds)
+
+        tracker.onVoiceJoin(ours, napster)
+        tracker.onVoiceJoin(ours, realkc)
+        assertEquals(3, tracker.getHumans(guild.id))
+        tracker.onVoiceLeave(ours, realkc)
+        tracker.onVoiceJoin(other, realkc)
+        assertEquals(2, tracker.getHumans(guild.id), "joins of other channels should not be counted")
+
+        tracker.onVoiceMove(ours, other, napster)
+        assertEquals(1, tracker.getHumans(guild.id))
+        tracker.onVoiceMove(other, ours, realkc)
+        assertEquals(2, tracker.getHumans(guild.id))
+        tracker.onVoiceLeave(other, napster)
+        assertEquals(2, tracker.getHumans(guild.id))
+    }
+
+    @Test
+    fun botsAreNotCounted() {
+        val ours = channel(1L, self, owner)
+        tracker.onVoiceJoin(ours, self)
+        tracker.onVoiceJoin(ours, bot)
+        assertEquals(1, tracker.getHumans(guild.id))
+        tracker.onVoiceMove(channel(2L), ours, bot)
+        tracker.onVoiceLeave(ours, bot)
+        assertEquals(1, tracker.getHumans(guild.id))
+        assertEquals(0, tracker.emptyChannels.size)
+    }
+
+    @Test
+    fun ourOwnMovesRecountTheChannel() {
+        assertNull(tracker.getHumans(guild.id))
+        val first = channel(1L, self, owner, bot)
+        tracker.onVoiceJoin(first, self)
+        assertEquals(1, tracker.getHumans(guild.id))
+
+        tracker.onVoiceMove(first, channel(2L, self, napster, realkc), self)
+        assertEquals(2, tracker.getHumans(guild.id))
+        tracker.onVoiceLeave(first, owner)
+        assertEquals(2, tracker.getHumans(guild.id), "leaves of the channel we left should not be counted anymore")
+
+        tracker.onVoiceLeave(channel(2L, napster, realkc), self)
+        assertNull(tracker.getHumans(guild.id))
+        assertTrue(tracker.guilds.isEmpty())
+    }
+
+    @Test
+    fun emptyChannelsAreScheduledUntilSomeoneComesBack() {
+        val ours = channel(1L, self, owner)
+        tracker.onVoiceJoin(ours, self)
+        assertEquals(0, tracker.emptyChannels.size)
+
+        tracker.onVoiceLeave(ours, owner)
+        assertEquals(0, tracker.getHumans(guild.id))
+        assertEquals(1, tracker.emptyChannels.size, "the deadline should be armed once the last human left")
+        tracker.onVoiceLeave(ours, napster)
+        assertEquals(0, tracker.getHumans(guild.id), "the count should not go below zero")
+        assertTrue(tracker.emptyChannels.advance().isEmpty(), "the deadline should not be due right away")
+
+        tracker.onVoiceJoin(ours, bot)
+        assertEquals(1, tracker.emptyChannels.size, "bots should not disarm the deadline")
+        tracker.onVoiceMove(channel(2L), ours, napster)
+        assertEquals(0, tracker.emptyChannels.size, "the deadline should be disarmed once a human came back")
+
+        tracker.onVoiceMove(ours, channel(2L), napster)
+        assertEquals(1, tracker.emptyChannels.size)
+        tracker.onGuildLeave(guild.id, Instant.now())
+        assertEquals(0, tracker.emptyChannels.size, "the deadline should be disarmed once we left the guild")
+        assertNull(tracker.getHumans(guild.id))
+    }
+
+    @Test
+    fun joiningAnEmptyChannelArmsTheDeadline() {
+        tracker.onVoiceJoin(channel(1L, self, bot), self)
+        assertEquals(0, tracker.getHumans(guild.id))
+        assertEquals(1, tracker.emptyChannels.size)
+
+        tracker.onVoiceMove(channel(1L, bot), channel(2L, self, owner), self)
+        assertEquals(0, tracker.emptyChannels.size, "moving to a channel with humans should disarm the deadline")
+    }
+
+    @Test
+    fun recountCorrectsTheCount() {
+        val ours = channel(1L, self, owner)
+        tracker.onVoiceJoin(ours, self)
+        //missed leave events
+        tracker.recount(channel(1L, self))
+        assertEquals(0, tracker.getHumans(guild.id))
+        assertEquals(1, tracker.emptyChannels.size)
+
+        //missed join events
+        tracker.recount(channel(1L, self, owner, napster, bot))
+        assertEquals(2, tracker.getHumans(guild.id))
+        assertEquals(0, tracker.emptyChannels.size)
+        tracker.recount(channel(1L, self, owner))
+        assertEquals(1, tracker.getHumans(guild.id))
+        assertEquals(0, tracker.emptyChannels.size, "a recount that leaves humans should not arm the deadline")
+    }
+
+    private fun member(raw: RawMember) = object : Member(guild, raw) {}
+
+    private fun channel(id: Long, vararg members: Member) = object : VoiceChannel(guild,
+            Raws.musicChannel.copy(id = id, members = members.map { it.id })) {
+        init {
+            _name = "Channel $id"
+            _members = members.toMutableList()
+        }
+    }
+}
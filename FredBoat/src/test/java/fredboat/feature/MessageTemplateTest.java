@@ -0,0 +1,146 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.feature;
+
+import fredboat.testutil.BaseTest;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares templates against formatting with {@link MessageFormat} directly, for the strings of all bundled languages.
+ */
+class MessageTemplateTest extends BaseTest {
+
+    private static final Object[] ARGUMENTS = {"first", 2, "<@third>", 4.5, "'fifth'", -6000, null, "eighth", 9L, "{9}"};
+
+    @BeforeAll
+    static void loadLanguages() {
+        I18n.start();
+    }
+
+    @Test
+    void matchesMessageFormatForAllLanguages() {
+        int compared = 0;
+        for (I18n.FredBoatLocale locale : I18n.LANGS.values()) {
+            ResourceBundle props = locale.getProps();
+            for (String key : props.keySet()) {
+                assertSameResult(props.getString(key));
+                compared++;
+            }
+        }
+        assertTrue(compared > 0);
+    }
+
+    @Test
+    void matchesMessageFormatForEdgeCases() {
+        String[] patterns = {
+                "", "plain", "it''s", "'quoted {0}'", "'{'{0}'}'", "{0}", "{0}{1}", "{1} before {0}", "{0}{0}",
+                "{3} and {5}", "{12}", "{0,}", "{0,number}", "{1,number,integer}", "{3,number,#.##}",
+                "{1,choice,0#none|1#one|1<many}", "{0", "{a}", "trailing '", "unmatched }", "{0,number,''#''}"
+        };
+        for (String pattern : patterns) {
+            assertSameResult(pattern);
+        }
+    }
+
+    @Test
+    void builderArgumentsAreAppendedLikeStrings() {
+        MessageTemplate template = MessageTemplate.compile("**{0}** added by **{1}** `[{2}]`");
+        Object[] strings = {"title", "name", "01:00"};
+        Object[] builders = {new StringBuilder("title"), new StringBuilder("name"), new StringBuilder("01:00")};
+        assertEquals(MessageFormat.format(template.getPattern(), strings), template.format(builders));
+    }
+
+    @Test
+    void templatesAreFasterThanParsingEachTime() {
+        List<String> patterns = new ArrayList<>();
+        List<MessageTemplate> templates = new ArrayList<>();
+        for (I18n.FredBoatLocale locale : I18n.LANGS.values()) {
+            ResourceBundle props = locale.getProps();
+            for (String key : props.keySet()) {
+                MessageTemplate template;
+                try {
+                    template = locale.getTemplate(key);
+                } catch (IllegalArgumentException e) {
+                    continue; //some strings are not meant to be formatted
+                }
+                patterns.add(template.getPattern());
+                templates.add(template);
+            }
+        }
+
+        long parsing = 0;
+        long compiled = 0;
+        //the first rounds warm up the jit
+        for (int round = 0; round < 10; round++) {
+            parsing = nanosTaken(() -> {
+                for (String pattern : patterns) {
+                    MessageFormat.format(pattern, ARGUMENTS);
+                }
+            });
+            compiled = nanosTaken(() -> {
+                for (MessageTemplate template : templates) {
+                    template.format(ARGUMENTS);
+                }
+            });
+        }
+
+        log.info("Formatting {} strings took {}ms parsing each time, {}ms with templates", patterns.size(),
+                TimeUnit.NANOSECONDS.toMillis(parsing), TimeUnit.NANOSECONDS.toMillis(compiled));
+        assertTrue(compiled < parsing);
+    }
+
+    private static void assertSameResult(String pattern) {
+        String expected;
+        try {
+            expected = MessageFormat.format(pattern, ARGUMENTS);
+        } catch (IllegalArgumentException e) {
+            assertThrows(IllegalArgumentException.class, () -> MessageTemplate.compile(pattern).format(ARGUMENTS),
+                    pattern);
+            return;
+        }
+
+        MessageTemplate template = MessageTemplate.compile(pattern);
+        assertEquals(expected, template.format(ARGUMENTS), pattern);
+        assertEquals("> " + expected, template.formatTo(new StringBuilder("> "), ARGUMENTS).toString(), pattern);
+    }
+
+    private static long nanosTaken(Runnable runnable) {
+        long started = System.nanoTime();
+        runnable.run();
+        return System.nanoTime() - started;
+    }
+}
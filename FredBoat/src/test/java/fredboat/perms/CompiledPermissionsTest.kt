@@ -0,0 +1,85 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.perms
+
+import fredboat.db.transfer.GuildPermissions
+import fredboat.definitions.PermissionLevel
+import fredboat.testutil.BaseTest
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+
+class CompiledPermissionsTest : BaseTest() {
+
+    companion object {
+        private const val GUILD = 100L
+        private const val MEMBER = 200L
+        private const val ROLE = 300L
+        private const val OTHER_ROLE = 301L
+    }
+
+    @Test
+    fun memberIdIsListed() {
+        val perms = compile { adminList = listOf(MEMBER.toString()) }
+        assertEquals(PermissionLevel.ADMIN, perms.getLevel(MEMBER, GUILD, longArrayOf()))
+        assertEquals(PermissionLevel.BASE, perms.getLevel(MEMBER + 1, GUILD, longArrayOf()))
+    }
+
+    @Test
+    fun roleOfMemberIsListed() {
+        val perms = compile { djList = listOf(OTHER_ROLE.toString(), ROLE.toString()) }
+        assertEquals(PermissionLevel.DJ, perms.getLevel(MEMBER, GUILD, longArrayOf(ROLE)))
+        assertEquals(PermissionLevel.BASE, perms.getLevel(MEMBER, GUILD, longArrayOf(ROLE + 10)))
+    }
+
+    @Test
+    fun publicRoleGrantsEveryone() {
+        val perms = compile { userList = listOf(GUILD.toString()) }
+        assertEquals(PermissionLevel.USER, perms.getLevel(MEMBER, GUILD, longArrayOf()))
+    }
+
+    @Test
+    fun highestListWins() {
+        val perms = compile {
+            adminList = listOf(OTHER_ROLE.toString())
+            djList = listOf(ROLE.toString())
+            userList = listOf(GUILD.toString())
+        }
+        assertEquals(PermissionLevel.ADMIN, perms.getLevel(MEMBER, GUILD, longArrayOf(ROLE, OTHER_ROLE)))
+        assertEquals(PermissionLevel.DJ, perms.getLevel(MEMBER, GUILD, longArrayOf(ROLE)))
+        assertEquals(PermissionLevel.USER, perms.getLevel(MEMBER, GUILD, longArrayOf()))
+    }
+
+    @Test
+    fun emptyAndInvalidEntriesAreIgnored() {
+        // an empty list is stored as a single empty string
+        val perms = compile { adminList = listOf("", "not an id", ROLE.toString()) }
+        assertEquals(PermissionLevel.ADMIN, perms.getLevel(MEMBER, GUILD, longArrayOf(ROLE)))
+        assertEquals(PermissionLevel.BASE, CompiledPermissions(GuildPermissions()).getLevel(MEMBER, GUILD, longArrayOf()))
+    }
+
+    private fun compile(setup: GuildPermissions.() -> Unit) =
+            CompiledPermissions(GuildPermissions().apply { id = GUILD.toString() }.apply(setup))
+}
@@ -0,0 +1,77 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.sentinel
+
+import fredboat.event.VoiceChannelTracker
+import fredboat.testutil.IntegrationTest
+import fredboat.testutil.sentinel.Raws
+import fredboat.testutil.sentinel.SentinelState
+import fredboat.testutil.sentinel.delayUntil
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+
+/**
+ * Sends voice events through the [RabbitConsumer], and checks that the [VoiceChannelTracker] arms the deadline of our
+ * voice channel once its last human left, and disarms it once one came back.
+ */
+class VoiceEventTest : IntegrationTest() {
+
+    private val guildId = Raws.guild.id
+
+    @Test
+    fun voiceEventsArmAndDisarmTheDeadline(tracker: VoiceChannelTracker) {
+        SentinelState.joinChannel(Raws.owner)
+        SentinelState.joinChannel(Raws.self)
+        tracker.awaitHumans(1)
+        assertFalse(guildId in tracker.emptyChannels)
+
+        SentinelState.leaveChannel(Raws.owner)
+        tracker.awaitHumans(0)
+        assertTrue(guildId in tracker.emptyChannels, "the deadline should be armed once the last human left")
+
+        SentinelState.joinChannel(Raws.napster)
+        tracker.awaitHumans(1)
+        assertFalse(guildId in tracker.emptyChannels, "the deadline should be disarmed once a human joined")
+
+        SentinelState.moveChannel(Raws.napster, to = Raws.afkChannel)
+        tracker.awaitHumans(0)
+        assertTrue(guildId in tracker.emptyChannels, "the deadline should be armed once the last human moved away")
+
+        SentinelState.moveChannel(Raws.napster, from = Raws.afkChannel, to = Raws.musicChannel)
+        tracker.awaitHumans(1)
+        assertFalse(guildId in tracker.emptyChannels, "the deadline should be disarmed once a human moved in")
+
+        SentinelState.leaveChannel(Raws.self)
+        delayUntil { tracker.getHumans(guildId) == null }
+        assertNull(tracker.getHumans(guildId), "our channel should be forgotten once we left it")
+    }
+
+    //the consumer handles events on many threads, so the tracker may not have seen an event yet
+    private fun VoiceChannelTracker.awaitHumans(humans: Int) {
+        delayUntil { getHumans(guildId) == humans }
+        assertEquals(humans, getHumans(guildId))
+    }
+}
@@ -60,6 +60,8 @@ class MockConfig : AppConfig, AudioSourcesConfig, Credentials, EventLoggerConfig
 
     override fun getContinuePlayback() = false
 
+    override fun getPersistentHistorySize() = 0
+
     override fun getPlayerLimit() = -1
 
     override fun isYouTubeEnabled() = true
@@ -119,6 +121,7 @@ class MockConfig : AppConfig, AudioSourcesConfig, Credentials, EventLoggerConfig
         override fun getUser() = "test"
         override fun getPass() = "test"
         override fun getBasicAuth() =  okhttp3.Credentials.basic(user, pass)
+        override fun isChangeEvents() = false
     }
 
     override fun getRatelimit(): RatelimitConfig? = null
@@ -104,13 +104,21 @@ object Raws {
             (Permission.VIEW_CHANNEL + Permission.VOICE_CONNECT + Permission.VOICE_SPEAK).raw
     )
 
+    val afkChannel = RawVoiceChannel(
+            226661083644379136,
+            "AFK",
+            mutableListOf(),
+            5,
+            (Permission.VIEW_CHANNEL + Permission.VOICE_CONNECT).raw
+    )
+
     val guild = RawGuild(
             174820236481134592,
             "FredBoat Hangout",
             owner.id,
             mutableListOf(owner, self, napster, realkc),
             mutableListOf(generalChannel, privateChannel),
-            mutableListOf(musicChannel),
+            mutableListOf(musicChannel, afkChannel),
             mutableListOf(botAdminRole, uberAdminRole, adminRole),
             voiceServerUpdate = null
     )
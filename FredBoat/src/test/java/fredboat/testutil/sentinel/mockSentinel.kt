@@ -79,10 +79,55 @@ object SentinelState {
         log.info("${member.name} joined ${channel.name}")
     }
 
+    fun leaveChannel(
+            member: RawMember = Raws.owner,
+            channel: RawVoiceChannel = Raws.musicChannel
+    ) {
+        guild = setVoiceChannel(guild, member, null)
+        rabbit.convertAndSend(SentinelExchanges.EVENTS, VoiceLeaveEvent(
+                Raws.guild.id,
+                channel.id,
+                member.id))
+
+        log.info("Emulating ${member.id} leaving ${channel.id}")
+        delayUntil(timeout = 4000) { guildCache.getIfCached(guild.id)?.getMember(member.id)?.voiceChannel == null }
+        if (guildCache.getIfCached(guild.id)?.getMember(member.id)?.voiceChannel != null) {
+            throw RuntimeException("Failed to leave VC ${channel.id}")
+        }
+    }
+
+    fun moveChannel(
+            member: RawMember = Raws.owner,
+            from: RawVoiceChannel = Raws.musicChannel,
+            to: RawVoiceChannel = Raws.afkChannel
+    ) {
+        guild = setVoiceChannel(guild, member, to)
+        rabbit.convertAndSend(SentinelExchanges.EVENTS, VoiceMoveEvent(
+                Raws.guild.id,
+                from.id,
+                to.id,
+                member.id))
+
+        log.info("Emulating ${member.id} moving from ${from.id} to ${to.id}")
+        delayUntil(timeout = 4000) { guildCache.getIfCached(guild.id)?.getMember(member.id)?.voiceChannel?.id == to.id }
+        if (guildCache.getIfCached(guild.id)?.getMember(member.id)?.voiceChannel?.id != to.id) {
+            throw RuntimeException("Failed to move to VC ${to.id}")
+        }
+    }
+
     fun setRoles(guild: RawGuild = SentinelState.guild, member: RawMember, roles: List<Long>) {
         SentinelState.guild = setMember(guild, member.copy(roles = roles))
     }
 
+    //takes the member out of all voice channels, and puts it into the given one
+    private fun setVoiceChannel(guild: RawGuild, member: RawMember, channel: RawVoiceChannel?): RawGuild {
+        val voiceChannels = guild.voiceChannels.map { vc ->
+            val members = vc.members.filter { it != member.id }
+            vc.copy(members = if (vc.id == channel?.id) members + member.id else members)
+        }
+        return setMember(guild.copy(voiceChannels = voiceChannels), member.copy(voiceChannel = channel?.id))
+    }
+
     private fun setMember(guild: RawGuild, member: RawMember): RawGuild {
         return guild.copy(members = guild.members.toMutableList().apply {
             removeIf { it.id == member.id }
@@ -31,9 +31,11 @@ import org.junit.jupiter.api.DynamicTest;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Random;
 import java.util.stream.Stream;
 
 class TextUtilsTest extends BaseTest {
@@ -84,6 +86,115 @@ class TextUtilsTest extends BaseTest {
         );
     }
 
+    @Test
+    void escapingMatchesTheChainedReplacements() {
+        for (String input : escapingInputs()) {
+            String escaped = legacyEscapeMarkdown(input);
+            Assertions.assertEquals(escaped, TextUtils.escapeMarkdown(input), input);
+            Assertions.assertEquals(legacyEscapeBackticks(input), TextUtils.escapeBackticks(input), input);
+            Assertions.assertEquals(legacyDefuse(input), TextUtils.defuse(input), input);
+            Assertions.assertEquals(legacyDefuse(escaped), TextUtils.escapeAndDefuse(input), input);
+
+            Assertions.assertEquals("> " + escaped,
+                    TextUtils.appendEscapedMarkdown(new StringBuilder("> "), input).toString(), input);
+            Assertions.assertEquals("> " + legacyDefuse(escaped),
+                    TextUtils.appendEscapedAndDefused(new StringBuilder("> "), input).toString(), input);
+        }
+    }
+
+    @Test
+    void inputsWithoutSpecialCharactersAreReturnedAsIs() {
+        String input = "Never Gonna Give You Up (Official Video) - Rick Astley";
+        Assertions.assertSame(input, TextUtils.escapeMarkdown(input));
+        Assertions.assertSame(input, TextUtils.escapeAndDefuse(input));
+        Assertions.assertSame(input, TextUtils.defuse(input));
+        Assertions.assertSame(input, TextUtils.escapeBackticks(input));
+    }
+
+    @Test
+    void formattingMatchesTheStringConcatenation() {
+        long[] millis = {0, 999, 1000, 59_999, 60_000, 3_599_999, 3_600_000, 36_000_000, 359_999_999,
+                Integer.MAX_VALUE * 1000L, -1000, -61_000, -3_600_000, Long.MAX_VALUE, Long.MAX_VALUE - 1};
+        for (long m : millis) {
+            Assertions.assertEquals(legacyFormatTime(m), TextUtils.formatTime(m), Long.toString(m));
+            Assertions.assertEquals("> " + legacyFormatTime(m),
+                    TextUtils.appendTime(new StringBuilder("> "), m).toString(), Long.toString(m));
+        }
+
+        int[] numbers = {0, 1, 9, 10, 99, 100, 12345, -1, -10, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        for (int i : numbers) {
+            for (int n = 0; n < 12; n++) {
+                Assertions.assertEquals(legacyForceNDigits(i, n), TextUtils.forceNDigits(i, n), i + " " + n);
+                Assertions.assertEquals("> " + legacyForceNDigits(i, n),
+                        TextUtils.appendNDigits(new StringBuilder("> "), i, n).toString(), i + " " + n);
+            }
+        }
+    }
+
+    private static List<String> escapingInputs() {
+        List<String> inputs = new ArrayList<>(Arrays.asList(
+                "", "plain", "*", "**bold**", "`code`", "~~strike~~", "__under__", "||spoiler||", "\\*",
+                "@here", "@everyone", "@@here", "@here@everyone", "@he_re", "@every*one", "@her", "@everyon",
+                "https://fred.moe", "://", ":://", ":/_/", "a://b://c", "@here://@everyone", "_@here_"
+        ));
+        //random combinations of the interesting parts
+        String[] parts = {"a", " ", "*", "`", "~", "_", "|", "\\", "@", "here", "everyone", ":", "/", "//", "://",
+                "@here", "@everyone", "\u200b"};
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder input = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                input.append(parts[random.nextInt(parts.length)]);
+            }
+            inputs.add(input.toString());
+        }
+        return inputs;
+    }
+
+    //what the helpers of TextUtils did before they were rewritten to do a single pass
+
+    private static String legacyEscapeMarkdown(String input) {
+        return TextUtils.escape(input, Arrays.asList('*', '`', '~', '_', '|'));
+    }
+
+    private static String legacyEscapeBackticks(String input) {
+        return TextUtils.escape(input, Arrays.asList('`'));
+    }
+
+    private static String legacyDefuse(String input) {
+        return input.replaceAll("@here", "@" + TextUtils.ZERO_WIDTH_CHAR + "here")
+                .replaceAll("@everyone", "@" + TextUtils.ZERO_WIDTH_CHAR + "everyone")
+                .replaceAll("://", ":" + TextUtils.ZERO_WIDTH_CHAR + "//");
+    }
+
+    private static String legacyFormatTime(long millis) {
+        if (millis == Long.MAX_VALUE) {
+            return "LIVE";
+        }
+        long t = millis / 1000L;
+        int sec = (int) (t % 60L);
+        int min = (int) ((t % 3600L) / 60L);
+        int hrs = (int) (t / 3600L);
+        if (hrs != 0) {
+            return legacyTwoDigits(hrs) + ":" + legacyTwoDigits(min) + ":" + legacyTwoDigits(sec);
+        } else {
+            return legacyTwoDigits(min) + ":" + legacyTwoDigits(sec);
+        }
+    }
+
+    private static String legacyTwoDigits(int i) {
+        return i < 10 ? "0" + i : Integer.toString(i);
+    }
+
+    private static String legacyForceNDigits(int i, int n) {
+        StringBuilder str = new StringBuilder(Integer.toString(i));
+        while (str.length() < n) {
+            str.insert(0, "0");
+        }
+        return str.toString();
+    }
+
     private void assertSplitSelect(Collection<Integer> expected, String testCase) {
         Assertions.assertTrue(
                 TextUtils.isSplitSelect(testCase),
@@ -0,0 +1,86 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.util
+
+import fredboat.testutil.BaseTest
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+class RingBufferTest : BaseTest() {
+
+    @Test
+    fun latestElementsAreKept() {
+        val buffer = RingBuffer<Int>(3)
+        assertTrue(buffer.isEmpty)
+        assertNull(buffer[0])
+
+        buffer.add(1)
+        buffer.add(2)
+        assertEquals(2, buffer.size)
+        assertEquals(2, buffer[0])
+        assertEquals(1, buffer[1])
+        assertNull(buffer[2])
+
+        (3..5).forEach { buffer.add(it) }
+        assertEquals(3, buffer.size)
+        assertEquals(listOf(5, 4, 3), (0 until 3).map { buffer[it] })
+        assertNull(buffer[3])
+        assertNull(buffer[-1])
+    }
+
+    @Test
+    fun readersNeverSeeOverwrittenElements() {
+        val buffer = RingBuffer<Long>(8)
+        val writing = AtomicBoolean(true)
+        val executor = Executors.newFixedThreadPool(4)
+        val writer = executor.submit {
+            for (i in 1L..1_000_000L) buffer.add(i)
+            writing.set(false)
+        }
+        val readers = (0 until 3).map {
+            executor.submit {
+                while (writing.get()) {
+                    //the nth element is n, so an element read at an index must be the latest element at some point
+                    // in between minus the index. A replaced element would be newer than that
+                    for (index in 0 until buffer.capacity) {
+                        val before = buffer[0] ?: continue
+                        val element = buffer[index] ?: continue
+                        val after = buffer[0]!!
+                        assertTrue(element in before - index..after - index, "read $element at $index")
+                    }
+                }
+            }
+        }
+        writer.get()
+        readers.forEach { it.get() }
+        executor.shutdown()
+        executor.awaitTermination(10, TimeUnit.SECONDS)
+        assertEquals(1_000_000L, buffer[0])
+    }
+}
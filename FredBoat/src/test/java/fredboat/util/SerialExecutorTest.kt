@@ -0,0 +1,93 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.util
+
+import fredboat.testutil.BaseTest
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class SerialExecutorTest : BaseTest() {
+
+    @Test
+    fun tasksRunOneAfterAnotherInOrder() {
+        val pool = Executors.newFixedThreadPool(8)
+        val executor = SerialExecutor(pool, 10_000)
+        val running = AtomicInteger()
+        val order = mutableListOf<Int>()
+        val done = CountDownLatch(1000)
+        repeat(1000) { i ->
+            executor.execute {
+                assertEquals(1, running.incrementAndGet(), "tasks should not run at the same time")
+                order.add(i)
+                running.decrementAndGet()
+                done.countDown()
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS))
+        pool.shutdown()
+        assertEquals((0 until 1000).toList(), order)
+    }
+
+    @Test
+    fun tasksBeyondTheLimitAreRejected() {
+        val pool = Executors.newSingleThreadExecutor()
+        val executor = SerialExecutor(pool, 2)
+        val blocker = CountDownLatch(1)
+        val started = CountDownLatch(1)
+        executor.execute {
+            started.countDown()
+            blocker.await()
+        }
+        started.await()
+        executor.execute {}
+        executor.execute {}
+        assertThrows<RejectedExecutionException> { executor.execute {} }
+
+        blocker.countDown()
+        pool.shutdown()
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS))
+    }
+
+    @Test
+    fun tasksRunOnTheCallerIfTheDelegateRejects() {
+        val pool = Executors.newSingleThreadExecutor()
+        pool.shutdown()
+        val executor = SerialExecutor(pool, 2)
+        var ranOn: Thread? = null
+        executor.execute { ranOn = Thread.currentThread() }
+        assertSame(Thread.currentThread(), ranOn)
+
+        //and the executor is usable after that
+        executor.execute { ranOn = null }
+        assertNull(ranOn)
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.util
+
+import fredboat.testutil.BaseTest
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+
+class TimingWheelTest : BaseTest() {
+
+    private var now = 1_000_000L
+    private val wheel = TimingWheel<Long>(TICK, SLOTS) { now }
+
+    @Test
+    fun keysAreDueAfterTheirDelay() {
+        wheel.schedule(1, 25)
+        wheel.schedule(2, 50)
+        assertEquals(2, wheel.size)
+
+        now += 20
+        assertEquals(emptyList<Long>(), wheel.advance())
+        now += 10
+        assertEquals(listOf(1L), wheel.advance())
+        assertEquals(emptyList<Long>(), wheel.advance(), "keys should only be due once")
+        now += 20
+        assertEquals(listOf(2L), wheel.advance())
+        assertEquals(0, wheel.size)
+    }
+
+    @Test
+    fun rescheduledKeysAreDueAtTheirLatestDeadline() {
+        wheel.schedule(1, 30)
+        now += 20
+        wheel.schedule(1, 30)
+        now += 20
+        assertEquals(emptyList<Long>(), wheel.advance())
+        now += 10
+        assertEquals(listOf(1L), wheel.advance())
+
+        wheel.schedule(2, 30)
+        assertTrue(2L in wheel)
+        wheel.cancel(2)
+        assertFalse(2L in wheel)
+        now += 100
+        assertEquals(emptyList<Long>(), wheel.advance())
+    }
+
+    @Test
+    fun deadlinesBeyondOneRotationWaitForTheirRotation() {
+        val rotation = TICK * SLOTS
+        wheel.schedule(1, 2 * rotation + 5)
+        repeat(2 * SLOTS) {
+            now += TICK
+            assertEquals(emptyList<Long>(), wheel.advance())
+        }
+        now += TICK
+        assertEquals(listOf(1L), wheel.advance())
+    }
+
+    @Test
+    fun keysThatBecameDueWhileNotAdvancingAreAllDue() {
+        (1L..100L).forEach { wheel.schedule(it, it * 7) }
+        now += 10 * TICK * SLOTS
+        assertEquals((1L..100L).toSet(), wheel.advance().toSet())
+        assertEquals(0, wheel.size)
+    }
+
+    @Test
+    fun keysAreDueNoLaterThanOneTickAfterTheirDeadline() {
+        val deadlines = (1L..500L).associate { it to it * 13 % 700 }
+        deadlines.forEach { (key, delay) -> wheel.schedule(key, delay) }
+        val start = now
+        val dueAt = mutableMapOf<Long, Long>()
+        while (dueAt.size < deadlines.size && now - start < 1000) {
+            now += 3
+            wheel.advance().forEach { dueAt[it] = now - start }
+        }
+        deadlines.forEach { (key, delay) ->
+            val at = dueAt[key]
+            assertNotNull(at, "key $key never became due")
+            assertTrue(at!! >= delay && at < delay + TICK + 3, "key $key with delay $delay was due at $at")
+        }
+    }
+
+    companion object {
+        private const val TICK = 10L
+        private const val SLOTS = 8
+    }
+}
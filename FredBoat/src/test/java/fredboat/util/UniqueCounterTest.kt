@@ -0,0 +1,150 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.util
+
+import fredboat.testutil.BaseTest
+import fredboat.testutil.Heap
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import reactor.core.publisher.Flux
+import java.util.concurrent.TimeUnit
+
+class UniqueCounterTest : BaseTest() {
+
+    @Test
+    fun smallCountsAreExact() {
+        val counter = UniqueCounter(exactLimit = 1000)
+        (1L..1000L).forEach { counter.add(it) }
+        (1L..1000L).forEach { counter.add(it) }
+        assertFalse(counter.isEstimate)
+        assertEquals(1000, counter.count())
+
+        counter.add(1001)
+        assertTrue(counter.isEstimate)
+        assertWithinError(1001, counter.count())
+    }
+
+    @Test
+    fun largeCountsAreEstimated() {
+        listOf(10_000L, 100_000L, 1_000_000L).forEach { users ->
+            val counter = UniqueCounter(exactLimit = 0)
+            (0 until users).forEach { counter.add(snowflake(it)) }
+            assertWithinError(users, counter.count())
+        }
+    }
+
+    @Test
+    fun mergedCountersCountTheUnion() {
+        //overlapping ranges of users, as users share guilds on different shards
+        val first = UniqueCounter(exactLimit = 50_000)
+        val second = UniqueCounter(exactLimit = 50_000)
+        (0L until 40_000L).forEach { first.add(snowflake(it)) }
+        (30_000L until 60_000L).forEach { second.add(snowflake(it)) }
+        assertEquals(60_000, UniqueCounter(exactLimit = 100_000).merge(first).merge(second).count())
+
+        val sketch = UniqueCounter(exactLimit = 0)
+        (50_000L until 300_000L).forEach { sketch.add(snowflake(it)) }
+        assertWithinError(300_000, first.merge(second).merge(sketch).count())
+        assertWithinError(300_000, UniqueCounter(exactLimit = 0).merge(sketch).merge(first).count())
+    }
+
+    @Test
+    fun sketchesHaveAFixedSize() {
+        val counter = UniqueCounter()
+        (0L until 100_000L).forEach { counter.add(snowflake(it)) }
+        assertFalse(counter.isEstimate, "up to 100k users should be counted exactly")
+        assertEquals(0, counter.registerCount)
+
+        counter.add(snowflake(100_000))
+        assertTrue(counter.isEstimate)
+        assertEquals(UniqueCounter.REGISTERS, counter.registerCount)
+        assertEquals(16384, UniqueCounter.REGISTERS, "a sketch should take 16KiB of registers")
+
+        (100_000L until 1_000_000L).forEach { counter.add(snowflake(it)) }
+        assertEquals(UniqueCounter.REGISTERS, counter.registerCount)
+        val merged = UniqueCounter().merge(counter)
+        assertEquals(UniqueCounter.REGISTERS, merged.registerCount)
+    }
+
+    /** Counts the users of made up Sentinels the way it used to be done, and with sketches, and logs how they compare */
+    @Test
+    fun benchmark() {
+        val sentinels = 8
+        val usersPerSentinel = 400_000L
+        //every user is on two sentinels
+        val userLists = (0 until sentinels).map { sentinel ->
+            val first = sentinel * usersPerSentinel / 2
+            Flux.range(0, usersPerSentinel.toInt()).map { snowflake(first + it) }
+        }
+        val users = (sentinels + 1) * usersPerSentinel / 2
+
+        //timed on their own, as the collections that measure the heap below take time too
+        val setMillis = millisTaken { assertEquals(users, countWithSet(userLists) {}) }
+        val sketchMillis = millisTaken { assertWithinError(users, countWithSketches(userLists) {}) }
+
+        //both are measured the same way: by how much the heap grew once the last user list was counted, as of a
+        // collection while what the lists were counted into is still in use. This depends on the collector, so it is
+        // only logged, the size of the sketches is checked above
+        var baseline = Heap.used()
+        var setHeap = 0L
+        countWithSet(userLists) { setHeap = Heap.used() - baseline }
+        baseline = Heap.used()
+        var sketchHeap = 0L
+        countWithSketches(userLists) { sketchHeap = Heap.used() - baseline }
+
+        log.info("Counting {} users took {}ms and {}MB of heap with a set, {}ms and {}MB with sketches",
+                users, setMillis, setHeap / 1_000_000, sketchMillis, sketchHeap / 1_000_000)
+    }
+
+    private fun countWithSet(userLists: List<Flux<Long>>, onCounted: () -> Unit): Long {
+        val set = LongOpenHashSet((30000 + 5000) * 16 * userLists.size)
+        Flux.mergeSequential(withCallback(userLists, onCounted), 1, 1).subscribe { set.add(it) }
+        return set.size.toLong()
+    }
+
+    private fun countWithSketches(userLists: List<Flux<Long>>, onCounted: () -> Unit): Long =
+            SentinelCountingService.countUniqueUsers(withCallback(userLists, onCounted)).block()!!
+
+    //calls back once the last list is counted
+    private fun withCallback(userLists: List<Flux<Long>>, onCounted: () -> Unit) =
+            userLists.dropLast(1) + userLists.last().doOnComplete(onCounted)
+
+    private fun assertWithinError(expected: Long, actual: Long) {
+        //three times the standard error of the sketches
+        val error = Math.abs(actual - expected).toDouble() / expected
+        assertTrue(error < 0.025, "estimated $actual for $expected")
+    }
+
+    //discord IDs: a timestamp in the upper bits, and mostly zeros in the lower ones
+    private fun snowflake(n: Long) = ((1420070400000L + n * 977) shl 22) or (n and 0xFFF)
+
+    private fun millisTaken(block: () -> Unit): Long {
+        val started = System.nanoTime()
+        block()
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)
+    }
+}
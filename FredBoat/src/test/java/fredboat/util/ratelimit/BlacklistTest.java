@@ -0,0 +1,231 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.util.ratelimit;
+
+import fredboat.db.api.BlacklistService;
+import fredboat.db.rest.BackendException;
+import fredboat.db.transfer.BlacklistEntry;
+import fredboat.testutil.BaseTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+class BlacklistTest extends BaseTest {
+
+    private static final int HITS_BEFORE_BLACKLIST = 3;
+    private static final long WEEK = TimeUnit.DAYS.toMillis(7);
+
+    private InMemoryBlacklistService service;
+    private File dir;
+    private File file;
+    private long now = 1_000_000_000_000L;
+    private Blacklist blacklist;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        service = new InMemoryBlacklistService();
+        dir = Files.createTempDirectory("blacklist").toFile();
+        file = new File(dir, "blacklist");
+        blacklist = newBlacklist();
+    }
+
+    @AfterEach
+    void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                //noinspection ResultOfMethodCallIgnored
+                f.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        dir.delete();
+    }
+
+    @Test
+    void lookupsFetchUntilBlacklistingsWereRecordedForAWeek() {
+        Assertions.assertFalse(blacklist.isBlacklisted(42L));
+        Assertions.assertEquals(1, service.fetches, "blacklistings from before the snapshot may still last");
+
+        now += WEEK;
+        Assertions.assertFalse(blacklist.isBlacklisted(43L));
+        Assertions.assertEquals(1, service.fetches);
+    }
+
+    @Test
+    void blacklistingsFromBeforeTheSnapshotAreLookedUp() {
+        BlacklistEntry entry = new BlacklistEntry();
+        entry.setId(42L);
+        entry.setLevel(0);
+        entry.setBlacklistedTimestamp(now);
+        service.entries.put(42L, entry);
+
+        Assertions.assertTrue(blacklist.isBlacklisted(42L));
+        now += TimeUnit.MINUTES.toMillis(1);
+        Assertions.assertFalse(blacklist.isBlacklisted(42L));
+    }
+
+    @Test
+    void snapshotIsKeptAcrossRestarts() {
+        now += WEEK;
+        blacklistByHits(42L);
+        blacklist.flush();
+
+        Blacklist restarted = newBlacklist();
+        service.fetches = 0;
+        Assertions.assertTrue(restarted.isBlacklisted(42L));
+        Assertions.assertFalse(restarted.isBlacklisted(43L));
+        Assertions.assertEquals(0, service.fetches, "the recorded blacklistings should be known after a restart");
+
+        now += TimeUnit.MINUTES.toMillis(1);
+        Assertions.assertFalse(restarted.isBlacklisted(42L), "the blacklisting should have run out");
+    }
+
+    @Test
+    void recordingStartsAnewWithoutSnapshot() throws IOException {
+        now += WEEK;
+        blacklist.flush();
+        Files.write(file.toPath(), new byte[]{1, 2, 3});
+
+        Blacklist restarted = newBlacklist();
+        service.fetches = 0;
+        Assertions.assertFalse(restarted.isBlacklisted(42L));
+        Assertions.assertEquals(1, service.fetches, "a corrupted snapshot should not be trusted");
+
+        now += WEEK;
+        Assertions.assertFalse(restarted.isBlacklisted(42L));
+        Assertions.assertEquals(1, service.fetches);
+    }
+
+    @Test
+    void liftedBlacklistingsAreKeptAcrossRestarts() {
+        now += WEEK;
+        blacklistByHits(42L);
+        blacklist.flush();
+        blacklist.liftBlacklist(42L);
+        blacklist.flush();
+
+        Assertions.assertFalse(newBlacklist().isBlacklisted(42L));
+    }
+
+    @Test
+    void writesAreBatchedUntilFlush() {
+        long length = blacklistByHits(42L);
+
+        Assertions.assertTrue(length > 0);
+        Assertions.assertTrue(blacklist.isBlacklisted(42L));
+        Assertions.assertEquals(0, service.merges);
+
+        blacklist.flush();
+        Assertions.assertEquals(1, service.merges);
+        Assertions.assertEquals(0, service.entries.get(42L).getLevel());
+
+        blacklist.flush();
+        Assertions.assertEquals(1, service.merges);
+    }
+
+    @Test
+    void failedWritesAreRetried() {
+        blacklist.hitRateLimit(42L);
+        service.failMerges = true;
+        blacklist.flush();
+        Assertions.assertEquals(0, service.merges);
+
+        service.failMerges = false;
+        blacklist.flush();
+        Assertions.assertEquals(1, service.merges);
+        Assertions.assertEquals(1, service.entries.get(42L).getRateLimitReached());
+    }
+
+    @Test
+    void liftingRemovesPendingWrites() {
+        now += WEEK;
+        blacklistByHits(42L);
+        blacklist.liftBlacklist(42L);
+        blacklist.flush();
+
+        Assertions.assertFalse(blacklist.isBlacklisted(42L));
+        Assertions.assertEquals(0, service.merges);
+    }
+
+    @Test
+    void whitelistedUsersAreNeverBlacklisted() {
+        blacklistByHits(1L);
+        Assertions.assertFalse(blacklist.isBlacklisted(1L));
+    }
+
+    private Blacklist newBlacklist() {
+        return new Blacklist(service, Set.of(1L), HITS_BEFORE_BLACKLIST, file, () -> now);
+    }
+
+    private long blacklistByHits(long id) {
+        long length = 0;
+        for (int i = 0; i < HITS_BEFORE_BLACKLIST; i++) {
+            length = blacklist.hitRateLimit(id);
+        }
+        return length;
+    }
+
+    private static class InMemoryBlacklistService implements BlacklistService {
+
+        private final Map<Long, BlacklistEntry> entries = new ConcurrentHashMap<>();
+        private int fetches = 0;
+        private int merges = 0;
+        private boolean failMerges = false;
+
+        @Override
+        public BlacklistEntry fetchBlacklistEntry(long id) {
+            fetches++;
+            return entries.computeIfAbsent(id, key -> {
+                BlacklistEntry entry = new BlacklistEntry();
+                entry.setId(key);
+                return entry;
+            });
+        }
+
+        @Override
+        public BlacklistEntry mergeBlacklistEntry(BlacklistEntry entry) {
+            if (failMerges) throw new BackendException("Merges are failing");
+            merges++;
+            entries.put(entry.getId(), entry);
+            return entry;
+        }
+
+        @Override
+        public void deleteBlacklistEntry(long id) {
+            entries.remove(id);
+        }
+    }
+}
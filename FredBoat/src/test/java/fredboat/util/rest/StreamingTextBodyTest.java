@@ -0,0 +1,159 @@
+/*
+ *
+ * MIT License
+ *
+ * Copyright (c) 2017-2018 Frederik Ar. Mikkelsen
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package fredboat.util.rest;
+
+import com.sun.net.httpserver.HttpServer;
+import fredboat.testutil.BaseTest;
+import fredboat.testutil.Heap;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.Buffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Uploads bodies to a local stand-in for a paste service that reads the body as it arrives.
+ */
+class StreamingTextBodyTest extends BaseTest {
+
+    private static final int LINES = 200_000;
+    private static final String PREFIX = "https://www.youtube.com/watch?v=";
+
+    private final AtomicLong received = new AtomicLong();
+    private HttpServer server;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/documents", exchange -> {
+            byte[] chunk = new byte[8192];
+            try (InputStream in = exchange.getRequestBody()) {
+                int read;
+                while ((read = in.read(chunk)) != -1) {
+                    received.addAndGet(read);
+                }
+            }
+            byte[] response = "{\"key\":\"abc\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void linesAreJoinedByNewlines() throws IOException {
+        List<String> lines = Arrays.asList("a", "", "b");
+        StreamingTextBody body = new StreamingTextBody(lines::iterator);
+
+        assertEquals("a\n\nb", write(body));
+        assertEquals("a\n\nb", write(body), "the body should be written the same way again");
+        assertEquals("", write(new StreamingTextBody(Collections::emptyIterator)));
+    }
+
+    @Test
+    void largeBodiesAreStreamed() throws Exception {
+        UrlLines lines = new UrlLines();
+
+        Request request = new Request.Builder()
+                .url("http://127.0.0.1:" + server.getAddress().getPort() + "/documents")
+                .post(new StreamingTextBody(() -> lines))
+                .build();
+        try (Response response = new OkHttpClient().newCall(request).execute()) {
+            assertEquals(200, response.code());
+        }
+
+        long expected = (long) LINES * (PREFIX.length() + 11) + LINES - 1;
+        assertEquals(expected, lines.produced);
+        assertEquals(expected, received.get());
+        //the heap depends on the collector, so it is only logged
+        log.info("Streamed {} bytes with at most {} bytes in flight, the heap grew by {} bytes until halfway through",
+                expected, lines.maxInFlight, lines.heapGrowth);
+        //in flight are the socket buffers and the single segment that okio buffers. As rendering waits for the upload,
+        // the rendered lines cannot pile up in memory
+        assertTrue(lines.maxInFlight < expected / 4, "rendering should wait for the upload, but was ahead by "
+                + lines.maxInFlight + " bytes");
+    }
+
+    private static String write(StreamingTextBody body) throws IOException {
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+        return buffer.readUtf8();
+    }
+
+    //renders urls of made up tracks, keeps track of how far rendering is ahead of the stub, and of how much the heap
+    // grew from the start of the upload to halfway through it, as of a collection
+    private class UrlLines implements Iterator<String> {
+        private long heapBefore = 0;
+        private int rendered = 0;
+        private long produced = 0;
+        private long maxInFlight = 0;
+        private long heapGrowth = 0;
+
+        @Override
+        public boolean hasNext() {
+            return rendered < LINES;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            String line = PREFIX + String.format("%011d", rendered);
+            produced += line.length() + (rendered > 0 ? 1 : 0);
+            maxInFlight = Math.max(maxInFlight, produced - received.get());
+            if (rendered == 0) {
+                heapBefore = Heap.used();
+            } else if (rendered == LINES / 2) {
+                heapGrowth = Heap.used() - heapBefore;
+            }
+            rendered++;
+            return line;
+        }
+    }
+}
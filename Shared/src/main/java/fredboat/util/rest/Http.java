@@ -73,6 +73,15 @@ public class Http {
                 .url(url));
     }
 
+    @Nonnull
+    @CheckReturnValue
+    //post a body that okhttp can write on its own, for example one that is streamed
+    public SimpleRequest post(@Nonnull String url, @Nonnull RequestBody body) {
+        return new SimpleRequest(new Request.Builder()
+                .post(body)
+                .url(url));
+    }
+
     @Nonnull
     @CheckReturnValue
     //post a simple form body made of string string key values